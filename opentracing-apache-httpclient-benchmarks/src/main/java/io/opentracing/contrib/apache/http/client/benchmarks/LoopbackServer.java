@@ -0,0 +1,81 @@
+package io.opentracing.contrib.apache.http.client.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+
+/**
+ * In-process HTTP server bound to the loopback interface, so that benchmarks measure the client
+ * side and not the network.
+ */
+final class LoopbackServer {
+
+    static final String ECHO = "/echo";
+    static final String REDIRECT = "/redirect";
+
+    private static final byte[] BODY = "ok".getBytes();
+
+    private final HttpServer server;
+
+    private LoopbackServer(HttpServer server) {
+        this.server = server;
+    }
+
+    static LoopbackServer start() throws IOException {
+        HttpServer server = ServerBootstrap.bootstrap()
+                .setLocalAddress(InetAddress.getLoopbackAddress())
+                .setSocketConfig(SocketConfig.custom()
+                        .setSoKeepAlive(true)
+                        .setTcpNoDelay(true)
+                        .build())
+                .setServerInfo("benchmark/1.1")
+                .registerHandler(ECHO, new EchoHandler())
+                .registerHandler(REDIRECT, new RedirectHandler())
+                .create();
+        server.start();
+        return new LoopbackServer(server);
+    }
+
+    HttpHost host() {
+        return new HttpHost(server.getInetAddress().getHostAddress(), server.getLocalPort(), "http");
+    }
+
+    String url(String path) {
+        return host().toURI() + path;
+    }
+
+    void stop() {
+        server.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    private static class EchoHandler implements HttpRequestHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            response.setStatusCode(HttpStatus.SC_OK);
+            response.setEntity(new ByteArrayEntity(BODY, ContentType.TEXT_PLAIN));
+        }
+    }
+
+    private static class RedirectHandler implements HttpRequestHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            response.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+            response.addHeader("Location", ECHO);
+        }
+    }
+}
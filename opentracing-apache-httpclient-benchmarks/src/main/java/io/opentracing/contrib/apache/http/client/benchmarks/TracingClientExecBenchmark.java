@@ -0,0 +1,192 @@
+package io.opentracing.contrib.apache.http.client.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.contrib.apache.http.client.ApacheClientSpanDecorator;
+import io.opentracing.contrib.apache.http.client.TracingHttpClientBuilder;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.noop.NoopTracerFactory;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+/**
+ * Measures the per-request cost of {@link io.opentracing.contrib.apache.http.client.TracingClientExec}
+ * on top of a plain {@link HttpClientBuilder} client.
+ *
+ * <p>Run with {@code java -jar target/benchmarks.jar}, the gc profiler is enabled by
+ * {@link BenchmarkRunner} so allocation rate is reported next to throughput and latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracingClientExecBenchmark {
+
+    /**
+     * {@code bare} - {@link HttpClientBuilder} without tracing,
+     * {@code noop} - {@link TracingHttpClientBuilder} with {@link io.opentracing.noop.NoopTracer},
+     * {@code mock} - {@link TracingHttpClientBuilder} with {@link MockTracer}.
+     */
+    @Param({"bare", "noop", "mock"})
+    public String client;
+
+    /**
+     * Number of span decorators, the first one is {@link ApacheClientSpanDecorator.StandardTags}. {@code 1}
+     * matches the default decorators of {@link TracingHttpClientBuilder}.
+     */
+    @Param({"0", "1", "4"})
+    public int decorators;
+
+    @Param({"true", "false"})
+    public boolean injection;
+
+    /**
+     * Whether operation names and constant tags are resolved once per target host and method, see
+     * {@link io.opentracing.contrib.apache.http.client.SpanTemplate}. Compare {@code gc.alloc.rate.norm} of
+     * both values with {@code decorators=1} for the allocation per request with the default decorators.
+     */
+    @Param({"false", "true"})
+    public boolean spanTemplates;
+
+    private LoopbackServer server;
+    private MockTracer mockTracer;
+    private CloseableHttpClient httpClient;
+    private String echoUrl;
+    private String redirectUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = LoopbackServer.start();
+        echoUrl = server.url(LoopbackServer.ECHO);
+        redirectUrl = server.url(LoopbackServer.REDIRECT);
+        mockTracer = new MockTracer(new ThreadLocalScopeManager(), MockTracer.Propagator.TEXT_MAP);
+        httpClient = clientBuilder()
+                .setMaxConnPerRoute(64)
+                .setMaxConnTotal(64)
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void resetTracer() {
+        // finished spans are kept in memory, do not let them grow across iterations
+        mockTracer.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        httpClient.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        return execute(echoUrl);
+    }
+
+    @Benchmark
+    public int getWithRedirect() throws IOException {
+        return execute(redirectUrl);
+    }
+
+    private int execute(String url) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    private HttpClientBuilder clientBuilder() {
+        Tracer tracer;
+        switch (client) {
+            case "bare":
+                return HttpClientBuilder.create();
+            case "noop":
+                tracer = NoopTracerFactory.create();
+                break;
+            case "mock":
+                tracer = mockTracer;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown client: " + client);
+        }
+
+        TracingHttpClientBuilder builder = new TracingHttpClientBuilder(DefaultRedirectStrategy.INSTANCE, false,
+                tracer, spanDecorators(decorators));
+        if (!injection) {
+            builder.disableInjection();
+        }
+        if (spanTemplates) {
+            builder.withSpanTemplates();
+        }
+        return builder;
+    }
+
+    private static List<ApacheClientSpanDecorator> spanDecorators(int count) {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<ApacheClientSpanDecorator> decorators = new ArrayList<>(count);
+        decorators.add(new ApacheClientSpanDecorator.StandardTags());
+        for (int i = 1; i < count; i++) {
+            decorators.add(new TagDecorator("benchmark.tag." + i));
+        }
+        return decorators;
+    }
+
+    /**
+     * Cheap decorator which stands in for typical user decorators.
+     */
+    static class TagDecorator implements ApacheClientSpanDecorator {
+        private final String key;
+
+        TagDecorator(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onRequest(HttpRequestWrapper request, HttpContext httpContext, Span span) {
+            span.setTag(key, request.getMethod());
+        }
+
+        @Override
+        public void onResponse(HttpResponse response, HttpContext httpContext, Span span) {
+            span.setTag(key, response.getStatusLine().getStatusCode());
+        }
+
+        @Override
+        public void onError(HttpRequest request, HttpContext httpContext, Exception ex, Span span) {
+            span.setTag(key, ex.getClass().getName());
+        }
+    }
+}
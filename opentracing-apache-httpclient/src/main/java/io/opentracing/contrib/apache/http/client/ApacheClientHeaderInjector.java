@@ -0,0 +1,40 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import org.apache.http.HttpRequest;
+
+/**
+ * Writes the span context of a client span into request headers. Implementations have to be thread safe.
+ */
+public interface ApacheClientHeaderInjector {
+
+    /**
+     * @param tracer tracer instance
+     * @param spanContext context of the client span
+     * @param request request
+     */
+    void inject(Tracer tracer, SpanContext spanContext, HttpRequest request);
+
+    /**
+     * Delegates to {@link Tracer#inject(SpanContext, Format, Object)} with {@link Format.Builtin#HTTP_HEADERS},
+     * headers are defined by the tracer.
+     */
+    ApacheClientHeaderInjector TRACER = new ApacheClientHeaderInjector() {
+        @Override
+        public void inject(Tracer tracer, SpanContext spanContext, HttpRequest request) {
+            tracer.inject(spanContext, Format.Builtin.HTTP_HEADERS, new HttpHeadersInjectAdapter(request));
+        }
+    };
+
+    /**
+     * Single W3C {@code traceparent} header instead of multiple tracer specific headers e.g. B3, for downstream
+     * services which only understand {@code traceparent}. The sampled flag is taken from the headers the tracer
+     * injects, e.g. {@code X-B3-Sampled}, so every request still runs the injection of the tracer: this is a
+     * compatibility option and costs more than {@link #TRACER}. Contexts without a sampling decision in the
+     * tracer headers are injected by the tracer. To skip the injection of the tracer pass the decision to
+     * {@link TraceparentHeaderInjector#TraceparentHeaderInjector(TraceparentHeaderInjector.SampledFlag)}.
+     */
+    ApacheClientHeaderInjector TRACEPARENT = new TraceparentHeaderInjector();
+}
@@ -0,0 +1,189 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.http.HttpHost;
+
+/**
+ * Latency histograms of requests keyed by method, target host and status class. Requests are recorded
+ * by {@link MetricsClientExec} regardless of sampling, see {@link TracingHttpClientBuilder#withMetrics(ApacheClientMetrics)}.
+ *
+ * <p>Cardinality is bounded: methods outside of the standard set are recorded as {@code OTHER} and
+ * hosts above {@code maxHosts} share the {@code other} host. Histograms are created lazily, recording
+ * into an existing histogram does not allocate.
+ */
+public class ApacheClientMetrics {
+
+    public static final int DEFAULT_MAX_HOSTS = 256;
+    public static final String OTHER_HOST = "other";
+    public static final String OTHER_METHOD = "OTHER";
+    public static final String ERROR_STATUS_CLASS = "error";
+
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "TRACE", "PATCH",
+        OTHER_METHOD};
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx", ERROR_STATUS_CLASS};
+
+    private final int maxHosts;
+    private final ConcurrentMap<HttpHost, HostMetrics> hostMetrics = new ConcurrentHashMap<>();
+    private final HostMetrics otherHostMetrics = new HostMetrics(OTHER_HOST);
+
+    public ApacheClientMetrics() {
+        this(DEFAULT_MAX_HOSTS);
+    }
+
+    /**
+     * @param maxHosts maximum number of target hosts with their own histograms
+     */
+    public ApacheClientMetrics(int maxHosts) {
+        this.maxHosts = maxHosts;
+    }
+
+    /**
+     * @param host target host
+     * @param method request method
+     * @param statusCode response status code or a negative value if the request failed
+     * @param durationNanos duration in nanoseconds
+     */
+    public void record(HttpHost host, String method, int statusCode, long durationNanos) {
+        hostMetrics(host).histogram(methodIndex(method), statusClassIndex(statusCode)).record(durationNanos);
+    }
+
+    /**
+     * Passes snapshots of all histograms to the exporter. Histograms are cumulative, they are not reset.
+     */
+    public void export(Exporter exporter) {
+        List<HostMetrics> allHostMetrics = new ArrayList<>(hostMetrics.values());
+        allHostMetrics.add(otherHostMetrics);
+        for (HostMetrics metrics : allHostMetrics) {
+            for (int i = 0; i < metrics.entries.length(); i++) {
+                Entry entry = metrics.entries.get(i);
+                if (entry != null) {
+                    exporter.export(entry.key, entry.histogram.snapshot());
+                }
+            }
+        }
+    }
+
+    private HostMetrics hostMetrics(HttpHost host) {
+        HostMetrics metrics = hostMetrics.get(host);
+        if (metrics == null) {
+            if (hostMetrics.size() >= maxHosts) {
+                return otherHostMetrics;
+            }
+            HostMetrics newMetrics = new HostMetrics(host.toHostString());
+            metrics = hostMetrics.putIfAbsent(host, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length - 1; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length - 1;
+    }
+
+    private static int statusClassIndex(int statusCode) {
+        int statusClass = statusCode / 100;
+        return statusClass >= 1 && statusClass <= 5 ? statusClass - 1 : STATUS_CLASSES.length - 1;
+    }
+
+    /**
+     * Receives histogram snapshots, e.g. to publish them to a metrics backend.
+     */
+    public interface Exporter {
+        void export(Key key, LatencyHistogram.Snapshot snapshot);
+    }
+
+    /**
+     * Dimensions of a histogram.
+     */
+    public static final class Key {
+        private final String method;
+        private final String host;
+        private final String statusClass;
+
+        Key(String method, String host, String statusClass) {
+            this.method = method;
+            this.host = host;
+            this.statusClass = statusClass;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return host and port of the target or {@link #OTHER_HOST}
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return status class e.g. {@code 2xx} or {@link #ERROR_STATUS_CLASS}
+         */
+        public String getStatusClass() {
+            return statusClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return method.equals(key.method) && host.equals(key.host) && statusClass.equals(key.statusClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * method.hashCode() + host.hashCode()) + statusClass.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + host + " " + statusClass;
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        Entry(Key key) {
+            this.key = key;
+        }
+    }
+
+    private static final class HostMetrics {
+        private final String host;
+        private final AtomicReferenceArray<Entry> entries =
+            new AtomicReferenceArray<>(METHODS.length * STATUS_CLASSES.length);
+
+        HostMetrics(String host) {
+            this.host = host;
+        }
+
+        LatencyHistogram histogram(int methodIndex, int statusClassIndex) {
+            int index = methodIndex * STATUS_CLASSES.length + statusClassIndex;
+            Entry entry = entries.get(index);
+            if (entry == null) {
+                Entry newEntry = new Entry(new Key(METHODS[methodIndex], host, STATUS_CLASSES[statusClassIndex]));
+                entry = entries.compareAndSet(index, null, newEntry) ? newEntry : entries.get(index);
+            }
+            return entry.histogram;
+        }
+    }
+}
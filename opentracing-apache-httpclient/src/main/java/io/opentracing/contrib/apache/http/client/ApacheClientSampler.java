@@ -0,0 +1,163 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * Decides whether a request is traced before any span is created. Unsampled requests are passed
+ * directly to the next exec in the chain: no spans are started and no decorators are invoked.
+ *
+ * <p>Sampler is consulted once per logical request, redirects follow the decision of the first
+ * request. Implementations have to be thread safe.
+ */
+public interface ApacheClientSampler {
+
+    /**
+     * @param route route of the request
+     * @param request request
+     * @param clientContext context
+     * @return true if the request should be traced
+     */
+    boolean isSampled(HttpRoute route, HttpRequestWrapper request, HttpClientContext clientContext);
+
+    /**
+     * Samples all requests.
+     */
+    ApacheClientSampler ALWAYS = new ApacheClientSampler() {
+        @Override
+        public boolean isSampled(HttpRoute route, HttpRequestWrapper request, HttpClientContext clientContext) {
+            return true;
+        }
+    };
+
+    /**
+     * Samples none of the requests.
+     */
+    ApacheClientSampler NEVER = new ApacheClientSampler() {
+        @Override
+        public boolean isSampled(HttpRoute route, HttpRequestWrapper request, HttpClientContext clientContext) {
+            return false;
+        }
+    };
+
+    /**
+     * Samples given fraction of requests.
+     */
+    class Probabilistic implements ApacheClientSampler {
+        private final double samplingRate;
+
+        /**
+         * @param samplingRate rate between 0 and 1
+         */
+        public Probabilistic(double samplingRate) {
+            if (samplingRate < 0 || samplingRate > 1) {
+                throw new IllegalArgumentException("Sampling rate has to be between 0 and 1: " + samplingRate);
+            }
+            this.samplingRate = samplingRate;
+        }
+
+        @Override
+        public boolean isSampled(HttpRoute route, HttpRequestWrapper request, HttpClientContext clientContext) {
+            return samplingRate >= 1 || ThreadLocalRandom.current().nextDouble() < samplingRate;
+        }
+    }
+
+    /**
+     * Samples at most given number of requests per second for each target host. Hosts above
+     * {@code maxRoutes} share a single limit.
+     */
+    class RateLimitedPerRoute implements ApacheClientSampler {
+        public static final int DEFAULT_MAX_ROUTES = 1024;
+
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final int maxRoutes;
+        private final ConcurrentMap<HttpHost, AtomicLong> nextPermits = new ConcurrentHashMap<>();
+        private final AtomicLong otherNextPermit;
+
+        /**
+         * @param permitsPerSecond maximum number of sampled requests per second and target host
+         */
+        public RateLimitedPerRoute(double permitsPerSecond) {
+            this(permitsPerSecond, DEFAULT_MAX_ROUTES);
+        }
+
+        /**
+         * @param permitsPerSecond maximum number of sampled requests per second and target host
+         * @param maxRoutes maximum number of target hosts with their own limit
+         */
+        public RateLimitedPerRoute(double permitsPerSecond, int maxRoutes) {
+            if (permitsPerSecond <= 0) {
+                throw new IllegalArgumentException("Permits per second has to be positive: " + permitsPerSecond);
+            }
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            // allow a burst of up to one second worth of permits after an idle period
+            this.burstNanos = Math.max(0, TimeUnit.SECONDS.toNanos(1) - intervalNanos);
+            this.maxRoutes = maxRoutes;
+            this.otherNextPermit = new AtomicLong(System.nanoTime() - burstNanos);
+        }
+
+        @Override
+        public boolean isSampled(HttpRoute route, HttpRequestWrapper request, HttpClientContext clientContext) {
+            AtomicLong nextPermit = nextPermit(route.getTargetHost());
+            long now = System.nanoTime();
+            long next = nextPermit.get();
+            if (now - next < 0) {
+                return false;
+            }
+            return nextPermit.compareAndSet(next, Math.max(next, now - burstNanos) + intervalNanos);
+        }
+
+        private AtomicLong nextPermit(HttpHost host) {
+            AtomicLong nextPermit = nextPermits.get(host);
+            if (nextPermit == null) {
+                if (nextPermits.size() >= maxRoutes) {
+                    return otherNextPermit;
+                }
+                AtomicLong newPermit = new AtomicLong(System.nanoTime() - burstNanos);
+                nextPermit = nextPermits.putIfAbsent(host, newPermit);
+                if (nextPermit == null) {
+                    nextPermit = newPermit;
+                }
+            }
+            return nextPermit;
+        }
+    }
+
+    /**
+     * Delegates to a sampler registered for the request method.
+     */
+    class PerMethod implements ApacheClientSampler {
+        private final Map<String, ApacheClientSampler> samplers;
+        private final ApacheClientSampler defaultSampler;
+
+        /**
+         * @param samplers samplers by HTTP method e.g. {@code GET}
+         * @param defaultSampler sampler used for methods without a registered sampler
+         */
+        public PerMethod(Map<String, ApacheClientSampler> samplers, ApacheClientSampler defaultSampler) {
+            this.samplers = new HashMap<>(samplers.size());
+            for (Map.Entry<String, ApacheClientSampler> entry: samplers.entrySet()) {
+                this.samplers.put(entry.getKey().toUpperCase(Locale.ROOT), entry.getValue());
+            }
+            this.defaultSampler = defaultSampler;
+        }
+
+        @Override
+        public boolean isSampled(HttpRoute route, HttpRequestWrapper request, HttpClientContext clientContext) {
+            ApacheClientSampler sampler = samplers.get(request.getMethod());
+            return (sampler != null ? sampler : defaultSampler).isSampled(route, request, clientContext);
+        }
+    }
+}
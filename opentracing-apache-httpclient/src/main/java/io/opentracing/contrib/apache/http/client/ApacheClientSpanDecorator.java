@@ -1,6 +1,7 @@
 package io.opentracing.contrib.apache.http.client;
 
 import io.opentracing.Span;
+import io.opentracing.tag.StringTag;
 import io.opentracing.tag.Tags;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
@@ -11,6 +12,8 @@ import org.apache.http.protocol.HttpContext;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -50,32 +53,62 @@ public interface ApacheClientSpanDecorator {
 
     /**
      * Decorator which adds standard set of tags and logs.
+     *
+     * <p>Peer tags and URL prefix are cached per {@link HttpHost}, the cache is bounded by
+     * {@code maxCachedPeers}. Cached hosts are not evicted: once the cache is full, further hosts are tagged
+     * without caching. {@link SpanTemplate}s leave peer tags to this decorator.
+     * Query strings of tagged URLs can be stripped or hashed by {@link PathNormalizer#normalizeUrl(String)}.
      */
     class StandardTags implements ApacheClientSpanDecorator {
         private static final Logger log = Logger.getLogger(StandardTags.class.getName());
 
+        public static final int DEFAULT_MAX_CACHED_PEERS = 1024;
+
+        private final int maxCachedPeers;
+        private final ConcurrentMap<HttpHost, PeerTags> peerTagsCache = new ConcurrentHashMap<>();
+        private final PathNormalizer urlNormalizer;
+
+        public StandardTags() {
+            this(DEFAULT_MAX_CACHED_PEERS);
+        }
+
+        /**
+         * @param maxCachedPeers maximum number of target hosts with cached peer tags
+         */
+        public StandardTags(int maxCachedPeers) {
+            this(maxCachedPeers, null);
+        }
+
+        /**
+         * @param maxCachedPeers maximum number of target hosts with cached peer tags
+         * @param urlNormalizer normalizer of query strings of tagged URLs, null to tag URLs as they are
+         */
+        public StandardTags(int maxCachedPeers, PathNormalizer urlNormalizer) {
+            this.maxCachedPeers = maxCachedPeers;
+            this.urlNormalizer = urlNormalizer;
+        }
+
         @Override
         public void onRequest(HttpRequestWrapper request, HttpContext httpContext, Span span) {
             URI uri = request.getURI();
             HttpHost target = request.getTarget();
 
-            Tags.HTTP_METHOD.set(span, request.getRequestLine().getMethod());
+            Tags.HTTP_METHOD.set(span, request.getMethod());
 
             if (uri != null && uri.isAbsolute()) {
-                Tags.HTTP_URL.set(span, uri.toString());
-                Tags.PEER_HOSTNAME.set(span, uri.getHost());
-                int port = uri.getPort();
-                if (port == -1) {
-                    String scheme = uri.getScheme();
-                    if (scheme != null) {
-                        port = scheme.equalsIgnoreCase("https") ? 443 : 80;
-                    }
+                // URI caches its string form
+                Tags.HTTP_URL.set(span, url(uri.toString()));
+                PeerTags peerTags = target != null ? peerTags(target) : null;
+                if (peerTags != null && peerTags.matches(uri)) {
+                    peerTags.set(span);
+                } else {
+                    Tags.PEER_HOSTNAME.set(span, uri.getHost());
+                    Tags.PEER_PORT.set(span, port(uri.getPort(), uri.getScheme()));
                 }
-                Tags.PEER_PORT.set(span, port);
             } else if (target != null) {
-                Tags.HTTP_URL.set(span, request.getTarget() + request.getRequestLine().getUri());
-                Tags.PEER_HOSTNAME.set(span, target.getHostName());
-                Tags.PEER_PORT.set(span, target.getPort() == -1 ? target.getSchemeName().equalsIgnoreCase("https") ? 443 : 80 : target.getPort());
+                PeerTags peerTags = peerTags(target);
+                Tags.HTTP_URL.set(span, url(peerTags.url(request.getRequestLine().getUri())));
+                peerTags.set(span);
             }
         }
 
@@ -93,5 +126,106 @@ public interface ApacheClientSpanDecorator {
             errorLogs.put("error.object", ex);
             span.log(errorLogs);
         }
+
+        private String url(String url) {
+            return urlNormalizer != null ? urlNormalizer.normalizeUrl(url) : url;
+        }
+
+        private PeerTags peerTags(HttpHost target) {
+            PeerTags peerTags = peerTagsCache.get(target);
+            if (peerTags == null) {
+                peerTags = new PeerTags(target);
+                if (peerTagsCache.size() < maxCachedPeers) {
+                    peerTagsCache.putIfAbsent(target, peerTags);
+                }
+            }
+            return peerTags;
+        }
+
+        /**
+         * @return number of target hosts with cached peer tags
+         */
+        int cachedPeers() {
+            return peerTagsCache.size();
+        }
+
+        private static int port(int port, String scheme) {
+            if (port == -1 && scheme != null) {
+                return scheme.equalsIgnoreCase("https") ? 443 : 80;
+            }
+            return port;
+        }
+
+        /**
+         * Pre-resolved peer tags of a target host.
+         */
+        private static final class PeerTags {
+            private final String hostname;
+            private final int port;
+            private final Integer boxedPort;
+            private final String urlPrefix;
+
+            PeerTags(HttpHost target) {
+                this.hostname = target.getHostName();
+                this.port = port(target.getPort(), target.getSchemeName());
+                this.boxedPort = port;
+                this.urlPrefix = target.toURI();
+            }
+
+            boolean matches(URI uri) {
+                return hostname.equals(uri.getHost()) && port == port(uri.getPort(), uri.getScheme());
+            }
+
+            String url(String requestUri) {
+                return new StringBuilder(urlPrefix.length() + requestUri.length())
+                    .append(urlPrefix)
+                    .append(requestUri)
+                    .toString();
+            }
+
+            void set(Span span) {
+                Tags.PEER_HOSTNAME.set(span, hostname);
+                Tags.PEER_PORT.set(span, boxedPort);
+            }
+        }
+    }
+
+    /**
+     * Decorator which tags the normalized path of the request as {@link #HTTP_ROUTE}, e.g.
+     * {@code /users/{id}/orders}. It can also use it in the operation name of client spans, e.g.
+     * {@code GET /users/{id}/orders}. The local span keeps the method as its operation name unless it is
+     * collapsed into the client span.
+     */
+    class RouteTags implements ApacheClientSpanDecorator {
+        public static final StringTag HTTP_ROUTE = new StringTag("http.route");
+
+        private final PathNormalizer normalizer;
+        private final boolean operationName;
+
+        /**
+         * @param normalizer path normalizer
+         * @param operationName whether the operation name is set to the method and the normalized path
+         */
+        public RouteTags(PathNormalizer normalizer, boolean operationName) {
+            this.normalizer = normalizer;
+            this.operationName = operationName;
+        }
+
+        @Override
+        public void onRequest(HttpRequestWrapper request, HttpContext httpContext, Span span) {
+            String route = normalizer.normalize(request);
+            HTTP_ROUTE.set(span, route);
+            if (operationName) {
+                span.setOperationName(request.getMethod() + " " + route);
+            }
+        }
+
+        @Override
+        public void onResponse(HttpResponse response, HttpContext httpContext, Span span) {
+        }
+
+        @Override
+        public void onError(HttpRequest request, HttpContext httpContext, Exception ex, Span span) {
+        }
     }
 }
@@ -0,0 +1,256 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.tag.Tag;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Runs {@link ApacheClientSpanDecorator}s of client spans on background threads, so that decorators do not
+ * add latency to requests, see {@link TracingHttpClientBuilder#withAsyncDecorators(AsyncSpanDecorators)}.
+ *
+ * <p>The request thread only captures snapshots: a copy of the request line and headers, of the response
+ * status line and headers and the exception. Decorators receive the snapshots and a context holding only
+ * the route and the target host, entities are not available. When the client span is finished, decorators
+ * are invoked on a background thread and the span is finished afterwards with the original finish timestamp.
+ *
+ * <p>Tasks are queued in a bounded array queue. When the queue is full, decorators are skipped, the span is
+ * finished right away and the task is counted by {@link #getDropped()}.
+ *
+ * <p>The threads are not stopped when clients are closed, as the instance can be shared by multiple clients.
+ * Call {@link #shutdown()} once all clients using it are closed.
+ */
+public class AsyncSpanDecorators {
+    private static final Logger log = Logger.getLogger(AsyncSpanDecorators.class.getName());
+
+    public static final int DEFAULT_THREADS = 1;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public AsyncSpanDecorators() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threads number of daemon threads running decorators
+     * @param queueCapacity maximum number of queued spans
+     */
+    public AsyncSpanDecorators(int threads, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory(), new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                    dropped.incrementAndGet();
+                    ((Decoration) task).span.finishDelegate();
+                }
+            });
+    }
+
+    /**
+     * @return number of spans finished without decorators because the queue was full or shut down
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the threads after queued spans are decorated and finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return span which runs the decorators in the background before it is finished
+     */
+    DecoratedSpan wrap(Span span, List<ApacheClientSpanDecorator> decorators) {
+        return new DecoratedSpan(span, decorators);
+    }
+
+    /**
+     * Client span capturing snapshots for its decorators. The wrapped span is finished once decorators ran.
+     */
+    final class DecoratedSpan implements Span {
+        private final Span delegate;
+        private final List<ApacheClientSpanDecorator> decorators;
+        private volatile HttpRequestWrapper request;
+        private volatile HttpClientContext context;
+        private volatile HttpResponse response;
+        private volatile Exception exception;
+        private long finishMicros;
+
+        DecoratedSpan(Span delegate, List<ApacheClientSpanDecorator> decorators) {
+            this.delegate = delegate;
+            this.decorators = decorators;
+        }
+
+        void onRequest(HttpRequestWrapper request, HttpClientContext clientContext) {
+            this.request = HttpRequestWrapper.wrap(request, request.getTarget());
+            HttpClientContext context = HttpClientContext.create();
+            context.setAttribute(HttpClientContext.HTTP_ROUTE, clientContext.getHttpRoute());
+            context.setAttribute(HttpClientContext.HTTP_TARGET_HOST, clientContext.getTargetHost());
+            this.context = context;
+        }
+
+        void onResponse(HttpResponse response) {
+            HttpResponse snapshot = new BasicHttpResponse(response.getStatusLine());
+            snapshot.setHeaders(response.getAllHeaders());
+            this.response = snapshot;
+        }
+
+        void onError(Exception ex) {
+            this.exception = ex;
+        }
+
+        private void decorate() {
+            HttpRequestWrapper request = this.request;
+            if (request == null) {
+                return;
+            }
+            HttpResponse response = this.response;
+            Exception exception = this.exception;
+            for (ApacheClientSpanDecorator decorator : decorators) {
+                try {
+                    decorator.onRequest(request, context, this);
+                    if (response != null) {
+                        decorator.onResponse(response, context, this);
+                    } else if (exception != null) {
+                        decorator.onError(request, context, exception, this);
+                    }
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Span decorator " + decorator + " failed", e);
+                }
+            }
+        }
+
+        private void finishDelegate() {
+            delegate.finish(finishMicros);
+        }
+
+        @Override
+        public void finish() {
+            finish(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+        }
+
+        @Override
+        public void finish(long finishMicros) {
+            this.finishMicros = finishMicros;
+            executor.execute(new Decoration(this));
+        }
+
+        @Override
+        public SpanContext context() {
+            return delegate.context();
+        }
+
+        @Override
+        public Span setTag(String key, String value) {
+            delegate.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Span setTag(String key, boolean value) {
+            delegate.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Span setTag(String key, Number value) {
+            delegate.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public <T> Span setTag(Tag<T> tag, T value) {
+            delegate.setTag(tag, value);
+            return this;
+        }
+
+        @Override
+        public Span log(Map<String, ?> fields) {
+            delegate.log(fields);
+            return this;
+        }
+
+        @Override
+        public Span log(long timestampMicroseconds, Map<String, ?> fields) {
+            delegate.log(timestampMicroseconds, fields);
+            return this;
+        }
+
+        @Override
+        public Span log(String event) {
+            delegate.log(event);
+            return this;
+        }
+
+        @Override
+        public Span log(long timestampMicroseconds, String event) {
+            delegate.log(timestampMicroseconds, event);
+            return this;
+        }
+
+        @Override
+        public Span setBaggageItem(String key, String value) {
+            delegate.setBaggageItem(key, value);
+            return this;
+        }
+
+        @Override
+        public String getBaggageItem(String key) {
+            return delegate.getBaggageItem(key);
+        }
+
+        @Override
+        public Span setOperationName(String operationName) {
+            delegate.setOperationName(operationName);
+            return this;
+        }
+    }
+
+    private static final class Decoration implements Runnable {
+        private final DecoratedSpan span;
+
+        Decoration(DecoratedSpan span) {
+            this.span = span;
+        }
+
+        @Override
+        public void run() {
+            try {
+                span.decorate();
+            } finally {
+                span.finishDelegate();
+            }
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                TracingClientExec.COMPONENT_NAME + "-decorators-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
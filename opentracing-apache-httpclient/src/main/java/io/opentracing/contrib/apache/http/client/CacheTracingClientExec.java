@@ -0,0 +1,89 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import java.io.IOException;
+import java.util.Locale;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HeaderConstants;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Tags the active client span with the outcome of the cache lookup made by
+ * {@link org.apache.http.impl.client.cache.CachingExec}, which it wraps. It is placed after
+ * {@link TracingClientExec}, so the client span of the request is active. The span is tagged with
+ * {@link #CACHE_STATUS}: {@code hit}, {@code miss}, {@code validated} for entries revalidated with
+ * the origin or {@code module_response} for responses generated by the cache, and {@link #CACHE_STALE}
+ * when a stale entry is served. Each outcome is logged as {@code cache.<status>} event.
+ */
+public class CacheTracingClientExec implements ClientExecChain {
+
+  public static final String CACHE_STATUS = "http.cache.status";
+  public static final String CACHE_STALE = "http.cache.stale";
+
+  /**
+   * Warning codes of stale responses, "Response is stale" and "Revalidation failed".
+   */
+  private static final String[] STALE_WARNINGS = {"110", "111"};
+
+  private static final String[] STATUS_VALUES = new String[CacheResponseStatus.values().length];
+  private static final String[] STATUS_EVENTS = new String[STATUS_VALUES.length];
+  static {
+    for (CacheResponseStatus status : CacheResponseStatus.values()) {
+      String value = status.name().toLowerCase(Locale.ROOT);
+      if (value.startsWith("cache_")) {
+        value = value.substring("cache_".length());
+      }
+      STATUS_VALUES[status.ordinal()] = value;
+      STATUS_EVENTS[status.ordinal()] = "cache." + value;
+    }
+  }
+
+  private final ClientExecChain cachingExec;
+  private final Tracer tracer;
+
+  public CacheTracingClientExec(ClientExecChain cachingExec, Tracer tracer) {
+    this.cachingExec = cachingExec;
+    this.tracer = tracer;
+  }
+
+  @Override
+  public CloseableHttpResponse execute(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    clientContext.removeAttribute(HttpCacheContext.CACHE_RESPONSE_STATUS);
+    CloseableHttpResponse response = cachingExec.execute(route, request, clientContext, execAware);
+    Span span = tracer.activeSpan();
+    CacheResponseStatus status = HttpCacheContext.adapt(clientContext).getCacheResponseStatus();
+    if (span != null && status != null) {
+      span.setTag(CACHE_STATUS, STATUS_VALUES[status.ordinal()]);
+      span.log(STATUS_EVENTS[status.ordinal()]);
+      if (isStale(response)) {
+        span.setTag(CACHE_STALE, true);
+      }
+    }
+    return response;
+  }
+
+  private static boolean isStale(CloseableHttpResponse response) {
+    for (Header warning : response.getHeaders(HeaderConstants.WARNING)) {
+      for (String staleWarning : STALE_WARNINGS) {
+        if (warning.getValue().startsWith(staleWarning)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
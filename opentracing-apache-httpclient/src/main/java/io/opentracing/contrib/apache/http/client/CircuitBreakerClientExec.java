@@ -0,0 +1,65 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import java.io.IOException;
+import org.apache.http.HttpException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Applies circuit breakers and bulkheads of {@link CircuitBreakerRegistry}. It is placed right after
+ * {@link TracingClientExec}, so a short-circuited call is represented by a client span tagged with
+ * {@link #SHORT_CIRCUIT} and the error logged by the decorators, and by no network activity.
+ */
+public class CircuitBreakerClientExec implements ClientExecChain {
+
+  /**
+   * Reason the call failed fast, {@code circuit_open} or {@code bulkhead_full}.
+   */
+  public static final String SHORT_CIRCUIT = "circuit.short_circuit";
+
+  private final ClientExecChain requestExecutor;
+  private final CircuitBreakerRegistry registry;
+
+  public CircuitBreakerClientExec(ClientExecChain clientExecChain, CircuitBreakerRegistry registry) {
+    this.requestExecutor = clientExecChain;
+    this.registry = registry;
+  }
+
+  @Override
+  public CloseableHttpResponse execute(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    CircuitBreakerRegistry.Circuit circuit = registry.circuit(route);
+    if (circuit == null) {
+      return requestExecutor.execute(route, request, clientContext, execAware);
+    }
+    ShortCircuitException.Reason rejection = circuit.tryStart();
+    if (rejection != null) {
+      // not the active span, requests without client span would tag the span of the caller
+      Span span = TracingClientExec.clientSpan(clientContext);
+      if (span != null) {
+        span.setTag(SHORT_CIRCUIT, rejection.getTagValue());
+      }
+      throw new ShortCircuitException(route, rejection);
+    }
+
+    long start = System.nanoTime();
+    CloseableHttpResponse response;
+    try {
+      response = requestExecutor.execute(route, request, clientContext, execAware);
+    } catch (IOException | HttpException | RuntimeException e) {
+      circuit.end(System.nanoTime() - start, true);
+      throw e;
+    }
+    circuit.end(System.nanoTime() - start, response.getStatusLine().getStatusCode() >= 500);
+    return response;
+  }
+}
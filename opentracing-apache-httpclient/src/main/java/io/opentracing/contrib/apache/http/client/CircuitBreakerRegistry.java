@@ -0,0 +1,287 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * Circuit breakers and bulkheads per {@link HttpRoute}, applied by {@link CircuitBreakerClientExec}, see
+ * {@link TracingHttpClientBuilder#withCircuitBreakers(CircuitBreakerRegistry)}.
+ *
+ * <p>Outcomes of the last {@code windowSize} calls of a route are kept in a lock-free ring buffer. A call
+ * failed when it ended with an exception or a {@code 5xx} response, it is slow when it took longer than
+ * {@code slowCallMillis}. Once at least {@code minimumCalls} were recorded and the failure rate or the slow
+ * call rate reaches its threshold, the circuit opens and calls fail fast with {@link ShortCircuitException}
+ * for {@code openMillis}. Afterwards a single trial call is let through: the circuit closes when it succeeds
+ * and opens again otherwise. Calls started before the circuit opened do not decide the outcome of the trial.
+ *
+ * <p>The bulkhead limits the number of concurrent calls of a route to {@code maxConcurrentCalls}, calls above
+ * the limit fail fast as well. A call is in flight until its response head is received.
+ *
+ * <p>Routes are held in a concurrent map bounded by {@code maxRoutes}, routes above the limit are not
+ * protected.
+ */
+public class CircuitBreakerRegistry {
+
+    public static final int DEFAULT_MAX_ROUTES = 256;
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 1.0;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 5000;
+    public static final long DEFAULT_OPEN_MILLIS = 10000;
+
+    private int maxRoutes = DEFAULT_MAX_ROUTES;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+    private long slowCallNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_CALL_MILLIS);
+    private long openNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_OPEN_MILLIS);
+    private int maxConcurrentCalls = Integer.MAX_VALUE;
+    private final ConcurrentMap<HttpRoute, Circuit> circuits = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowSize number of recent calls the rates are computed from
+     * @param minimumCalls number of recorded calls before the circuit can open
+     */
+    public CircuitBreakerRegistry withWindow(int windowSize, int minimumCalls) {
+        if (windowSize <= 0 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("windowSize has to be positive and at least minimumCalls");
+        }
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * @param failureRateThreshold fraction of failed calls opening the circuit, between 0 and 1
+     */
+    public CircuitBreakerRegistry withFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    /**
+     * @param slowCallMillis duration above which a call is slow
+     * @param slowCallRateThreshold fraction of slow calls opening the circuit, between 0 and 1
+     */
+    public CircuitBreakerRegistry withSlowCallThreshold(long slowCallMillis, double slowCallRateThreshold) {
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    /**
+     * @param openMillis duration calls fail fast before a trial call is let through
+     */
+    public CircuitBreakerRegistry withOpenDuration(long openMillis) {
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        return this;
+    }
+
+    /**
+     * @param maxConcurrentCalls maximum number of concurrent calls per route
+     */
+    public CircuitBreakerRegistry withBulkhead(int maxConcurrentCalls) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        return this;
+    }
+
+    /**
+     * @param maxRoutes maximum number of protected routes
+     */
+    public CircuitBreakerRegistry withMaxRoutes(int maxRoutes) {
+        this.maxRoutes = maxRoutes;
+        return this;
+    }
+
+    /**
+     * @return circuit of the route, null if no call was executed on it
+     */
+    public Circuit getCircuit(HttpRoute route) {
+        return circuits.get(route);
+    }
+
+    /**
+     * @return circuit of the route or null if the route is not protected
+     */
+    Circuit circuit(HttpRoute route) {
+        Circuit circuit = circuits.get(route);
+        if (circuit == null && circuits.size() < maxRoutes) {
+            Circuit newCircuit = new Circuit(this);
+            circuit = circuits.putIfAbsent(route, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+        return circuit;
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Circuit breaker and bulkhead of a route.
+     */
+    public static final class Circuit {
+        private static final int SUCCESS = 0;
+        private static final int FAILURE = 1;
+        private static final int SLOW = 2;
+
+        private final int windowSize;
+        private final int minimumCalls;
+        private final double failureRateThreshold;
+        private final double slowCallRateThreshold;
+        private final long slowCallNanos;
+        private final long openNanos;
+        private final Semaphore bulkhead;
+
+        /**
+         * Outcome bits of recent calls.
+         */
+        private final AtomicIntegerArray outcomes;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger slowCalls = new AtomicInteger();
+        private final AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+        private volatile long openedAtNanos;
+        /**
+         * Thread executing the trial call of the half-open circuit, calls are executed on a single thread.
+         */
+        private final AtomicReference<Thread> trialThread = new AtomicReference<>();
+        private final AtomicLong shortCircuited = new AtomicLong();
+
+        private Circuit(CircuitBreakerRegistry registry) {
+            this.windowSize = registry.windowSize;
+            this.minimumCalls = registry.minimumCalls;
+            this.failureRateThreshold = registry.failureRateThreshold;
+            this.slowCallRateThreshold = registry.slowCallRateThreshold;
+            this.slowCallNanos = registry.slowCallNanos;
+            this.openNanos = registry.openNanos;
+            this.bulkhead = registry.maxConcurrentCalls != Integer.MAX_VALUE
+                ? new Semaphore(registry.maxConcurrentCalls) : null;
+            this.outcomes = new AtomicIntegerArray(windowSize);
+        }
+
+        public State getState() {
+            return State.values()[state.get()];
+        }
+
+        /**
+         * @return number of calls which failed fast
+         */
+        public long getShortCircuited() {
+            return shortCircuited.get();
+        }
+
+        /**
+         * @return failure rate of recent calls, NaN if fewer than the minimum calls were recorded
+         */
+        public double getFailureRate() {
+            int recorded = recorded();
+            return recorded < minimumCalls ? Double.NaN : (double) Math.max(failures.get(), 0) / recorded;
+        }
+
+        /**
+         * @return slow call rate of recent calls, NaN if fewer than the minimum calls were recorded
+         */
+        public double getSlowCallRate() {
+            int recorded = recorded();
+            return recorded < minimumCalls ? Double.NaN : (double) Math.max(slowCalls.get(), 0) / recorded;
+        }
+
+        /**
+         * @return null if the call is permitted, otherwise the reason it is rejected, a permitted call has to be
+         * ended by {@link #end(long, boolean)}
+         */
+        ShortCircuitException.Reason tryStart() {
+            int current = state.get();
+            if (current == State.OPEN.ordinal()) {
+                if (System.nanoTime() - openedAtNanos < openNanos
+                    || !state.compareAndSet(current, State.HALF_OPEN.ordinal())) {
+                    shortCircuited.incrementAndGet();
+                    return ShortCircuitException.Reason.CIRCUIT_OPEN;
+                }
+                trialThread.set(Thread.currentThread());
+            } else if (current == State.HALF_OPEN.ordinal()) {
+                // a trial call is in flight
+                shortCircuited.incrementAndGet();
+                return ShortCircuitException.Reason.CIRCUIT_OPEN;
+            }
+            if (bulkhead != null && !bulkhead.tryAcquire()) {
+                shortCircuited.incrementAndGet();
+                if (current == State.OPEN.ordinal()) {
+                    // give up the trial call
+                    trialThread.set(null);
+                    open();
+                }
+                return ShortCircuitException.Reason.BULKHEAD_FULL;
+            }
+            return null;
+        }
+
+        void end(long durationNanos, boolean failed) {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+            Thread trial = trialThread.get();
+            if (trial == Thread.currentThread() && trialThread.compareAndSet(trial, null)) {
+                if (failed || durationNanos > slowCallNanos) {
+                    open();
+                } else {
+                    reset();
+                    state.set(State.CLOSED.ordinal());
+                }
+                return;
+            }
+
+            int outcome = (failed ? FAILURE : SUCCESS) | (durationNanos > slowCallNanos ? SLOW : SUCCESS);
+            long call = calls.getAndIncrement();
+            int previous = outcomes.getAndSet((int) (call % windowSize), outcome);
+            failures.addAndGet((outcome & FAILURE) - (previous & FAILURE));
+            slowCalls.addAndGet(((outcome & SLOW) - (previous & SLOW)) / SLOW);
+
+            int recorded = recorded();
+            if (recorded >= minimumCalls
+                && (failures.get() >= failureRateThreshold * recorded
+                    || slowCalls.get() >= slowCallRateThreshold * recorded)) {
+                if (state.compareAndSet(State.CLOSED.ordinal(), State.OPEN.ordinal())) {
+                    openedAtNanos = System.nanoTime();
+                }
+            }
+        }
+
+        private int recorded() {
+            return (int) Math.min(calls.get(), windowSize);
+        }
+
+        private void open() {
+            openedAtNanos = System.nanoTime();
+            state.set(State.OPEN.ordinal());
+        }
+
+        /**
+         * Clears recorded outcomes, calls recorded concurrently may be lost. Counts are decremented by the
+         * cleared outcomes instead of being zeroed, so that they stay in line with the ring when calls end
+         * concurrently.
+         */
+        private void reset() {
+            calls.set(0);
+            for (int i = 0; i < windowSize; i++) {
+                int previous = outcomes.getAndSet(i, SUCCESS);
+                failures.addAndGet(-(previous & FAILURE));
+                slowCalls.addAndGet(-(previous & SLOW) / SLOW);
+            }
+        }
+    }
+}
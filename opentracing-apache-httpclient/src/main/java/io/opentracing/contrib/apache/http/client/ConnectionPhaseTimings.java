@@ -0,0 +1,251 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLSocket;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Records durations of connection phases as logs of the client span created by {@link TracingClientExec}.
+ * Phases of requests without a client span, e.g. not sampled requests, are not recorded.
+ *
+ * <p>Each phase is logged when it ends with event {@link #DNS_LOOKUP}, {@link #TCP_CONNECT},
+ * {@link #TLS_HANDSHAKE} or {@link #TTFB} and field {@link #DURATION_MICROS}. Time to first byte
+ * is measured from the start of sending the request until the response head is parsed.
+ * Phases which fail are logged as well. When a TLS socket factory creates sockets which are already
+ * layered, the connect and the handshake are done by the factory in one step and logged as
+ * {@link #TCP_CONNECT_TLS_HANDSHAKE}.
+ */
+public final class ConnectionPhaseTimings {
+
+    public static final String DNS_LOOKUP = "dns.lookup";
+    public static final String TCP_CONNECT = "tcp.connect";
+    public static final String TLS_HANDSHAKE = "tls.handshake";
+    public static final String TCP_CONNECT_TLS_HANDSHAKE = "tcp.connect+tls.handshake";
+    public static final String TTFB = "ttfb";
+    public static final String DURATION_MICROS = "duration.micros";
+
+    private ConnectionPhaseTimings() {}
+
+    /**
+     * Pooling connection manager with default configuration which times DNS lookups, connects
+     * and TLS handshakes.
+     *
+     * @return connection manager
+     */
+    public static PoolingHttpClientConnectionManager connectionManager() {
+        return new PoolingHttpClientConnectionManager(socketFactoryRegistry(),
+            dnsResolver(SystemDefaultDnsResolver.INSTANCE));
+    }
+
+    /**
+     * @return registry of default {@code http} and {@code https} socket factories with timing
+     */
+    public static Registry<ConnectionSocketFactory> socketFactoryRegistry() {
+        return socketFactoryRegistry(SSLConnectionSocketFactory.getSocketFactory());
+    }
+
+    /**
+     * @param sslSocketFactory socket factory of {@code https} connections, e.g. one with a custom SSL context
+     * @return registry of default {@code http} and given {@code https} socket factories with timing
+     */
+    public static Registry<ConnectionSocketFactory> socketFactoryRegistry(
+            LayeredConnectionSocketFactory sslSocketFactory) {
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", socketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+            .register("https", sslSocketFactory(sslSocketFactory))
+            .build();
+    }
+
+    public static DnsResolver dnsResolver(DnsResolver delegate) {
+        return new TimingDnsResolver(delegate);
+    }
+
+    public static ConnectionSocketFactory socketFactory(ConnectionSocketFactory delegate) {
+        return new TimingSocketFactory(delegate);
+    }
+
+    public static LayeredConnectionSocketFactory sslSocketFactory(LayeredConnectionSocketFactory delegate) {
+        return new TimingLayeredSocketFactory(delegate);
+    }
+
+    /**
+     * @param delegate request executor
+     * @return request executor logging time to first byte
+     */
+    public static HttpRequestExecutor requestExecutor(HttpRequestExecutor delegate) {
+        return new TimingRequestExecutor(delegate);
+    }
+
+    private static void log(HttpContext context, String event, long startNanos) {
+        log(TracingClientExec.clientSpan(context), event, startNanos);
+    }
+
+    private static void log(Span span, String event, long startNanos) {
+        if (span != null) {
+            Map<String, Object> fields = new HashMap<>(4);
+            fields.put("event", event);
+            fields.put(DURATION_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+            span.log(fields);
+        }
+    }
+
+    private static final class TimingDnsResolver implements DnsResolver {
+        private final DnsResolver delegate;
+
+        TimingDnsResolver(DnsResolver delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            long start = System.nanoTime();
+            try {
+                return delegate.resolve(host);
+            } finally {
+                log(TracingClientExec.currentClientSpan(), DNS_LOOKUP, start);
+            }
+        }
+    }
+
+    private static final class TimingSocketFactory implements ConnectionSocketFactory {
+        private final ConnectionSocketFactory delegate;
+
+        TimingSocketFactory(ConnectionSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+            } finally {
+                log(context, TCP_CONNECT, start);
+            }
+        }
+    }
+
+    /**
+     * Connects the socket itself, the same way {@link SSLConnectionSocketFactory} does, so that
+     * the handshake done by {@link LayeredConnectionSocketFactory#createLayeredSocket} is timed separately.
+     */
+    private static final class TimingLayeredSocketFactory implements LayeredConnectionSocketFactory {
+        private final LayeredConnectionSocketFactory delegate;
+
+        TimingLayeredSocketFactory(LayeredConnectionSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            Socket sock = socket != null ? socket : createSocket(context);
+            if (sock instanceof SSLSocket) {
+                // socket factory of the delegate connects and handshakes on its own
+                long start = System.nanoTime();
+                try {
+                    return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+                } finally {
+                    log(context, TCP_CONNECT_TLS_HANDSHAKE, start);
+                }
+            }
+
+            if (localAddress != null) {
+                sock.bind(localAddress);
+            }
+            long start = System.nanoTime();
+            try {
+                if (connectTimeout > 0 && sock.getSoTimeout() == 0) {
+                    sock.setSoTimeout(connectTimeout);
+                }
+                sock.connect(remoteAddress, connectTimeout);
+            } catch (IOException ex) {
+                try {
+                    sock.close();
+                } catch (IOException ignore) {
+                }
+                throw ex;
+            } finally {
+                log(context, TCP_CONNECT, start);
+            }
+            return createLayeredSocket(sock, host.getHostName(), remoteAddress.getPort(), context);
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException {
+            long start = System.nanoTime();
+            try {
+                return delegate.createLayeredSocket(socket, target, port, context);
+            } finally {
+                log(context, TLS_HANDSHAKE, start);
+            }
+        }
+    }
+
+    private static final class TimingRequestExecutor extends HttpRequestExecutor {
+        private final HttpRequestExecutor delegate;
+
+        TimingRequestExecutor(HttpRequestExecutor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void preProcess(HttpRequest request, HttpProcessor processor, HttpContext context)
+                throws HttpException, IOException {
+            delegate.preProcess(request, processor, context);
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                throws IOException, HttpException {
+            long start = System.nanoTime();
+            try {
+                return delegate.execute(request, conn, context);
+            } finally {
+                log(context, TTFB, start);
+            }
+        }
+
+        @Override
+        public void postProcess(HttpResponse response, HttpProcessor processor, HttpContext context)
+                throws HttpException, IOException {
+            delegate.postProcess(response, processor, context);
+        }
+    }
+}
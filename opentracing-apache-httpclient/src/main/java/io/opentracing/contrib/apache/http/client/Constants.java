@@ -11,4 +11,19 @@ public final class Constants {
    * SpanContext which will be used as a parent for created client span.
    */
   public static final String PARENT_CONTEXT = TracingHttpClientBuilder.class.getName() + ".parentSpanContext";
+
+  /**
+   * {@link Boolean#TRUE} to execute the request without spans, decorators and injection.
+   */
+  public static final String NOT_TRACED = TracingHttpClientBuilder.class.getName() + ".notTraced";
+
+  /**
+   * {@link Long} deadline of the request in milliseconds since the epoch, see {@link DeadlineClientExec}.
+   */
+  public static final String DEADLINE = TracingHttpClientBuilder.class.getName() + ".deadline";
+
+  /**
+   * Baggage item holding the deadline in milliseconds since the epoch, used when {@link #DEADLINE} is not set.
+   */
+  public static final String DEADLINE_BAGGAGE_ITEM = "deadline";
 }
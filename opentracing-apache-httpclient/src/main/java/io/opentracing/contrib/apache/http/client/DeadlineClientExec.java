@@ -0,0 +1,143 @@
+package io.opentracing.contrib.apache.http.client;
+
+import static io.opentracing.contrib.apache.http.client.Constants.DEADLINE;
+import static io.opentracing.contrib.apache.http.client.Constants.DEADLINE_BAGGAGE_ITEM;
+import static io.opentracing.contrib.apache.http.client.Constants.PARENT_CONTEXT;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.http.HttpException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Shrinks connection request, connect and socket timeouts of each request to the time remaining until its
+ * deadline. The deadline is read from {@link Constants#DEADLINE} or from the
+ * {@link Constants#DEADLINE_BAGGAGE_ITEM} baggage item of the parent context of the request:
+ * {@link Constants#PARENT_CONTEXT} if set, otherwise the span of the caller, whose baggage the client span
+ * inherits. Requests without a deadline are passed on unchanged.
+ *
+ * <p>It is placed right after {@link TracingClientExec}, which provides the client span. The client span is
+ * tagged with {@link #DEADLINE_REMAINING}. When the deadline already passed the request is not sent,
+ * {@link DeadlineExceededException} is thrown and the client span is tagged with {@link #DEADLINE_EXCEEDED}.
+ * Requests without client span, e.g. not sampled ones, are not tagged.
+ * The remaining time is sent downstream in a header when a header name is configured.
+ */
+public class DeadlineClientExec implements ClientExecChain {
+
+  public static final String DEADLINE_REMAINING = "deadline.remaining_ms";
+  public static final String DEADLINE_EXCEEDED = "deadline.exceeded";
+
+  private final ClientExecChain requestExecutor;
+  private final Tracer tracer;
+  private final String headerName;
+
+  /**
+   * @param headerName name of the header carrying the remaining time in milliseconds, null to send no header
+   */
+  public DeadlineClientExec(ClientExecChain clientExecChain, Tracer tracer, String headerName) {
+    this.requestExecutor = clientExecChain;
+    this.tracer = tracer;
+    this.headerName = headerName;
+  }
+
+  @Override
+  public CloseableHttpResponse execute(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    long deadline = deadline(clientContext);
+    if (deadline < 0) {
+      return requestExecutor.execute(route, request, clientContext, execAware);
+    }
+    long remaining = deadline - System.currentTimeMillis();
+    Span span = TracingClientExec.clientSpan(clientContext);
+    if (remaining <= 0) {
+      if (span != null) {
+        span.setTag(DEADLINE_EXCEEDED, true);
+      }
+      throw new DeadlineExceededException(-remaining);
+    }
+    if (span != null) {
+      span.setTag(DEADLINE_REMAINING, remaining);
+    }
+    if (headerName != null) {
+      request.setHeader(headerName, Long.toString(remaining));
+    }
+
+    RequestConfig config = clientContext.getRequestConfig();
+    clientContext.setRequestConfig(RequestConfig.copy(config)
+        .setConnectionRequestTimeout(shrink(config.getConnectionRequestTimeout(), remaining))
+        .setConnectTimeout(shrink(config.getConnectTimeout(), remaining))
+        .setSocketTimeout(shrink(config.getSocketTimeout(), remaining))
+        .build());
+    try {
+      return requestExecutor.execute(route, request, clientContext, execAware);
+    } finally {
+      // the context may be reused by the next request
+      clientContext.setRequestConfig(config);
+    }
+  }
+
+  /**
+   * @param timeout configured timeout, zero for infinite and negative for the system default
+   */
+  private static int shrink(int timeout, long remaining) {
+    int remainingTimeout = (int) Math.min(remaining, Integer.MAX_VALUE);
+    return timeout > 0 ? Math.min(timeout, remainingTimeout) : remainingTimeout;
+  }
+
+  /**
+   * @return deadline in milliseconds since the epoch or -1 if there is none
+   */
+  private long deadline(HttpClientContext clientContext) {
+    Long deadline = clientContext.getAttribute(DEADLINE, Long.class);
+    if (deadline != null) {
+      return deadline;
+    }
+    SpanContext parentContext = parentContext(clientContext);
+    String baggageItem = null;
+    if (parentContext != null) {
+      for (Map.Entry<String, String> item : parentContext.baggageItems()) {
+        if (DEADLINE_BAGGAGE_ITEM.equals(item.getKey())) {
+          baggageItem = item.getValue();
+          break;
+        }
+      }
+    }
+    if (baggageItem == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(baggageItem);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return context carrying the baggage of the parent of the request, null if it has no parent
+   */
+  private SpanContext parentContext(HttpClientContext clientContext) {
+    SpanContext parentContext = clientContext.getAttribute(PARENT_CONTEXT, SpanContext.class);
+    if (parentContext != null) {
+      return parentContext;
+    }
+    // the client span inherits the baggage of its parent, without client span the span of the caller is active
+    Span span = TracingClientExec.clientSpan(clientContext);
+    if (span == null) {
+      span = tracer.activeSpan();
+    }
+    return span != null ? span.context() : null;
+  }
+}
@@ -0,0 +1,16 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown by {@link DeadlineClientExec} when the deadline of a request passed before it was sent. It is an
+ * {@link java.io.InterruptedIOException}, so the default retry handler does not retry it.
+ */
+public class DeadlineExceededException extends SocketTimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(long exceededMillis) {
+        super("Deadline exceeded " + exceededMillis + " ms ago");
+    }
+}
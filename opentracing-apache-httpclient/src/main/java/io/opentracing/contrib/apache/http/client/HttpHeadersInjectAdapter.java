@@ -3,11 +3,20 @@ package io.opentracing.contrib.apache.http.client;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.apache.http.FormattedHeader;
+import org.apache.http.HeaderElement;
 import org.apache.http.HttpRequest;
+import org.apache.http.message.BasicHeaderValueParser;
+import org.apache.http.message.ParserCursor;
+import org.apache.http.util.CharArrayBuffer;
 
 import io.opentracing.propagation.TextMap;
 
 /**
+ * Injects headers as {@link FormattedHeader}s which are written to the wire as they are. Headers are
+ * appended when the request does not contain them yet, e.g. on the first attempt, otherwise
+ * they are replaced.
+ *
  * @author Pavol Loffay
  */
 public class HttpHeadersInjectAdapter implements TextMap {
@@ -20,11 +29,71 @@ public class HttpHeadersInjectAdapter implements TextMap {
 
     @Override
     public void put(String key, String value) {
-        httpRequest.setHeader(key, value);
+        InjectedHeader header = new InjectedHeader(key, value);
+        if (httpRequest.containsHeader(key)) {
+            httpRequest.setHeader(header);
+        } else {
+            httpRequest.addHeader(header);
+        }
     }
 
     @Override
     public Iterator<Map.Entry<String, String>> iterator() {
         throw new UnsupportedOperationException("This class should be used only with tracer#inject()");
     }
+
+    /**
+     * Header with the line formatted into a buffer of the exact size.
+     */
+    private static final class InjectedHeader implements FormattedHeader, Cloneable {
+        private final String name;
+        private final String value;
+        private final CharArrayBuffer buffer;
+
+        InjectedHeader(String name, String value) {
+            this.name = name;
+            this.value = value;
+            this.buffer = new CharArrayBuffer(name.length() + 2 + value.length());
+            buffer.append(name);
+            buffer.append(": ");
+            buffer.append(value);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public HeaderElement[] getElements() {
+            ParserCursor cursor = new ParserCursor(0, buffer.length());
+            cursor.updatePos(getValuePos());
+            return BasicHeaderValueParser.INSTANCE.parseElements(buffer, cursor);
+        }
+
+        @Override
+        public CharArrayBuffer getBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public int getValuePos() {
+            return name.length() + 2;
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            return super.clone();
+        }
+
+        @Override
+        public String toString() {
+            return buffer.toString();
+        }
+    }
 }
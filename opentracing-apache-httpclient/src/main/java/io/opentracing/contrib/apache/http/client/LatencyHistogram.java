@@ -0,0 +1,149 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in microseconds. Every power of two is split
+ * into {@code 2^PRECISION_BITS} buckets, so recorded values are within ~3% of the exact value.
+ * Values above {@code 2^33} microseconds (~2.4 hours) are counted in the last bucket.
+ *
+ * <p>Recording is wait-free except for updating the maximum, memory footprint is fixed.
+ */
+public final class LatencyHistogram {
+
+    static final int PRECISION_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+    private static final int MAX_EXPONENT = 32;
+    static final int BUCKETS = (MAX_EXPONENT - PRECISION_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param durationNanos duration in nanoseconds
+     */
+    public void record(long durationNanos) {
+        long micros = durationNanos > 0 ? TimeUnit.NANOSECONDS.toMicros(durationNanos) : 0;
+        counts.incrementAndGet(index(micros));
+        sumMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * Copies the histogram. Values recorded concurrently may be only partially included.
+     */
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, sumMicros.get(), maxMicros.get());
+    }
+
+    /**
+     * Clears the histogram. Values recorded concurrently may be partially cleared.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - PRECISION_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestEquivalentValue(index + 1) - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram, all values are in microseconds.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+        private final long maxMicros;
+
+        Snapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumMicros() {
+            return sumMicros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        /**
+         * @return snapshot containing values of both snapshots
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] mergedCounts = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                mergedCounts[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(mergedCounts, count + other.count, sumMicros + other.sumMicros,
+                Math.max(maxMicros, other.maxMicros));
+        }
+
+        public double getMeanMicros() {
+            return count == 0 ? 0 : (double) sumMicros / count;
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100
+         * @return highest value of the bucket the percentile falls into, capped by the maximum
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= target) {
+                    return Math.min(highestEquivalentValue(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheEntrySerializer;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.impl.client.cache.DefaultHttpCacheEntrySerializer;
+
+/**
+ * Cache storage keeping serialized entries in a memory-mapped file of fixed size, outside of the heap.
+ * The file is written as a ring: new entries are appended after the last one and overwrite the oldest
+ * entries when the end of the file is reached. Entries larger than the file are not stored.
+ *
+ * <p>The index of entries is kept in memory, entries do not survive a restart. Response bodies are
+ * serialized with the entries, use {@link org.apache.http.impl.client.cache.HeapResourceFactory}, the default
+ * resource factory, so that bodies are stored in the file. Once the storage is closed, its operations throw
+ * {@link IllegalStateException}.
+ */
+public class MappedFileHttpCacheStorage implements HttpCacheStorage, Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final HttpCacheEntrySerializer serializer = new DefaultHttpCacheEntrySerializer();
+    /**
+     * Guarded by this.
+     */
+    private final Map<String, Slot> slots = new HashMap<>();
+    /**
+     * Keys by offset of their slot, guarded by this.
+     */
+    private final TreeMap<Integer, String> keysByOffset = new TreeMap<>();
+    /**
+     * Guarded by this.
+     */
+    private int position;
+    /**
+     * Guarded by this.
+     */
+    private boolean closed;
+
+    /**
+     * @param file file holding the entries, it is created or truncated
+     * @param capacity size of the file in bytes
+     */
+    public MappedFileHttpCacheStorage(File file, int capacity) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            this.file.setLength(capacity);
+            this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.writeTo(entry, out);
+        byte[] bytes = out.toByteArray();
+        synchronized (this) {
+            checkOpen();
+            remove(key);
+            if (bytes.length > buffer.capacity()) {
+                return;
+            }
+            if (position + bytes.length > buffer.capacity()) {
+                position = 0;
+            }
+            evict(position, position + bytes.length);
+            ByteBuffer target = buffer.duplicate();
+            target.position(position);
+            target.put(bytes);
+            slots.put(key, new Slot(position, bytes.length));
+            keysByOffset.put(position, key);
+            position += bytes.length;
+        }
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(String key) throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            checkOpen();
+            Slot slot = slots.get(key);
+            if (slot == null) {
+                return null;
+            }
+            bytes = new byte[slot.length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(slot.offset);
+            source.get(bytes);
+        }
+        return serializer.readFrom(new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public void removeEntry(String key) {
+        synchronized (this) {
+            checkOpen();
+            remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+        HttpCacheEntry updated = callback.update(getEntry(key));
+        if (updated == null) {
+            removeEntry(key);
+        } else {
+            putEntry(key, updated);
+        }
+    }
+
+    /**
+     * @return number of stored entries
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Drops all entries and closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        slots.clear();
+        keysByOffset.clear();
+        file.close();
+    }
+
+    /**
+     * The mapping stays valid after the file is closed, so reads and writes would still succeed.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Cache storage is closed");
+        }
+    }
+
+    private void remove(String key) {
+        Slot slot = slots.remove(key);
+        if (slot != null) {
+            keysByOffset.remove(slot.offset);
+        }
+    }
+
+    /**
+     * Removes entries starting within the region, entries are written in order so no entry starting before
+     * the region overlaps it.
+     */
+    private void evict(int from, int to) {
+        Iterator<String> keys = keysByOffset.subMap(from, true, to, false).values().iterator();
+        while (keys.hasNext()) {
+            slots.remove(keys.next());
+            keys.remove();
+        }
+    }
+
+    private static final class Slot {
+        private final int offset;
+        private final int length;
+
+        Slot(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.io.IOException;
+import org.apache.http.HttpException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Records latency of every request sent to the network into {@link ApacheClientMetrics}. It is placed
+ * right after {@link TracingClientExec}, so requests which are not sampled are recorded as well.
+ * Latency is measured until the response head is received.
+ */
+public class MetricsClientExec implements ClientExecChain {
+
+  private final ClientExecChain requestExecutor;
+  private final ApacheClientMetrics metrics;
+
+  public MetricsClientExec(ClientExecChain clientExecChain, ApacheClientMetrics metrics) {
+    this.requestExecutor = clientExecChain;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public CloseableHttpResponse execute(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    long start = System.nanoTime();
+    CloseableHttpResponse response;
+    try {
+      response = requestExecutor.execute(route, request, clientContext, execAware);
+    } catch (IOException | HttpException | RuntimeException e) {
+      metrics.record(route.getTargetHost(), request.getMethod(), -1, System.nanoTime() - start);
+      throw e;
+    }
+    metrics.record(route.getTargetHost(), request.getMethod(), response.getStatusLine().getStatusCode(),
+        System.nanoTime() - start);
+    return response;
+  }
+}
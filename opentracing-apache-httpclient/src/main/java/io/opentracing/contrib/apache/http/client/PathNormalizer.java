@@ -0,0 +1,283 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.http.client.methods.HttpRequestWrapper;
+
+/**
+ * Replaces variable path segments by placeholders to bound cardinality of operation names and tags,
+ * e.g. {@code /users/42/orders} becomes {@code /users/{id}/orders}.
+ *
+ * <p>Paths are first matched against configured templates, where {@code {name}} or {@code *} matches
+ * any single segment and the template itself is the result. Otherwise numeric segments are replaced by
+ * {@link #ID}, UUIDs by {@link #UUID} and hexadecimal segments of at least 16 characters by {@link #ID}.
+ * Results are cached by the raw path in two generations of half the cache size each. When the recent
+ * generation is full it becomes the old one and the previous old generation is dropped, paths found in the
+ * old generation are moved to the recent one. This approximates an LRU cache without locking lookups.
+ *
+ * <p>The normalizer also strips or hashes query strings of URLs according to {@link QueryMode}.
+ */
+public class PathNormalizer {
+
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+    public static final String ID = "{id}";
+    public static final String UUID = "{uuid}";
+
+    private static final int MIN_HEX_ID_LENGTH = 16;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public enum QueryMode {
+        /**
+         * Query string is kept as it is.
+         */
+        KEEP,
+        /**
+         * Query string and fragment are removed.
+         */
+        STRIP,
+        /**
+         * Query string is replaced by its 64 bit FNV-1a hash, fragment is removed.
+         */
+        HASH
+    }
+
+    private final List<String[]> templates;
+    private final QueryMode queryMode;
+    private final int cacheSize;
+    private final int generationSize;
+    private volatile ConcurrentMap<String, String> recentPaths = new ConcurrentHashMap<>();
+    private volatile ConcurrentMap<String, String> oldPaths = new ConcurrentHashMap<>();
+
+    public PathNormalizer() {
+        this(Collections.<String>emptyList(), QueryMode.KEEP, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param templates path templates e.g. {@code /users/{name}/orders}, evaluated in order
+     * @param queryMode handling of query strings by {@link #normalizeUrl(String)}
+     * @param cacheSize maximum number of cached paths
+     */
+    public PathNormalizer(List<String> templates, QueryMode queryMode, int cacheSize) {
+        this.templates = new ArrayList<>(templates.size());
+        for (String template : templates) {
+            this.templates.add(segments(template));
+        }
+        this.queryMode = queryMode;
+        this.cacheSize = cacheSize;
+        this.generationSize = Math.max(1, cacheSize / 2);
+    }
+
+    /**
+     * @param rawPath raw path without query string
+     * @return path template
+     */
+    public String normalize(String rawPath) {
+        ConcurrentMap<String, String> recent = recentPaths;
+        String normalized = recent.get(rawPath);
+        if (normalized != null) {
+            return normalized;
+        }
+        normalized = oldPaths.get(rawPath);
+        if (normalized == null) {
+            normalized = normalizeUncached(rawPath);
+        }
+        if (cacheSize > 0) {
+            cache(recent, rawPath, normalized);
+        }
+        return normalized;
+    }
+
+    private void cache(ConcurrentMap<String, String> recent, String rawPath, String normalized) {
+        if (recent.size() >= generationSize) {
+            synchronized (this) {
+                if (recentPaths == recent) {
+                    oldPaths = recent;
+                    recentPaths = new ConcurrentHashMap<>();
+                }
+                recent = recentPaths;
+            }
+        }
+        recent.putIfAbsent(rawPath, normalized);
+    }
+
+    /**
+     * @return number of cached paths
+     */
+    int cachedPaths() {
+        return recentPaths.size() + oldPaths.size();
+    }
+
+    /**
+     * @param request request
+     * @return path template of the request
+     */
+    public String normalize(HttpRequestWrapper request) {
+        return normalize(rawPath(request));
+    }
+
+    /**
+     * @param url URL or request URI
+     * @return URL with query string handled according to {@link QueryMode}
+     */
+    public String normalizeUrl(String url) {
+        if (queryMode == QueryMode.KEEP) {
+            return url;
+        }
+        int queryStart = url.indexOf('?');
+        int fragmentStart = url.indexOf('#', queryStart < 0 ? 0 : queryStart);
+        if (queryStart < 0) {
+            return fragmentStart < 0 ? url : url.substring(0, fragmentStart);
+        }
+        if (queryMode == QueryMode.STRIP) {
+            return url.substring(0, queryStart);
+        }
+        int queryEnd = fragmentStart < 0 ? url.length() : fragmentStart;
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = queryStart + 1; i < queryEnd; i++) {
+            hash = (hash ^ url.charAt(i)) * FNV_PRIME;
+        }
+        return url.substring(0, queryStart + 1) + Long.toHexString(hash);
+    }
+
+    /**
+     * Raw path of the request, the URI is null when a non {@code HttpUriRequest} is executed.
+     */
+    static String rawPath(HttpRequestWrapper request) {
+        URI uri = request.getURI();
+        if (uri != null) {
+            String path = uri.getRawPath();
+            return path != null ? path : "";
+        }
+        String requestUri = request.getRequestLine().getUri();
+        int start = 0;
+        int schemeEnd = requestUri.indexOf("://");
+        if (schemeEnd >= 0) {
+            start = requestUri.indexOf('/', schemeEnd + 3);
+            if (start < 0) {
+                return "";
+            }
+        }
+        int end = requestUri.length();
+        for (int i = start; i < end; i++) {
+            char c = requestUri.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+            }
+        }
+        return requestUri.substring(start, end);
+    }
+
+    private String normalizeUncached(String rawPath) {
+        if (!templates.isEmpty()) {
+            String[] segments = segments(rawPath);
+            for (String[] template : templates) {
+                if (matches(template, segments)) {
+                    return join(template);
+                }
+            }
+        }
+
+        StringBuilder normalized = null;
+        int pos = 0;
+        while (pos < rawPath.length()) {
+            int end = rawPath.indexOf('/', pos);
+            if (end < 0) {
+                end = rawPath.length();
+            }
+            String placeholder = placeholder(rawPath, pos, end);
+            if (placeholder != null) {
+                if (normalized == null) {
+                    normalized = new StringBuilder(rawPath.length()).append(rawPath, 0, pos);
+                }
+                normalized.append(placeholder);
+            } else if (normalized != null) {
+                normalized.append(rawPath, pos, end);
+            }
+            if (end < rawPath.length() && normalized != null) {
+                normalized.append('/');
+            }
+            pos = end + 1;
+        }
+        return normalized != null ? normalized.toString() : rawPath;
+    }
+
+    private static String placeholder(String path, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return null;
+        }
+        boolean numeric = true;
+        boolean hex = true;
+        boolean hasDigit = false;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            hasDigit |= digit;
+            numeric &= digit;
+            hex &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+        if (numeric || (hex && hasDigit && length >= MIN_HEX_ID_LENGTH)) {
+            return ID;
+        }
+        return isUuid(path, start, end) ? UUID : null;
+    }
+
+    private static boolean isUuid(String path, int start, int end) {
+        if (end - start != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = path.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String[] template, String[] segments) {
+        if (template.length != segments.length) {
+            return false;
+        }
+        for (int i = 0; i < template.length; i++) {
+            if (!isVariable(template[i]) && !template[i].equals(segments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isVariable(String segment) {
+        return "*".equals(segment) || (segment.startsWith("{") && segment.endsWith("}"));
+    }
+
+    private static String[] segments(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    private static String join(String[] segments) {
+        if (segments.length == 0) {
+            return "/";
+        }
+        StringBuilder path = new StringBuilder();
+        for (String segment : segments) {
+            path.append('/').append(segment);
+        }
+        return path.toString();
+    }
+}
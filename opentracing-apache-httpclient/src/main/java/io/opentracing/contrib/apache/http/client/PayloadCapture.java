@@ -0,0 +1,464 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Attaches the first bytes of request and response entities to client spans of failed exchanges, see
+ * {@link TracingHttpClientBuilder#withPayloadCapture(PayloadCapture)}. An exchange failed when it ended
+ * with an exception or a {@code 5xx} response, additional exchanges can be selected by a {@link Rule}.
+ *
+ * <p>The request entity is teed into a buffer taken from a fixed-size pool while it is written, at most
+ * {@code maxBytes} are copied. The response entity is only touched when the content is attached: its first
+ * {@code maxBytes} are read ahead into a pooled buffer and replayed to the caller, other responses are not
+ * copied or buffered. When the read ahead fails, the response body is not attached and the caller gets the
+ * bytes read so far followed by the failure. When all buffers are in use the entity is not captured and it is
+ * counted by {@link #getSkipped()}, so memory used by the capture is bounded by {@code maxBytes * poolSize}.
+ *
+ * <p>Captured content is decoded with the charset of the entity, UTF-8 by default, redacted and set as
+ * {@link #REQUEST_BODY} and {@link #RESPONSE_BODY} tags. Truncated content is marked by
+ * {@link #REQUEST_BODY_TRUNCATED} and {@link #RESPONSE_BODY_TRUNCATED}.
+ */
+public class PayloadCapture {
+
+    public static final String REQUEST_BODY = "http.request.body";
+    public static final String REQUEST_BODY_TRUNCATED = "http.request.body.truncated";
+    public static final String RESPONSE_BODY = "http.response.body";
+    public static final String RESPONSE_BODY_TRUNCATED = "http.response.body.truncated";
+
+    public static final int DEFAULT_MAX_BYTES = 1024;
+    public static final int DEFAULT_POOL_SIZE = 64;
+
+    /**
+     * Selects exchanges whose content is attached although they did not fail.
+     */
+    public interface Rule {
+        /**
+         * @param request request
+         * @param response response, the status line and headers are available but the entity is not read
+         * @return whether the content is attached
+         */
+        boolean matches(HttpRequest request, HttpResponse response);
+    }
+
+    /**
+     * Removes sensitive data from the content before it is attached.
+     */
+    public interface Redactor {
+        /**
+         * @param content decoded, possibly truncated content
+         * @return content attached to the span
+         */
+        String redact(String content);
+    }
+
+    private final int maxBytes;
+    private final BlockingQueue<byte[]> pool;
+    private final AtomicLong skipped = new AtomicLong();
+    private Rule rule;
+    private Redactor redactor;
+
+    public PayloadCapture() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param maxBytes maximum number of captured bytes of each entity
+     * @param poolSize number of pooled buffers, bounds the number of requests captured concurrently
+     */
+    public PayloadCapture(int maxBytes, int poolSize) {
+        if (maxBytes <= 0 || poolSize <= 0) {
+            throw new IllegalArgumentException("maxBytes and poolSize have to be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            pool.offer(new byte[maxBytes]);
+        }
+    }
+
+    /**
+     * @param rule rule selecting exchanges attached in addition to failed ones
+     */
+    public PayloadCapture withRule(Rule rule) {
+        this.rule = rule;
+        return this;
+    }
+
+    /**
+     * @param redactor redactor of attached content
+     */
+    public PayloadCapture withRedactor(Redactor redactor) {
+        this.redactor = redactor;
+        return this;
+    }
+
+    /**
+     * @return number of entities not captured because all buffers were in use
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return number of buffers currently in the pool
+     */
+    public int getAvailableBuffers() {
+        return pool.size();
+    }
+
+    /**
+     * Tees the request entity into a pooled buffer until the exchange ends.
+     *
+     * @return capture of the request or null if the request has no entity or no buffer is available
+     */
+    RequestCapture captureRequest(HttpRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = entityRequest.getEntity();
+        if (entity == null) {
+            return null;
+        }
+        byte[] buffer = pool.poll();
+        if (buffer == null) {
+            skipped.incrementAndGet();
+            return null;
+        }
+        RequestCapture capture = new RequestCapture(entityRequest, entity, buffer);
+        entityRequest.setEntity(capture.new TeeEntity(entity));
+        return capture;
+    }
+
+    /**
+     * Restores the request entity and attaches the content if the exchange failed or matches the rule.
+     *
+     * @param capture capture of the request, null if the request was not captured
+     */
+    void onResponse(RequestCapture capture, HttpRequest request, HttpResponse response, Span span)
+            throws IOException {
+        boolean attach;
+        try {
+            attach = response.getStatusLine().getStatusCode() >= 500
+                    || (rule != null && rule.matches(request, response));
+            if (attach && capture != null) {
+                capture.attach(span);
+            }
+        } finally {
+            // released before the response is read ahead into another pooled buffer
+            if (capture != null) {
+                capture.release();
+            }
+        }
+        if (attach) {
+            attachResponse(response, span);
+        }
+    }
+
+    /**
+     * Restores the request entity and attaches its content.
+     *
+     * @param capture capture of the request, null if the request was not captured
+     */
+    void onError(RequestCapture capture, Span span) {
+        if (capture != null) {
+            capture.attach(span);
+            capture.release();
+        }
+    }
+
+    private void attachResponse(HttpResponse response, Span span) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        int limit = maxBytes;
+        long contentLength = entity.getContentLength();
+        if (contentLength >= 0 && contentLength < limit) {
+            limit = (int) contentLength;
+        }
+        byte[] buffer = pool.poll();
+        if (buffer == null) {
+            skipped.incrementAndGet();
+            return;
+        }
+        InputStream content;
+        byte[] prefix;
+        int next = -1;
+        IOException readFailure = null;
+        try {
+            content = entity.getContent();
+            if (content == null) {
+                return;
+            }
+            int length = 0;
+            try {
+                int n;
+                while (length < limit && (n = content.read(buffer, length, limit - length)) != -1) {
+                    length += n;
+                }
+                // a single read ahead byte tells whether the content is truncated
+                if (length == maxBytes) {
+                    next = content.read();
+                }
+            } catch (IOException e) {
+                readFailure = e;
+            }
+            prefix = Arrays.copyOf(buffer, length);
+        } finally {
+            pool.offer(buffer);
+        }
+        if (readFailure != null) {
+            // the caller reads the bytes read so far and then gets the failure
+            response.setEntity(new ReplayEntity(entity, prefix, -1, new FailedInputStream(content, readFailure)));
+            return;
+        }
+        span.setTag(RESPONSE_BODY, decode(entity, prefix, prefix.length));
+        if (next != -1) {
+            span.setTag(RESPONSE_BODY_TRUNCATED, true);
+        }
+        response.setEntity(new ReplayEntity(entity, prefix, next, content));
+    }
+
+    private String decode(HttpEntity entity, byte[] bytes, int length) {
+        String content = new String(bytes, 0, length, charset(entity));
+        return redactor != null ? redactor.redact(content) : content;
+    }
+
+    private static Charset charset(HttpEntity entity) {
+        try {
+            ContentType contentType = ContentType.get(entity);
+            if (contentType != null && contentType.getCharset() != null) {
+                return contentType.getCharset();
+            }
+        } catch (RuntimeException e) {
+            // unparsable or unsupported charset
+        }
+        return Consts.UTF_8;
+    }
+
+    /**
+     * Request entity teed into a pooled buffer. The buffer is returned to the pool when the exchange ends.
+     */
+    final class RequestCapture {
+        private final HttpEntityEnclosingRequest request;
+        private final HttpEntity entity;
+        private byte[] buffer;
+        private int length;
+        private boolean truncated;
+
+        RequestCapture(HttpEntityEnclosingRequest request, HttpEntity entity, byte[] buffer) {
+            this.request = request;
+            this.entity = entity;
+            this.buffer = buffer;
+        }
+
+        private void write(int b) {
+            if (length < buffer.length) {
+                buffer[length++] = (byte) b;
+            } else {
+                truncated = true;
+            }
+        }
+
+        private void write(byte[] b, int off, int len) {
+            int n = Math.min(len, buffer.length - length);
+            if (n > 0) {
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+            }
+            if (n < len) {
+                truncated = true;
+            }
+        }
+
+        private void reset() {
+            length = 0;
+            truncated = false;
+        }
+
+        private void attach(Span span) {
+            if (buffer == null) {
+                return;
+            }
+            if (length > 0) {
+                span.setTag(REQUEST_BODY, decode(entity, buffer, length));
+            }
+            if (truncated) {
+                span.setTag(REQUEST_BODY_TRUNCATED, true);
+            }
+        }
+
+        /**
+         * Restores the original entity, so that retries and redirects are not teed twice.
+         */
+        private void release() {
+            request.setEntity(entity);
+            byte[] buffer = this.buffer;
+            this.buffer = null;
+            if (buffer != null) {
+                pool.offer(buffer);
+            }
+        }
+
+        final class TeeEntity extends HttpEntityWrapper {
+
+            TeeEntity(HttpEntity wrappedEntity) {
+                super(wrappedEntity);
+            }
+
+            @Override
+            public InputStream getContent() throws IOException {
+                reset();
+                return new TeeInputStream(wrappedEntity.getContent());
+            }
+
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException {
+                reset();
+                wrappedEntity.writeTo(new TeeOutputStream(outStream));
+            }
+        }
+
+        private final class TeeOutputStream extends FilterOutputStream {
+
+            TeeOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                RequestCapture.this.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                RequestCapture.this.write(b, off, len);
+            }
+        }
+
+        private final class TeeInputStream extends FilterInputStream {
+
+            TeeInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b != -1) {
+                    RequestCapture.this.write(b);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    RequestCapture.this.write(b, off, n);
+                }
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Rest of a response content whose read ahead failed, reads rethrow the failure.
+     */
+    private static final class FailedInputStream extends FilterInputStream {
+        private final IOException failure;
+
+        FailedInputStream(InputStream in, IOException failure) {
+            super(in);
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw failure;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throw failure;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw failure;
+        }
+    }
+
+    /**
+     * Response entity whose content starts with the bytes read ahead followed by the rest of the original
+     * content. The content can be read once.
+     */
+    private static final class ReplayEntity extends HttpEntityWrapper {
+        private final InputStream content;
+
+        ReplayEntity(HttpEntity wrappedEntity, byte[] prefix, int next, InputStream remaining) {
+            super(wrappedEntity);
+            InputStream head = new ByteArrayInputStream(prefix);
+            if (next != -1) {
+                head = new SequenceInputStream(head, new ByteArrayInputStream(new byte[] {(byte) next}));
+            }
+            this.content = new SequenceInputStream(head, remaining);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return content;
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = content.read(buffer)) != -1) {
+                    outStream.write(buffer, 0, n);
+                }
+            } finally {
+                content.close();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void consumeContent() throws IOException {
+            content.close();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import io.opentracing.tag.IntTag;
+import io.opentracing.tag.StringTag;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.ServiceUnavailableRetryStrategy;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Tracks automatic retries done by {@link org.apache.http.impl.execchain.RetryExec} and
+ * {@link org.apache.http.impl.execchain.ServiceUnavailableRetryExec}, which run before {@link TracingClientExec}.
+ * The retry handler and strategy are wrapped, so that {@link TracingClientExec} knows whether a failed
+ * attempt is going to be retried before it returns: the decision is made once when the attempt completes
+ * and reused by the retry exec. All attempts are then represented by one local span. The retry execs have to
+ * use the wrapped handler and strategy, {@link TracingHttpClientBuilder} installs them itself.
+ *
+ * <p>Client spans of retried attempts are tagged with {@link #RETRY_ATTEMPT} starting at 2 and
+ * {@link #RETRY_REASON}, the class name of the exception or the status code of the previous attempt.
+ * Each retry is also logged to the local span.
+ */
+public final class RetryTracking {
+
+    public static final IntTag RETRY_ATTEMPT = new IntTag("http.retry.attempt");
+    public static final StringTag RETRY_REASON = new StringTag("http.retry.reason");
+    public static final String RETRY_EVENT = "retry";
+
+    /**
+     * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the retry state of the current request.
+     */
+    static final String STATE_PROP = TracingHttpClientBuilder.class.getName() + ".retryState";
+
+    private final HttpRequestRetryHandler retryHandler;
+    private final ServiceUnavailableRetryStrategy unavailableRetryStrategy;
+
+    /**
+     * @param retryHandler retry handler of the client
+     * @param unavailableRetryStrategy service unavailable retry strategy of the client, can be null
+     */
+    public RetryTracking(HttpRequestRetryHandler retryHandler,
+                         ServiceUnavailableRetryStrategy unavailableRetryStrategy) {
+        this.retryHandler = new TrackedRetryHandler(retryHandler);
+        this.unavailableRetryStrategy = unavailableRetryStrategy != null
+            ? new TrackedUnavailableRetryStrategy(unavailableRetryStrategy) : null;
+    }
+
+    /**
+     * @return retry handler which has to be installed on the client
+     */
+    public HttpRequestRetryHandler getRetryHandler() {
+        return retryHandler;
+    }
+
+    /**
+     * @return service unavailable retry strategy which has to be installed on the client, null if none
+     */
+    public ServiceUnavailableRetryStrategy getServiceUnavailableRetryStrategy() {
+        return unavailableRetryStrategy;
+    }
+
+    /**
+     * Decides whether the failed attempt is retried, mirroring {@link org.apache.http.impl.execchain.RetryExec}.
+     */
+    boolean isRetried(IOException ex, HttpRequest request, HttpClientContext clientContext,
+                      HttpExecutionAware execAware) {
+        if (execAware != null && execAware.isAborted()) {
+            return false;
+        }
+        State state = state(clientContext);
+        boolean retry = ((TrackedRetryHandler) retryHandler).delegate
+            .retryRequest(ex, state.ioExecCount, clientContext);
+        state.decide(ex, retry);
+        if (retry && isRepeatable(request)) {
+            state.ioExecCount++;
+            state.retry(ex.getClass().getName());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decides whether the response is retried, mirroring
+     * {@link org.apache.http.impl.execchain.ServiceUnavailableRetryExec}.
+     */
+    boolean isRetried(HttpResponse response, HttpRequest request, HttpClientContext clientContext) {
+        if (unavailableRetryStrategy == null) {
+            State state = clientContext.getAttribute(STATE_PROP, State.class);
+            if (state != null) {
+                state.ioExecCount = 1;
+            }
+            return false;
+        }
+        State state = state(clientContext);
+        state.ioExecCount = 1;
+        boolean retry = ((TrackedUnavailableRetryStrategy) unavailableRetryStrategy).delegate
+            .retryRequest(response, state.unavailableExecCount, clientContext);
+        state.decide(response, retry);
+        if (retry && isRepeatable(request)) {
+            state.unavailableExecCount++;
+            state.retry(String.valueOf(response.getStatusLine().getStatusCode()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tags the client span and logs to the local span if the attempt is a retry.
+     */
+    void onAttempt(Span clientSpan, Span localSpan, HttpClientContext clientContext) {
+        State state = clientContext.getAttribute(STATE_PROP, State.class);
+        if (state == null || state.attempt == 1) {
+            return;
+        }
+        RETRY_ATTEMPT.set(clientSpan, state.attempt);
+        RETRY_REASON.set(clientSpan, state.reason);
+        if (localSpan != clientSpan) {
+            Map<String, Object> fields = new HashMap<>(4);
+            fields.put("event", RETRY_EVENT);
+            fields.put(RETRY_ATTEMPT.getKey(), state.attempt);
+            fields.put(RETRY_REASON.getKey(), state.reason);
+            localSpan.log(fields);
+        }
+    }
+
+    /**
+     * Clears the state when the request completes or is redirected, retries of a redirected request
+     * are counted from the start.
+     */
+    static void clear(HttpClientContext clientContext) {
+        clientContext.removeAttribute(STATE_PROP);
+    }
+
+    private static State state(HttpClientContext clientContext) {
+        State state = clientContext.getAttribute(STATE_PROP, State.class);
+        if (state == null) {
+            state = new State();
+            clientContext.setAttribute(STATE_PROP, state);
+        }
+        return state;
+    }
+
+    /**
+     * Approximates {@code RequestEntityProxy#isRepeatable}, an unconsumed non repeatable entity is not retried.
+     */
+    private static boolean isRepeatable(HttpRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    private static final class State {
+        private int attempt = 1;
+        private int ioExecCount = 1;
+        private int unavailableExecCount = 1;
+        private String reason;
+        /**
+         * Exception or response the decision was made for.
+         */
+        private Object decidedFor;
+        private boolean decision;
+
+        void decide(Object cause, boolean retry) {
+            this.decidedFor = cause;
+            this.decision = retry;
+        }
+
+        void retry(String reason) {
+            this.attempt++;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the decision made for the cause or null if it was not decided yet
+         */
+        Boolean decision(Object cause) {
+            if (decidedFor != cause) {
+                return null;
+            }
+            decidedFor = null;
+            return decision;
+        }
+    }
+
+    private static Boolean decision(HttpContext context, Object cause) {
+        Object state = context.getAttribute(STATE_PROP);
+        return state instanceof State ? ((State) state).decision(cause) : null;
+    }
+
+    private static final class TrackedRetryHandler implements HttpRequestRetryHandler {
+        private final HttpRequestRetryHandler delegate;
+
+        TrackedRetryHandler(HttpRequestRetryHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+            Boolean decision = decision(context, exception);
+            return decision != null ? decision : delegate.retryRequest(exception, executionCount, context);
+        }
+    }
+
+    private static final class TrackedUnavailableRetryStrategy implements ServiceUnavailableRetryStrategy {
+        private final ServiceUnavailableRetryStrategy delegate;
+
+        TrackedUnavailableRetryStrategy(ServiceUnavailableRetryStrategy delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean retryRequest(HttpResponse response, int executionCount, HttpContext context) {
+            Boolean decision = decision(context, response);
+            return decision != null ? decision : delegate.retryRequest(response, executionCount, context);
+        }
+
+        @Override
+        public long getRetryInterval() {
+            return delegate.getRetryInterval();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.io.IOException;
+import org.apache.http.HttpException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Records every request sent to the network into {@link RouteStatsRegistry}. It is placed right after
+ * {@link TracingClientExec}, so requests which are not sampled are recorded as well. Latency is measured
+ * until the response head is received.
+ */
+public class RouteStatsClientExec implements ClientExecChain {
+
+  private final ClientExecChain requestExecutor;
+  private final RouteStatsRegistry registry;
+
+  public RouteStatsClientExec(ClientExecChain clientExecChain, RouteStatsRegistry registry) {
+    this.requestExecutor = clientExecChain;
+    this.registry = registry;
+  }
+
+  @Override
+  public CloseableHttpResponse execute(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    RouteStatsRegistry.Stats stats = registry.start(route);
+    long start = System.nanoTime();
+    CloseableHttpResponse response;
+    try {
+      response = requestExecutor.execute(route, request, clientContext, execAware);
+    } catch (IOException | HttpException | RuntimeException e) {
+      stats.end(System.nanoTime() - start, true);
+      throw e;
+    }
+    stats.end(System.nanoTime() - start, response.getStatusLine().getStatusCode() >= 500);
+    return response;
+  }
+}
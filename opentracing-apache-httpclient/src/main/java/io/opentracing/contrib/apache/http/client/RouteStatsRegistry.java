@@ -0,0 +1,212 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * Live latency statistics per {@link HttpRoute}: exponentially weighted moving average of latency and
+ * error rate, in-flight requests and a decaying latency histogram. Requests are recorded by
+ * {@link RouteStatsClientExec} regardless of sampling, see
+ * {@link TracingHttpClientBuilder#withRouteStats(RouteStatsRegistry)}. Statistics can be read by load
+ * balancers, timeout or hedging policies while requests are executed.
+ *
+ * <p>Routes are held in a concurrent map bounded by {@code maxRoutes}, routes above the limit share
+ * {@link #getOtherStats()}. Recording is lock-free and does not allocate.
+ */
+public class RouteStatsRegistry {
+
+    public static final int DEFAULT_MAX_ROUTES = 256;
+    public static final double DEFAULT_ALPHA = 0.2;
+    public static final long DEFAULT_WINDOW_MILLIS = 60000;
+
+    private final int maxRoutes;
+    private final double alpha;
+    private final long windowNanos;
+    private final ConcurrentMap<HttpRoute, Stats> routeStats = new ConcurrentHashMap<>();
+    private final Stats otherStats;
+
+    public RouteStatsRegistry() {
+        this(DEFAULT_MAX_ROUTES, DEFAULT_ALPHA, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param maxRoutes maximum number of routes with their own statistics
+     * @param alpha weight of the latest request in moving averages, between 0 and 1
+     * @param windowMillis length of a histogram window, histograms cover the current and the previous window
+     */
+    public RouteStatsRegistry(int maxRoutes, double alpha, long windowMillis) {
+        this.maxRoutes = maxRoutes;
+        this.alpha = alpha;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.otherStats = new Stats(this.alpha, this.windowNanos);
+    }
+
+    /**
+     * @return statistics of the route, null if no request was executed on it
+     */
+    public Stats getStats(HttpRoute route) {
+        return routeStats.get(route);
+    }
+
+    /**
+     * @return statistics shared by routes above the maximum number of routes
+     */
+    public Stats getOtherStats() {
+        return otherStats;
+    }
+
+    /**
+     * @return copy of the map of routes to their statistics
+     */
+    public Map<HttpRoute, Stats> getAllStats() {
+        return Collections.unmodifiableMap(new HashMap<>(routeStats));
+    }
+
+    /**
+     * @return statistics the request is recorded into, its in-flight count is incremented
+     */
+    Stats start(HttpRoute route) {
+        Stats stats = routeStats.get(route);
+        if (stats == null) {
+            if (routeStats.size() >= maxRoutes) {
+                stats = otherStats;
+            } else {
+                Stats newStats = new Stats(alpha, windowNanos);
+                stats = routeStats.putIfAbsent(route, newStats);
+                if (stats == null) {
+                    stats = newStats;
+                }
+            }
+        }
+        stats.inFlight.incrementAndGet();
+        return stats;
+    }
+
+    /**
+     * Statistics of a route.
+     */
+    public static final class Stats {
+        private static final LatencyHistogram.Snapshot EMPTY_SNAPSHOT = new LatencyHistogram().snapshot();
+
+        private final double alpha;
+        private final long windowNanos;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong latencyMicrosBits = new AtomicLong(Double.doubleToLongBits(Double.NaN));
+        private final AtomicLong errorRateBits = new AtomicLong(Double.doubleToLongBits(Double.NaN));
+        private final LatencyHistogram[] windows = {new LatencyHistogram(), new LatencyHistogram()};
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        private volatile int currentWindow;
+
+        Stats(double alpha, long windowNanos) {
+            this.alpha = alpha;
+            this.windowNanos = windowNanos;
+        }
+
+        /**
+         * @param durationNanos duration of the request
+         * @param error whether the request failed or the response has a server error status
+         */
+        void end(long durationNanos, boolean error) {
+            inFlight.decrementAndGet();
+            count.incrementAndGet();
+            if (error) {
+                errors.incrementAndGet();
+            }
+            update(latencyMicrosBits, durationNanos / 1000d);
+            update(errorRateBits, error ? 1 : 0);
+            window().record(durationNanos);
+        }
+
+        private void update(AtomicLong averageBits, double value) {
+            while (true) {
+                long bits = averageBits.get();
+                double average = Double.longBitsToDouble(bits);
+                double updated = Double.isNaN(average) ? value : average + alpha * (value - average);
+                if (averageBits.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Rotates windows when the current one expires, the older window is cleared and reused. When no
+         * request was recorded for two windows, the expired current window is cleared too.
+         */
+        private LatencyHistogram window() {
+            long start = windowStart.get();
+            long now = System.nanoTime();
+            if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+                int previous = currentWindow;
+                int next = 1 - previous;
+                windows[next].reset();
+                currentWindow = next;
+                if (now - start >= 2 * windowNanos) {
+                    windows[previous].reset();
+                }
+            }
+            return windows[currentWindow];
+        }
+
+        /**
+         * @return number of requests being executed
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return number of completed requests
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return number of failed requests and responses with a server error status
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return moving average of latency in microseconds, 0 if no request completed
+         */
+        public double getLatencyMicros() {
+            double average = Double.longBitsToDouble(latencyMicrosBits.get());
+            return Double.isNaN(average) ? 0 : average;
+        }
+
+        /**
+         * @return moving average of the error rate between 0 and 1, 0 if no request completed
+         */
+        public double getErrorRate() {
+            double average = Double.longBitsToDouble(errorRateBits.get());
+            return Double.isNaN(average) ? 0 : average;
+        }
+
+        /**
+         * Windows rotate only when requests are recorded, expired windows are left out of the snapshot.
+         *
+         * @return latency histogram of the current and the previous window
+         */
+        public LatencyHistogram.Snapshot getLatencySnapshot() {
+            long elapsedNanos = System.nanoTime() - windowStart.get();
+            int current = currentWindow;
+            if (elapsedNanos >= 2 * windowNanos) {
+                return EMPTY_SNAPSHOT;
+            }
+            LatencyHistogram.Snapshot snapshot = windows[current].snapshot();
+            // the current window would be the previous one after rotation
+            return elapsedNanos >= windowNanos ? snapshot : snapshot.merge(windows[1 - current].snapshot());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.net.ConnectException;
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * Thrown by {@link CircuitBreakerClientExec} when a call fails fast. It is a {@link ConnectException}, so the
+ * default retry handler does not retry it.
+ */
+public class ShortCircuitException extends ConnectException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        CIRCUIT_OPEN("circuit_open"),
+        BULKHEAD_FULL("bulkhead_full");
+
+        private final String tagValue;
+
+        Reason(String tagValue) {
+            this.tagValue = tagValue;
+        }
+
+        public String getTagValue() {
+            return tagValue;
+        }
+    }
+
+    private final Reason reason;
+
+    public ShortCircuitException(HttpRoute route, Reason reason) {
+        super("Call to " + route.getTargetHost() + " short-circuited: " + reason.getTagValue());
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
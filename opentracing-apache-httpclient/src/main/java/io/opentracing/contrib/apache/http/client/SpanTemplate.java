@@ -0,0 +1,151 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpHost;
+
+/**
+ * Operation name and constant tags of spans of requests with the same target host and method, see
+ * {@link TracingHttpClientBuilder#withSpanTemplates(SpanTemplate.Applier)}. Local spans are tagged with
+ * {@code component}, client spans with {@code span.kind}, {@code peer.hostname} and {@code peer.port} of
+ * the target host, unless the decorators of the request include
+ * {@link ApacheClientSpanDecorator.StandardTags}, which sets peer tags itself. Tags are set on span builders,
+ * so they are visible to tracers when spans start.
+ */
+public final class SpanTemplate {
+
+    public static final int DEFAULT_MAX_CACHED_TEMPLATES = 1024;
+
+    /**
+     * Sets tags of a template on a span builder. Tracers able to set several tags at once can read all tags
+     * via {@link TagSet#asMap()}.
+     */
+    public interface Applier {
+        Tracer.SpanBuilder apply(Tracer.SpanBuilder spanBuilder, TagSet tags);
+    }
+
+    /**
+     * Sets tags one by one via {@link Tracer.SpanBuilder#withTag(String, String)} and its overloads.
+     */
+    public static final Applier WITH_TAG = new Applier() {
+        @Override
+        public Tracer.SpanBuilder apply(Tracer.SpanBuilder spanBuilder, TagSet tags) {
+            for (int i = 0; i < tags.keys.length; i++) {
+                Object value = tags.values[i];
+                if (value instanceof String) {
+                    spanBuilder.withTag(tags.keys[i], (String) value);
+                } else {
+                    spanBuilder.withTag(tags.keys[i], (Number) value);
+                }
+            }
+            return spanBuilder;
+        }
+    };
+
+    private final String operationName;
+    private final TagSet localSpanTags;
+    private final TagSet clientSpanTags;
+
+    private SpanTemplate(HttpHost target, String method) {
+        this.operationName = method;
+        Map<String, Object> localTags = new LinkedHashMap<>(2);
+        localTags.put(Tags.COMPONENT.getKey(), TracingClientExec.COMPONENT_NAME);
+        this.localSpanTags = new TagSet(localTags);
+
+        Map<String, Object> clientTags = new LinkedHashMap<>(4);
+        clientTags.put(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT);
+        if (target != null) {
+            clientTags.put(Tags.PEER_HOSTNAME.getKey(), target.getHostName());
+            clientTags.put(Tags.PEER_PORT.getKey(), port(target));
+        }
+        this.clientSpanTags = new TagSet(clientTags);
+    }
+
+    public String getOperationName() {
+        return operationName;
+    }
+
+    public TagSet getLocalSpanTags() {
+        return localSpanTags;
+    }
+
+    public TagSet getClientSpanTags() {
+        return clientSpanTags;
+    }
+
+    private static Integer port(HttpHost target) {
+        int port = target.getPort();
+        if (port == -1) {
+            port = "https".equalsIgnoreCase(target.getSchemeName()) ? 443 : 80;
+        }
+        return port;
+    }
+
+    /**
+     * Immutable set of tags with string or numeric values.
+     */
+    public static final class TagSet {
+        private final String[] keys;
+        private final Object[] values;
+        private final Map<String, Object> map;
+
+        private TagSet(Map<String, Object> tags) {
+            this.keys = tags.keySet().toArray(new String[tags.size()]);
+            this.values = tags.values().toArray();
+            this.map = Collections.unmodifiableMap(tags);
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public Map<String, Object> asMap() {
+            return map;
+        }
+    }
+
+    /**
+     * Templates resolved once per target host and method, templates without target host carry no peer tags.
+     * Hosts above the maximum get a template per request.
+     */
+    static final class Cache {
+        private final int maxCachedTemplates;
+        private final ConcurrentMap<HttpHost, ConcurrentMap<String, SpanTemplate>> templates =
+            new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, SpanTemplate> noTargetTemplates = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        Cache(int maxCachedTemplates) {
+            this.maxCachedTemplates = maxCachedTemplates;
+        }
+
+        SpanTemplate get(HttpHost target, String method) {
+            ConcurrentMap<String, SpanTemplate> hostTemplates = target != null
+                ? templates.get(target) : noTargetTemplates;
+            SpanTemplate template = hostTemplates != null ? hostTemplates.get(method) : null;
+            if (template != null) {
+                return template;
+            }
+            template = new SpanTemplate(target, method);
+            if (size.get() < maxCachedTemplates) {
+                if (hostTemplates == null) {
+                    ConcurrentMap<String, SpanTemplate> newHostTemplates = new ConcurrentHashMap<>(4);
+                    hostTemplates = templates.putIfAbsent(target, newHostTemplates);
+                    if (hostTemplates == null) {
+                        hostTemplates = newHostTemplates;
+                    }
+                }
+                if (hostTemplates.putIfAbsent(method, template) == null) {
+                    size.incrementAndGet();
+                }
+            }
+            return template;
+        }
+    }
+}
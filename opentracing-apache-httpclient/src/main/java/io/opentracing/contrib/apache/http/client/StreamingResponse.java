@@ -0,0 +1,384 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Response whose spans are finished when the entity is fully read, closed or aborted, or when
+ * the response is closed. Created by {@link TracingClientExec} when spans are finished on
+ * response consumption, see {@link TracingHttpClientBuilder#finishSpansOnResponseConsumed()}.
+ *
+ * <p>The entity is wrapped by a stream which only counts bytes passed through it, nothing is copied
+ * or buffered. When the spans are finished the client span is tagged with {@link #REQUEST_BYTES}
+ * (content length of the request entity when known), {@link #RESPONSE_BYTES} and
+ * {@link #RESPONSE_BYTES_PER_SECOND} measured from the moment the response head was received.
+ */
+@SuppressWarnings("deprecation")
+public final class StreamingResponse implements CloseableHttpResponse {
+
+    public static final String REQUEST_BYTES = "http.request.bytes";
+    public static final String RESPONSE_BYTES = "http.response.bytes";
+    public static final String RESPONSE_BYTES_PER_SECOND = "http.response.bytes_per_second";
+
+    private final CloseableHttpResponse delegate;
+    private final Span span;
+    private final long requestBytes;
+    private final long startNanos = System.nanoTime();
+    private final List<Span> spansToFinish = new ArrayList<>(2);
+    private final AtomicBoolean finished = new AtomicBoolean();
+    /**
+     * Written by the thread reading the entity, an abort from another thread may see a stale value.
+     */
+    private long responseBytes;
+
+    private StreamingResponse(CloseableHttpResponse delegate, Span span, long requestBytes) {
+        this.delegate = delegate;
+        this.span = span;
+        this.requestBytes = requestBytes;
+        this.spansToFinish.add(span);
+    }
+
+    /**
+     * Wraps the response if its entity is streamed. When the response is not wrapped the client span
+     * is tagged right away and the caller is responsible for finishing it.
+     *
+     * @param response response
+     * @param request request
+     * @param span client span
+     * @return wrapped response or the original response
+     */
+    static CloseableHttpResponse wrap(CloseableHttpResponse response, HttpRequest request, Span span) {
+        long requestBytes = -1;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity requestEntity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (requestEntity != null) {
+                requestBytes = requestEntity.getContentLength();
+            }
+        }
+
+        HttpEntity entity = response.getEntity();
+        if (entity == null || !entity.isStreaming()) {
+            tagTransfer(span, requestBytes, entity != null ? entity.getContentLength() : 0, -1);
+            return response;
+        }
+        StreamingResponse streamingResponse = new StreamingResponse(response, span, requestBytes);
+        response.setEntity(streamingResponse.new CountingEntity(entity));
+        return streamingResponse;
+    }
+
+    /**
+     * Finishes the span after the client span, spans are finished in the order they were added.
+     * Has to be called before the response is handed over to the caller.
+     */
+    void finishAfterResponse(Span span) {
+        spansToFinish.add(span);
+    }
+
+    private void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        tagTransfer(span, requestBytes, responseBytes, System.nanoTime() - startNanos);
+        for (Span spanToFinish : spansToFinish) {
+            spanToFinish.finish();
+        }
+    }
+
+    private static void tagTransfer(Span span, long requestBytes, long responseBytes, long transferNanos) {
+        if (requestBytes >= 0) {
+            span.setTag(REQUEST_BYTES, requestBytes);
+        }
+        if (responseBytes >= 0) {
+            span.setTag(RESPONSE_BYTES, responseBytes);
+            if (transferNanos > 0) {
+                span.setTag(RESPONSE_BYTES_PER_SECOND, responseBytes * TimeUnit.SECONDS.toNanos(1) / transferNanos);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            finish();
+        }
+    }
+
+    @Override
+    public StatusLine getStatusLine() {
+        return delegate.getStatusLine();
+    }
+
+    @Override
+    public void setStatusLine(StatusLine statusline) {
+        delegate.setStatusLine(statusline);
+    }
+
+    @Override
+    public void setStatusLine(ProtocolVersion ver, int code) {
+        delegate.setStatusLine(ver, code);
+    }
+
+    @Override
+    public void setStatusLine(ProtocolVersion ver, int code, String reason) {
+        delegate.setStatusLine(ver, code, reason);
+    }
+
+    @Override
+    public void setStatusCode(int code) {
+        delegate.setStatusCode(code);
+    }
+
+    @Override
+    public void setReasonPhrase(String reason) {
+        delegate.setReasonPhrase(reason);
+    }
+
+    @Override
+    public HttpEntity getEntity() {
+        return delegate.getEntity();
+    }
+
+    @Override
+    public void setEntity(HttpEntity entity) {
+        delegate.setEntity(entity);
+    }
+
+    @Override
+    public Locale getLocale() {
+        return delegate.getLocale();
+    }
+
+    @Override
+    public void setLocale(Locale loc) {
+        delegate.setLocale(loc);
+    }
+
+    @Override
+    public ProtocolVersion getProtocolVersion() {
+        return delegate.getProtocolVersion();
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return delegate.containsHeader(name);
+    }
+
+    @Override
+    public Header[] getHeaders(String name) {
+        return delegate.getHeaders(name);
+    }
+
+    @Override
+    public Header getFirstHeader(String name) {
+        return delegate.getFirstHeader(name);
+    }
+
+    @Override
+    public Header getLastHeader(String name) {
+        return delegate.getLastHeader(name);
+    }
+
+    @Override
+    public Header[] getAllHeaders() {
+        return delegate.getAllHeaders();
+    }
+
+    @Override
+    public void addHeader(Header header) {
+        delegate.addHeader(header);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        delegate.addHeader(name, value);
+    }
+
+    @Override
+    public void setHeader(Header header) {
+        delegate.setHeader(header);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        delegate.setHeader(name, value);
+    }
+
+    @Override
+    public void setHeaders(Header[] headers) {
+        delegate.setHeaders(headers);
+    }
+
+    @Override
+    public void removeHeader(Header header) {
+        delegate.removeHeader(header);
+    }
+
+    @Override
+    public void removeHeaders(String name) {
+        delegate.removeHeaders(name);
+    }
+
+    @Override
+    public HeaderIterator headerIterator() {
+        return delegate.headerIterator();
+    }
+
+    @Override
+    public HeaderIterator headerIterator(String name) {
+        return delegate.headerIterator(name);
+    }
+
+    @Override
+    public HttpParams getParams() {
+        return delegate.getParams();
+    }
+
+    @Override
+    public void setParams(HttpParams params) {
+        delegate.setParams(params);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    private final class CountingEntity extends HttpEntityWrapper {
+
+        CountingEntity(HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new CountingInputStream(wrappedEntity.getContent());
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try {
+                wrappedEntity.writeTo(new CountingOutputStream(outStream));
+            } catch (IOException | RuntimeException e) {
+                Tags.ERROR.set(span, Boolean.TRUE);
+                throw e;
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void consumeContent() throws IOException {
+            try {
+                wrappedEntity.consumeContent();
+            } finally {
+                finish();
+            }
+        }
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = in.read();
+            } catch (IOException e) {
+                onError();
+                throw e;
+            }
+            if (b == -1) {
+                finish();
+            } else {
+                responseBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = in.read(b, off, len);
+            } catch (IOException e) {
+                onError();
+                throw e;
+            }
+            if (n == -1) {
+                finish();
+            } else {
+                responseBytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            responseBytes += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                finish();
+            }
+        }
+
+        private void onError() {
+            Tags.ERROR.set(span, Boolean.TRUE);
+            finish();
+        }
+    }
+
+    /**
+     * Counts bytes written by {@link HttpEntity#writeTo(OutputStream)}, writes are not buffered.
+     */
+    private final class CountingOutputStream extends FilterOutputStream {
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            responseBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            responseBytes += len;
+        }
+    }
+}
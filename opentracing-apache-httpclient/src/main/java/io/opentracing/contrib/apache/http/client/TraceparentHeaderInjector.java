@@ -0,0 +1,207 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.HttpRequest;
+
+/**
+ * Injector of a single W3C {@code traceparent} header built from {@link SpanContext#toTraceId()} and
+ * {@link SpanContext#toSpanId()}. Ids have to be hexadecimal, shorter ids are padded with zeros, contexts with
+ * other ids are injected by the tracer.
+ *
+ * <p>OpenTracing does not expose the sampling decision of a span context, it is given by a {@link SampledFlag}.
+ * Without one, see {@link ApacheClientHeaderInjector#TRACEPARENT}, the decision is read from the headers the tracer
+ * injects: {@code traceparent}, {@code uber-trace-id}, {@code b3}, {@code X-B3-Sampled}, {@code X-B3-Flags} or
+ * {@code ot-tracer-sampled}. When none of them carries the decision, the headers of the tracer are injected instead.
+ */
+public final class TraceparentHeaderInjector implements ApacheClientHeaderInjector {
+    private static final String HEADER = "traceparent";
+    private static final int TRACE_ID_LENGTH = 32;
+    private static final int SPAN_ID_LENGTH = 16;
+
+    /**
+     * Sampling decision of span contexts. Implementations have to be thread safe.
+     */
+    public interface SampledFlag {
+        /**
+         * @param spanContext injected span context
+         * @return true if the trace of the context is sampled
+         */
+        boolean isSampled(SpanContext spanContext);
+    }
+
+    /**
+     * Marks all injected contexts as sampled, e.g. when the tracer samples all spans created by the client.
+     */
+    public static final SampledFlag ALWAYS_SAMPLED = new SampledFlag() {
+        @Override
+        public boolean isSampled(SpanContext spanContext) {
+            return true;
+        }
+    };
+
+    private final SampledFlag sampledFlag;
+
+    /**
+     * Reads the sampling decision from the headers the tracer injects.
+     */
+    TraceparentHeaderInjector() {
+        this.sampledFlag = null;
+    }
+
+    /**
+     * @param sampledFlag sampling decision of injected contexts
+     */
+    public TraceparentHeaderInjector(SampledFlag sampledFlag) {
+        if (sampledFlag == null) {
+            throw new IllegalArgumentException("Sampled flag is null");
+        }
+        this.sampledFlag = sampledFlag;
+    }
+
+    @Override
+    public void inject(Tracer tracer, SpanContext spanContext, HttpRequest request) {
+        String traceId = spanContext.toTraceId();
+        String spanId = spanContext.toSpanId();
+        if (!isValidId(traceId, TRACE_ID_LENGTH) || !isValidId(spanId, SPAN_ID_LENGTH)) {
+            TRACER.inject(tracer, spanContext, request);
+            return;
+        }
+
+        boolean sampled;
+        if (sampledFlag != null) {
+            sampled = sampledFlag.isSampled(spanContext);
+        } else {
+            TracerHeaders tracerHeaders = new TracerHeaders();
+            tracer.inject(spanContext, Format.Builtin.HTTP_HEADERS, tracerHeaders);
+            Boolean tracerSampled = tracerHeaders.sampled();
+            if (tracerSampled == null) {
+                tracerHeaders.injectInto(request);
+                return;
+            }
+            sampled = tracerSampled;
+        }
+
+        char[] value = new char[3 + TRACE_ID_LENGTH + 1 + SPAN_ID_LENGTH + 3];
+        int pos = 0;
+        value[pos++] = '0';
+        value[pos++] = '0';
+        value[pos++] = '-';
+        pos = appendPadded(value, pos, traceId, TRACE_ID_LENGTH);
+        value[pos++] = '-';
+        pos = appendPadded(value, pos, spanId, SPAN_ID_LENGTH);
+        value[pos++] = '-';
+        value[pos++] = '0';
+        value[pos] = sampled ? '1' : '0';
+        new HttpHeadersInjectAdapter(request).put(HEADER, new String(value));
+    }
+
+    private static boolean isValidId(String id, int maxLength) {
+        if (id == null || id.isEmpty() || id.length() > maxLength) {
+            return false;
+        }
+        boolean nonZero = false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+            nonZero |= c != '0';
+        }
+        return nonZero;
+    }
+
+    private static int appendPadded(char[] value, int pos, String id, int length) {
+        for (int i = id.length(); i < length; i++) {
+            value[pos++] = '0';
+        }
+        id.getChars(0, id.length(), value, pos);
+        return pos + id.length();
+    }
+
+    /**
+     * Headers injected by the tracer, tracers inject only a few of them.
+     */
+    private static final class TracerHeaders implements TextMap {
+        private final List<String> keys = new ArrayList<>(4);
+        private final List<String> values = new ArrayList<>(4);
+
+        @Override
+        public void put(String key, String value) {
+            keys.add(key);
+            values.add(value);
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            throw new UnsupportedOperationException("This class should be used only with tracer#inject()");
+        }
+
+        void injectInto(HttpRequest request) {
+            HttpHeadersInjectAdapter adapter = new HttpHeadersInjectAdapter(request);
+            for (int i = 0; i < keys.size(); i++) {
+                adapter.put(keys.get(i), values.get(i));
+            }
+        }
+
+        /**
+         * @return sampling decision carried by the headers, null if there is none
+         */
+        Boolean sampled() {
+            for (int i = 0; i < keys.size(); i++) {
+                Boolean sampled = sampled(keys.get(i), values.get(i));
+                if (sampled != null) {
+                    return sampled;
+                }
+            }
+            return null;
+        }
+
+        private static Boolean sampled(String key, String value) {
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            if ("traceparent".equalsIgnoreCase(key)) {
+                return flags(value.substring(value.lastIndexOf('-') + 1));
+            } else if ("uber-trace-id".equalsIgnoreCase(key)) {
+                return flags(value.substring(value.lastIndexOf(':') + 1));
+            } else if ("b3".equalsIgnoreCase(key)) {
+                // {trace}-{span}-{sampling}-{parent} or only {sampling}
+                String[] parts = value.split("-");
+                if (parts.length == 1 || parts.length >= 3) {
+                    return samplingState(parts.length == 1 ? parts[0] : parts[2]);
+                }
+            } else if ("X-B3-Sampled".equalsIgnoreCase(key) || "ot-tracer-sampled".equalsIgnoreCase(key)) {
+                return samplingState(value);
+            } else if ("X-B3-Flags".equalsIgnoreCase(key) && "1".equals(value)) {
+                // debug implies sampled
+                return Boolean.TRUE;
+            }
+            return null;
+        }
+
+        private static Boolean samplingState(String value) {
+            if ("1".equals(value) || "d".equals(value) || "true".equalsIgnoreCase(value)) {
+                return Boolean.TRUE;
+            }
+            if ("0".equals(value) || "false".equalsIgnoreCase(value)) {
+                return Boolean.FALSE;
+            }
+            return null;
+        }
+
+        private static Boolean flags(String hex) {
+            try {
+                return (Integer.parseInt(hex, 16) & 1) == 1;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.client.RedirectStrategy;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Builder of traced clients with {@code httpclient-cache}. Cache lookups happen within client spans, which
+ * are tagged with the lookup outcome, see {@link CacheTracingClientExec}. The cache backend is configured
+ * via {@link #setHttpCacheStorage(org.apache.http.client.cache.HttpCacheStorage)}, e.g. the bounded in-memory
+ * {@link org.apache.http.impl.client.cache.BasicHttpCacheStorage} or {@link MappedFileHttpCacheStorage}.
+ */
+public class TracingCachingHttpClientBuilder extends CachingHttpClientBuilder {
+
+    private final RedirectStrategy redirectStrategy;
+    private final boolean redirectHandlingDisabled;
+    private Tracer tracer;
+    private List<ApacheClientSpanDecorator> spanDecorators;
+    private boolean injectDisabled;
+    private boolean collapseLocalSpan;
+    private ApacheClientHeaderInjector headerInjector;
+
+    /**
+     * When using this constructor tracer should be registered via
+     * {@link GlobalTracer#register(Tracer)}.
+     */
+    public TracingCachingHttpClientBuilder() {
+        this(DefaultRedirectStrategy.INSTANCE,
+            false,
+            GlobalTracer.get(),
+            Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()));
+    }
+
+    /**
+     * @param redirectStrategy redirect strategy, do not call
+     * {@link HttpClientBuilder#disableRedirectHandling()}
+     * @param redirectHandlingDisabled disable redirect strategy, do not call
+     * {@link HttpClientBuilder#setRedirectStrategy(RedirectStrategy)}
+     * @param tracer tracer instance
+     * @param spanDecorators decorators
+     */
+    public TracingCachingHttpClientBuilder(
+        RedirectStrategy redirectStrategy,
+        boolean redirectHandlingDisabled,
+        Tracer tracer,
+        List<ApacheClientSpanDecorator> spanDecorators) {
+        this.redirectStrategy = redirectStrategy;
+        this.redirectHandlingDisabled = redirectHandlingDisabled;
+        this.tracer = tracer;
+        this.spanDecorators = new ArrayList<>(spanDecorators);
+
+        super.setRedirectStrategy(redirectStrategy);
+        if (redirectHandlingDisabled) {
+            super.disableRedirectHandling();
+        }
+    }
+
+    public static TracingCachingHttpClientBuilder create() {
+        return new TracingCachingHttpClientBuilder();
+    }
+
+    public TracingCachingHttpClientBuilder withTracer(Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    public TracingCachingHttpClientBuilder withSpanDecorators(List<ApacheClientSpanDecorator> decorators) {
+        this.spanDecorators = new ArrayList<>(decorators);
+        return this;
+    }
+
+    public TracingCachingHttpClientBuilder disableInjection() {
+        this.injectDisabled = true;
+        return this;
+    }
+
+    /**
+     * @param headerInjector injector of client span contexts e.g. {@link ApacheClientHeaderInjector#TRACEPARENT},
+     * by default contexts are injected via the tracer
+     */
+    public TracingCachingHttpClientBuilder withHeaderInjector(ApacheClientHeaderInjector headerInjector) {
+        this.headerInjector = headerInjector;
+        return this;
+    }
+
+    /**
+     * @see TracingHttpClientBuilder#collapseLocalSpan()
+     */
+    public TracingCachingHttpClientBuilder collapseLocalSpan() {
+        this.collapseLocalSpan = true;
+        return this;
+    }
+
+    @Override
+    protected ClientExecChain decorateMainExec(ClientExecChain mainExec) {
+        return new CacheTracingClientExec(super.decorateMainExec(mainExec), tracer);
+    }
+
+    @Override
+    protected ClientExecChain decorateProtocolExec(ClientExecChain requestExecutor) {
+        TracingClientExec.Settings settings = new TracingClientExec.Settings();
+        settings.collapseLocalSpan = collapseLocalSpan;
+        settings.headerInjector = headerInjector;
+        return new TracingClientExec(requestExecutor, redirectStrategy,
+                redirectHandlingDisabled, injectDisabled, tracer, spanDecorators, settings);
+    }
+}
@@ -1,5 +1,6 @@
 package io.opentracing.contrib.apache.http.client;
 
+import static io.opentracing.contrib.apache.http.client.Constants.NOT_TRACED;
 import static io.opentracing.contrib.apache.http.client.Constants.PARENT_CONTEXT;
 
 import io.opentracing.References;
@@ -7,9 +8,12 @@ import io.opentracing.Scope;
 import io.opentracing.Span;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.apache.http.Header;
 import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.client.RedirectStrategy;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -18,10 +22,10 @@ import org.apache.http.client.methods.HttpRequestWrapper;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.protocol.HttpContext;
 
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
-import io.opentracing.propagation.Format;
 import io.opentracing.tag.Tags;
 
 /**
@@ -45,6 +49,48 @@ public class TracingClientExec implements ClientExecChain {
    * to store number of redirects.
    */
   protected static final String REDIRECT_COUNT = TracingHttpClientBuilder.class.getName() + ".redirectCount";
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the sampling decision of
+   * the first request while redirects are followed.
+   */
+  protected static final String SAMPLED_PROP = TracingHttpClientBuilder.class.getName() + ".sampled";
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the client span of the first
+   * request while redirects are followed with collapsed local span. It is the parent of spans of
+   * the redirected requests.
+   */
+  protected static final String REDIRECT_PARENT_SPAN_PROP = TracingHttpClientBuilder.class.getName() + ".redirectParentSpan";
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the {@link TracingPolicy.Rule}
+   * matched by the first request while redirects are followed.
+   */
+  protected static final String POLICY_RULE_PROP = TracingHttpClientBuilder.class.getName() + ".policyRule";
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} marking that the local span stored under
+   * {@link #SPAN_PROP} is continued by the next execution, which is a redirect or a retry.
+   */
+  protected static final String LOCAL_SPAN_CONTINUED_PROP = TracingHttpClientBuilder.class.getName() + ".localSpanContinued";
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the {@link TracingGovernor.Level}
+   * chosen by the first request while redirects and retries are followed.
+   */
+  protected static final String GOVERNOR_LEVEL_PROP = TracingHttpClientBuilder.class.getName() + ".governorLevel";
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the measurement of instrumentation
+   * time of the current execution.
+   */
+  protected static final String GOVERNOR_MEASUREMENT_PROP = TracingHttpClientBuilder.class.getName() + ".governorMeasurement";
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the client span of the request
+   * while the rest of the chain executes. It is absent when the request has no client span, e.g. when it is
+   * not sampled or only propagated.
+   */
+  static final String CLIENT_SPAN_PROP = TracingHttpClientBuilder.class.getName() + ".clientSpan";
+  /**
+   * Client span of the request executed by the current thread, for callbacks without a context like
+   * connection leases and DNS lookups.
+   */
+  private static final ThreadLocal<Span> CURRENT_CLIENT_SPAN = new ThreadLocal<>();
 
   private final RedirectStrategy redirectStrategy;
   private final ClientExecChain requestExecutor;
@@ -53,6 +99,18 @@ public class TracingClientExec implements ClientExecChain {
 
   private final Tracer tracer;
   private final List<ApacheClientSpanDecorator> spanDecorators;
+  private final ApacheClientSampler sampler;
+  private final Header notSampledHeader;
+  private final boolean collapseLocalSpan;
+  private final boolean finishSpansOnResponseConsumed;
+  private final ApacheClientHeaderInjector headerInjector;
+  private final TracingPolicy policy;
+  private final RetryTracking retryTracking;
+  private final AsyncSpanDecorators asyncDecorators;
+  private final PayloadCapture payloadCapture;
+  private final TracingGovernor governor;
+  private final SpanTemplate.Cache spanTemplates;
+  private final SpanTemplate.Applier spanTemplateApplier;
 
   public TracingClientExec(
       ClientExecChain clientExecChain,
@@ -61,12 +119,90 @@ public class TracingClientExec implements ClientExecChain {
       boolean injectDisabled,
       Tracer tracer,
       List<ApacheClientSpanDecorator> spanDecorators) {
+    this(clientExecChain, redirectStrategy, redirectHandlingDisabled, injectDisabled, tracer, spanDecorators,
+        new Settings());
+  }
+
+  TracingClientExec(
+      ClientExecChain clientExecChain,
+      RedirectStrategy redirectStrategy,
+      boolean redirectHandlingDisabled,
+      boolean injectDisabled,
+      Tracer tracer,
+      List<ApacheClientSpanDecorator> spanDecorators,
+      Settings settings) {
     this.requestExecutor = clientExecChain;
     this.redirectStrategy = redirectStrategy;
     this.redirectHandlingDisabled = redirectHandlingDisabled;
     this.injectDisabled = injectDisabled;
     this.tracer = tracer;
     this.spanDecorators = new ArrayList<>(spanDecorators);
+    this.sampler = settings.sampler;
+    this.notSampledHeader = settings.notSampledHeader;
+    this.collapseLocalSpan = settings.collapseLocalSpan;
+    this.finishSpansOnResponseConsumed = settings.finishSpansOnResponseConsumed;
+    this.headerInjector = settings.headerInjector != null
+        ? settings.headerInjector : ApacheClientHeaderInjector.TRACER;
+    this.policy = settings.policy;
+    this.retryTracking = settings.retryTracking;
+    this.asyncDecorators = settings.asyncDecorators;
+    this.payloadCapture = settings.payloadCapture;
+    this.governor = settings.governor;
+    this.spanTemplateApplier = settings.spanTemplateApplier;
+    this.spanTemplates = spanTemplateApplier != null
+        ? new SpanTemplate.Cache(SpanTemplate.DEFAULT_MAX_CACHED_TEMPLATES) : null;
+  }
+
+  /**
+   * Optional features of the exec configured by builders, all of them are disabled by default.
+   */
+  static final class Settings {
+    /**
+     * Sampler deciding whether a request is traced, null to trace all requests.
+     */
+    ApacheClientSampler sampler;
+    /**
+     * Header added to requests which are not sampled, null to add nothing.
+     */
+    Header notSampledHeader;
+    /**
+     * Whether a request without redirects is represented by a single client span.
+     */
+    boolean collapseLocalSpan;
+    /**
+     * Whether spans are finished when the response entity is consumed instead of when the response head is
+     * received, see {@link StreamingResponse}.
+     */
+    boolean finishSpansOnResponseConsumed;
+    /**
+     * Injector of client span contexts, null to inject via the tracer.
+     */
+    ApacheClientHeaderInjector headerInjector;
+    /**
+     * Rules overriding sampling, injection and decorators for matching requests, null for none.
+     */
+    TracingPolicy policy;
+    /**
+     * Retry tracking installed on the client, null to represent each attempt by its own local span.
+     */
+    RetryTracking retryTracking;
+    /**
+     * Runner of decorators on background threads, null to run decorators on the request thread.
+     */
+    AsyncSpanDecorators asyncDecorators;
+    /**
+     * Capture of entities attached to client spans of failed exchanges, null to capture nothing.
+     */
+    PayloadCapture payloadCapture;
+    /**
+     * Governor shedding tracing work when instrumentation exceeds its budget, null to always trace fully.
+     */
+    TracingGovernor governor;
+    /**
+     * Applier of operation names and constant tags resolved once per target host and method, see
+     * {@link SpanTemplate}, null to set them on each span.
+     */
+    SpanTemplate.Applier spanTemplateApplier;
   }
 
   @Override
@@ -76,39 +212,450 @@ public class TracingClientExec implements ClientExecChain {
       HttpClientContext clientContext,
       HttpExecutionAware execAware) throws IOException, HttpException {
 
-    Span localSpan = handleLocalSpan(request, clientContext);
+    if (Boolean.TRUE.equals(clientContext.getAttribute(NOT_TRACED))) {
+      return requestExecutor.execute(route, request, clientContext, execAware);
+    }
+    TracingPolicy.Rule rule = policy != null ? matchPolicy(route, request, clientContext) : null;
+    if ((sampler != null || rule != null) && !isSampled(route, request, clientContext, rule)) {
+      return handleNotSampled(route, request, clientContext, execAware);
+    }
+    if (governor == null) {
+      return handleSampled(route, request, clientContext, execAware);
+    }
+
+    TracingGovernor.Measurement measurement = governor.startMeasurement();
+    clientContext.setAttribute(GOVERNOR_MEASUREMENT_PROP, measurement);
+    try {
+      if (governorLevel(clientContext) == TracingGovernor.Level.PROPAGATION_ONLY) {
+        return handlePropagationOnly(route, request, clientContext, execAware);
+      }
+      return handleSampled(route, request, clientContext, execAware);
+    } finally {
+      clientContext.removeAttribute(GOVERNOR_MEASUREMENT_PROP);
+      governor.stopMeasurement(measurement);
+    }
+  }
+
+  private CloseableHttpResponse handleSampled(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    if (collapseLocalSpan || (governor != null
+        && governorLevel(clientContext).compareTo(TracingGovernor.Level.NO_LOCAL_SPAN) >= 0)) {
+      return handleCollapsedLocalSpan(route, request, clientContext, execAware);
+    }
+
+    Span localSpan = continuedLocalSpan(clientContext);
+    if (localSpan == null) {
+      localSpan = handleLocalSpan(request, clientContext);
+    }
     CloseableHttpResponse response = null;
     try {
       return (response = handleNetworkProcessing(localSpan, route, request, clientContext, execAware));
     } catch (Exception e) {
-      localSpan.finish();
+      if (e instanceof IOException && isRetried((IOException) e, request, clientContext, execAware)) {
+        continueLocalSpan(clientContext);
+      } else {
+        clearRequestState(clientContext);
+        localSpan.finish();
+      }
       throw e;
     } finally {
       if (response != null) {
-        /**
-         * This exec runs after {@link org.apache.http.impl.execchain.RedirectExec} which loops
-         * until there is no redirect or reaches max redirect count.
-         * {@link RedirectStrategy} is used to decide whether localSpan should be finished or not.
-         * If there is a redirect localSpan is not finished and redirect is logged.
-         */
-        Integer redirectCount = clientContext.getAttribute(REDIRECT_COUNT, Integer.class);
-        if (!redirectHandlingDisabled &&
-            clientContext.getRequestConfig().isRedirectsEnabled() &&
-            redirectStrategy.isRedirected(request, response, clientContext) &&
-            ++redirectCount < clientContext.getRequestConfig().getMaxRedirects()) {
-
-          clientContext.setAttribute(REDIRECT_COUNT, redirectCount);
+        if (isRedirect(request, response, clientContext)) {
+          RetryTracking.clear(clientContext);
+          continueLocalSpan(clientContext);
+        } else if (isRetried(response, request, clientContext)) {
+          continueLocalSpan(clientContext);
         } else {
-          localSpan.finish();
+          clearRequestState(clientContext);
+          finishAfterResponse(localSpan, response);
         }
       }
     }
   }
 
+  /**
+   * Keeps the sampling decision for the next execution and marks the local span as continued.
+   */
+  private void continueLocalSpan(HttpClientContext clientContext) {
+    if (sampler != null || policy != null) {
+      clientContext.setAttribute(SAMPLED_PROP, Boolean.TRUE);
+    }
+    clientContext.setAttribute(LOCAL_SPAN_CONTINUED_PROP, Boolean.TRUE);
+  }
+
+  /**
+   * @return local span of the previous execution if this execution is its redirect or retry, null otherwise
+   */
+  private static Span continuedLocalSpan(HttpClientContext clientContext) {
+    if (clientContext.getAttribute(LOCAL_SPAN_CONTINUED_PROP) == null) {
+      return null;
+    }
+    clientContext.removeAttribute(LOCAL_SPAN_CONTINUED_PROP);
+    return clientContext.getAttribute(SPAN_PROP, Span.class);
+  }
+
+  /**
+   * {@link org.apache.http.impl.execchain.RetryExec} and
+   * {@link org.apache.http.impl.execchain.ServiceUnavailableRetryExec} run before this exec, the retry
+   * decision is made here and reused by them, see {@link RetryTracking}.
+   */
+  private boolean isRetried(IOException ex, HttpRequestWrapper request, HttpClientContext clientContext,
+      HttpExecutionAware execAware) {
+    return retryTracking != null && retryTracking.isRetried(ex, request, clientContext, execAware);
+  }
+
+  private boolean isRetried(CloseableHttpResponse response, HttpRequestWrapper request,
+      HttpClientContext clientContext) {
+    return retryTracking != null && retryTracking.isRetried(response, request, clientContext);
+  }
+
+  /**
+   * This exec runs after {@link org.apache.http.impl.execchain.RedirectExec} which loops
+   * until there is no redirect or reaches max redirect count.
+   * {@link RedirectStrategy} is used to decide whether localSpan should be finished or not.
+   * If there is a redirect localSpan is not finished and redirect is logged.
+   */
+  private boolean isRedirect(HttpRequestWrapper request, CloseableHttpResponse response,
+      HttpClientContext clientContext) throws HttpException {
+    Integer redirectCount = clientContext.getAttribute(REDIRECT_COUNT, Integer.class);
+    if (redirectCount == null) {
+      redirectCount = 0;
+    }
+    if (!redirectHandlingDisabled &&
+        clientContext.getRequestConfig().isRedirectsEnabled() &&
+        redirectStrategy.isRedirected(request, response, clientContext) &&
+        ++redirectCount < clientContext.getRequestConfig().getMaxRedirects()) {
+
+      clientContext.setAttribute(REDIRECT_COUNT, redirectCount);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sampling decision is made for the first request and reused for its redirects. Sampler of
+   * the matched policy rule takes precedence.
+   */
+  private boolean isSampled(HttpRoute route, HttpRequestWrapper request, HttpClientContext clientContext,
+      TracingPolicy.Rule rule) {
+    Boolean sampled = clientContext.getAttribute(SAMPLED_PROP, Boolean.class);
+    if (sampled != null) {
+      return sampled;
+    }
+    ApacheClientSampler requestSampler = rule != null && rule.getSampler() != null ? rule.getSampler() : sampler;
+    return requestSampler == null || requestSampler.isSampled(route, request, clientContext);
+  }
+
+  /**
+   * Policy is matched by the first request, redirects reuse its rule.
+   */
+  private TracingPolicy.Rule matchPolicy(HttpRoute route, HttpRequestWrapper request,
+      HttpClientContext clientContext) {
+    TracingPolicy.Rule rule = clientContext.getAttribute(POLICY_RULE_PROP, TracingPolicy.Rule.class);
+    if (rule == null && clientContext.getAttribute(SAMPLED_PROP) == null) {
+      rule = policy.match(route, request);
+      if (rule != null) {
+        clientContext.setAttribute(POLICY_RULE_PROP, rule);
+      }
+    }
+    return rule;
+  }
+
+  /**
+   * Level is chosen by the first request, redirects and retries reuse it.
+   */
+  private TracingGovernor.Level governorLevel(HttpClientContext clientContext) {
+    TracingGovernor.Level level = clientContext.getAttribute(GOVERNOR_LEVEL_PROP, TracingGovernor.Level.class);
+    if (level == null) {
+      level = governor.getLevel();
+      clientContext.setAttribute(GOVERNOR_LEVEL_PROP, level);
+    }
+    return level;
+  }
+
+  private void clearRequestState(HttpClientContext clientContext) {
+    clientContext.removeAttribute(SAMPLED_PROP);
+    clientContext.removeAttribute(LOCAL_SPAN_CONTINUED_PROP);
+    if (policy != null) {
+      clientContext.removeAttribute(POLICY_RULE_PROP);
+    }
+    if (governor != null) {
+      clientContext.removeAttribute(GOVERNOR_LEVEL_PROP);
+    }
+    if (retryTracking != null) {
+      RetryTracking.clear(clientContext);
+    }
+  }
+
+  private boolean isInjectDisabled(HttpClientContext clientContext) {
+    if (injectDisabled) {
+      return true;
+    }
+    if (policy == null) {
+      return false;
+    }
+    TracingPolicy.Rule rule = clientContext.getAttribute(POLICY_RULE_PROP, TracingPolicy.Rule.class);
+    return rule != null && rule.isInjectionDisabled();
+  }
+
+  private List<ApacheClientSpanDecorator> spanDecorators(HttpClientContext clientContext) {
+    if (governor != null
+        && governorLevel(clientContext).compareTo(TracingGovernor.Level.NO_DECORATORS) >= 0) {
+      return Collections.emptyList();
+    }
+    if (policy == null) {
+      return spanDecorators;
+    }
+    TracingPolicy.Rule rule = clientContext.getAttribute(POLICY_RULE_PROP, TracingPolicy.Rule.class);
+    return rule != null && rule.getSpanDecorators() != null ? rule.getSpanDecorators() : spanDecorators;
+  }
+
+  /**
+   * Passes the request to the next exec without creating spans or invoking decorators.
+   */
+  protected CloseableHttpResponse handleNotSampled(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    if (notSampledHeader != null && !isInjectDisabled(clientContext)) {
+      request.setHeader(notSampledHeader);
+    }
+
+    CloseableHttpResponse response;
+    try {
+      response = requestExecutor.execute(route, request, clientContext, execAware);
+    } catch (IOException e) {
+      if (isRetried(e, request, clientContext, execAware)) {
+        clientContext.setAttribute(SAMPLED_PROP, Boolean.FALSE);
+      } else {
+        clearRequestState(clientContext);
+        clientContext.removeAttribute(REDIRECT_COUNT);
+      }
+      throw e;
+    } catch (HttpException | RuntimeException e) {
+      clearRequestState(clientContext);
+      clientContext.removeAttribute(REDIRECT_COUNT);
+      throw e;
+    }
+    if (isRedirect(request, response, clientContext)) {
+      RetryTracking.clear(clientContext);
+      clientContext.setAttribute(SAMPLED_PROP, Boolean.FALSE);
+    } else if (isRetried(response, request, clientContext)) {
+      clientContext.setAttribute(SAMPLED_PROP, Boolean.FALSE);
+    } else {
+      clearRequestState(clientContext);
+      clientContext.removeAttribute(REDIRECT_COUNT);
+    }
+    return response;
+  }
+
+  /**
+   * Injects the parent span context and passes the request to the next exec without creating spans.
+   * The parent is the context passed via {@link Constants#PARENT_CONTEXT} or the active span.
+   */
+  private CloseableHttpResponse handlePropagationOnly(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    SpanContext parentContext = clientContext.getAttribute(PARENT_CONTEXT, SpanContext.class);
+    if (parentContext == null && tracer.activeSpan() != null) {
+      parentContext = tracer.activeSpan().context();
+    }
+    if (parentContext != null && !isInjectDisabled(clientContext)) {
+      headerInjector.inject(tracer, parentContext, request);
+    }
+
+    CloseableHttpResponse response;
+    try {
+      response = executeDownstream(route, request, clientContext, execAware);
+    } catch (IOException e) {
+      if (isRetried(e, request, clientContext, execAware)) {
+        keepSamplingDecision(clientContext);
+      } else {
+        clearRequestState(clientContext);
+        clientContext.removeAttribute(REDIRECT_COUNT);
+      }
+      throw e;
+    } catch (HttpException | RuntimeException e) {
+      clearRequestState(clientContext);
+      clientContext.removeAttribute(REDIRECT_COUNT);
+      throw e;
+    }
+    if (isRedirect(request, response, clientContext)) {
+      RetryTracking.clear(clientContext);
+      keepSamplingDecision(clientContext);
+    } else if (isRetried(response, request, clientContext)) {
+      keepSamplingDecision(clientContext);
+    } else {
+      clearRequestState(clientContext);
+      clientContext.removeAttribute(REDIRECT_COUNT);
+    }
+    return response;
+  }
+
+  private void keepSamplingDecision(HttpClientContext clientContext) {
+    if (sampler != null || policy != null) {
+      clientContext.setAttribute(SAMPLED_PROP, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * A request without redirects is represented by a single client span. The span hierarchy is created
+   * only when a redirect or a retry is followed: the client span of the first request becomes the parent
+   * of spans of the redirected or retried requests and it is finished together with the last one.
+   */
+  protected CloseableHttpResponse handleCollapsedLocalSpan(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    Span parentSpan = clientContext.getAttribute(REDIRECT_PARENT_SPAN_PROP, Span.class);
+    Span span;
+    if (parentSpan == null) {
+      span = decorated(startLocalSpan(collapsedSpanBuilder(route, request, clientContext), clientContext),
+          clientContext);
+      parentSpan = span;
+    } else {
+      span = decorated(clientSpanBuilder(route, request, clientContext)
+          .asChildOf(parentSpan)
+          .start(), clientContext);
+    }
+
+    if (retryTracking != null) {
+      retryTracking.onAttempt(span, parentSpan, clientContext);
+    }
+    CloseableHttpResponse response;
+    try {
+      response = handleNetworkProcessingOnSpan(span, route, request, clientContext, execAware);
+    } catch (IOException e) {
+      if (isRetried(e, request, clientContext, execAware)) {
+        continueCollapsedLocalSpan(span, parentSpan, clientContext);
+      } else {
+        finishCollapsedLocalSpan(span, parentSpan, clientContext, null);
+      }
+      throw e;
+    } catch (HttpException | RuntimeException e) {
+      finishCollapsedLocalSpan(span, parentSpan, clientContext, null);
+      throw e;
+    }
+
+    if (isRedirect(request, response, clientContext)) {
+      RetryTracking.clear(clientContext);
+      continueCollapsedLocalSpan(span, parentSpan, clientContext);
+    } else if (isRetried(response, request, clientContext)) {
+      continueCollapsedLocalSpan(span, parentSpan, clientContext);
+    } else {
+      if (finishSpansOnResponseConsumed) {
+        response = StreamingResponse.wrap(response, request, span);
+      }
+      finishCollapsedLocalSpan(span, parentSpan, clientContext, response);
+    }
+    return response;
+  }
+
+  private void continueCollapsedLocalSpan(Span span, Span parentSpan, HttpClientContext clientContext) {
+    if (span != parentSpan) {
+      span.finish();
+    }
+    clientContext.setAttribute(REDIRECT_PARENT_SPAN_PROP, parentSpan);
+    if (sampler != null || policy != null) {
+      clientContext.setAttribute(SAMPLED_PROP, Boolean.TRUE);
+    }
+  }
+
+  private void finishCollapsedLocalSpan(Span span, Span parentSpan, HttpClientContext clientContext,
+      CloseableHttpResponse response) {
+    clientContext.removeAttribute(REDIRECT_PARENT_SPAN_PROP);
+    clearRequestState(clientContext);
+    if (response instanceof StreamingResponse) {
+      // the client span is finished by the response
+      if (span != parentSpan) {
+        ((StreamingResponse) response).finishAfterResponse(parentSpan);
+      }
+      return;
+    }
+    if (span != parentSpan) {
+      span.finish();
+    }
+    parentSpan.finish();
+  }
+
+  /**
+   * Finishes the span right away or, when the response is streamed, after its client span.
+   */
+  private static void finishAfterResponse(Span span, CloseableHttpResponse response) {
+    if (response instanceof StreamingResponse) {
+      ((StreamingResponse) response).finishAfterResponse(span);
+    } else {
+      span.finish();
+    }
+  }
+
   protected Span handleLocalSpan(HttpRequest httpRequest, HttpClientContext clientContext) {
-    Tracer.SpanBuilder spanBuilder = tracer.buildSpan(httpRequest.getRequestLine().getMethod())
-        .withTag(Tags.COMPONENT.getKey(), COMPONENT_NAME);
+    return startLocalSpan(localSpanBuilder(httpRequest, clientContext), clientContext);
+  }
+
+  private Tracer.SpanBuilder localSpanBuilder(HttpRequest httpRequest, HttpClientContext clientContext) {
+    Tracer.SpanBuilder spanBuilder;
+    if (spanTemplates != null) {
+      SpanTemplate template = spanTemplates.get(null, httpRequest.getRequestLine().getMethod());
+      spanBuilder = spanTemplateApplier.apply(tracer.buildSpan(template.getOperationName()),
+          template.getLocalSpanTags());
+    } else {
+      spanBuilder = tracer.buildSpan(httpRequest.getRequestLine().getMethod())
+          .withTag(Tags.COMPONENT.getKey(), COMPONENT_NAME);
+    }
+    return withLocalSpanParent(spanBuilder, clientContext);
+  }
+
+  /**
+   * Builder of a client span which is also the local span.
+   */
+  private Tracer.SpanBuilder collapsedSpanBuilder(HttpRoute route, HttpRequestWrapper request,
+      HttpClientContext clientContext) {
+    if (spanTemplates == null) {
+      return localSpanBuilder(request, clientContext)
+          .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT);
+    }
+    SpanTemplate template = spanTemplates.get(templateTarget(route, clientContext), request.getMethod());
+    Tracer.SpanBuilder spanBuilder = spanTemplateApplier.apply(tracer.buildSpan(template.getOperationName()),
+        template.getLocalSpanTags());
+    return withLocalSpanParent(spanTemplateApplier.apply(spanBuilder, template.getClientSpanTags()), clientContext);
+  }
+
+  private Tracer.SpanBuilder clientSpanBuilder(HttpRoute route, HttpRequestWrapper request,
+      HttpClientContext clientContext) {
+    if (spanTemplates == null) {
+      return tracer.buildSpan(request.getMethod())
+          .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT);
+    }
+    SpanTemplate template = spanTemplates.get(templateTarget(route, clientContext), request.getMethod());
+    return spanTemplateApplier.apply(tracer.buildSpan(template.getOperationName()), template.getClientSpanTags());
+  }
+
+  /**
+   * @return target host of the span template, null for a template without peer tags when the decorators
+   * of the request include {@link ApacheClientSpanDecorator.StandardTags}, which sets them itself
+   */
+  private HttpHost templateTarget(HttpRoute route, HttpClientContext clientContext) {
+    for (ApacheClientSpanDecorator decorator : spanDecorators(clientContext)) {
+      if (decorator instanceof ApacheClientSpanDecorator.StandardTags) {
+        return null;
+      }
+    }
+    return route.getTargetHost();
+  }
 
+  private Tracer.SpanBuilder withLocalSpanParent(Tracer.SpanBuilder spanBuilder, HttpClientContext clientContext) {
     if (clientContext.getAttribute(PARENT_CONTEXT, SpanContext.class) != null) {
       spanBuilder.ignoreActiveSpan()
               .asChildOf(clientContext.getAttribute(PARENT_CONTEXT, SpanContext.class));
@@ -119,7 +666,10 @@ public class TracingClientExec implements ClientExecChain {
             References.FOLLOWS_FROM,
             previousLocalSpan == null ? null : previousLocalSpan.context()
     );
+    return spanBuilder;
+  }
 
+  private Span startLocalSpan(Tracer.SpanBuilder spanBuilder, HttpClientContext clientContext) {
     Span localSpan = spanBuilder.start();
     clientContext.setAttribute(SPAN_PROP, localSpan);
     clientContext.setAttribute(REDIRECT_COUNT, 0);
@@ -133,19 +683,93 @@ public class TracingClientExec implements ClientExecChain {
       HttpClientContext clientContext,
       HttpExecutionAware execAware) throws IOException, HttpException {
 
-    Span redirectSpan = tracer.buildSpan(request.getMethod())
-        .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+    Span redirectSpan = decorated(clientSpanBuilder(route, request, clientContext)
         .asChildOf(parentSpan)
-        .start();
-    if(!injectDisabled) {
-      tracer.inject(redirectSpan.context(), Format.Builtin.HTTP_HEADERS, new HttpHeadersInjectAdapter(request));
+        .start(), clientContext);
+    if (retryTracking != null) {
+      retryTracking.onAttempt(redirectSpan, parentSpan, clientContext);
     }
+    CloseableHttpResponse response = null;
+    try {
+      response = handleNetworkProcessingOnSpan(redirectSpan, route, request, clientContext, execAware);
+      if (finishSpansOnResponseConsumed) {
+        response = StreamingResponse.wrap(response, request, redirectSpan);
+      }
+      return response;
+    } finally {
+      if (!(response instanceof StreamingResponse)) {
+        redirectSpan.finish();
+      }
+    }
+  }
 
+  /**
+   * Injects the span, invokes decorators and executes the request. The span is not finished.
+   */
+  private CloseableHttpResponse handleNetworkProcessingOnSpan(
+      Span redirectSpan,
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    if(!isInjectDisabled(clientContext)) {
+      headerInjector.inject(tracer, redirectSpan.context(), request);
+    }
+
+    clientContext.setAttribute(CLIENT_SPAN_PROP, redirectSpan);
+    Span previousClientSpan = CURRENT_CLIENT_SPAN.get();
+    CURRENT_CLIENT_SPAN.set(redirectSpan);
+    try {
+      return handleDecorators(redirectSpan, route, request, clientContext, execAware);
+    } finally {
+      if (previousClientSpan == null) {
+        CURRENT_CLIENT_SPAN.remove();
+      } else {
+        CURRENT_CLIENT_SPAN.set(previousClientSpan);
+      }
+      clientContext.removeAttribute(CLIENT_SPAN_PROP);
+    }
+  }
+
+  /**
+   * @param context context of the request
+   * @return client span of the request while the rest of the chain executes, null if the request has
+   * no client span
+   */
+  static Span clientSpan(HttpContext context) {
+    Object span = context != null ? context.getAttribute(CLIENT_SPAN_PROP) : null;
+    return span instanceof Span ? (Span) span : null;
+  }
+
+  /**
+   * @return client span of the request executed by the current thread, null if the request has no
+   * client span
+   */
+  static Span currentClientSpan() {
+    return CURRENT_CLIENT_SPAN.get();
+  }
+
+  /**
+   * Invokes decorators and executes the request.
+   */
+  private CloseableHttpResponse handleDecorators(
+      Span redirectSpan,
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    if (redirectSpan instanceof AsyncSpanDecorators.DecoratedSpan) {
+      return handleNetworkProcessingOnDecoratedSpan((AsyncSpanDecorators.DecoratedSpan) redirectSpan, route,
+          request, clientContext, execAware);
+    }
+    List<ApacheClientSpanDecorator> spanDecorators = spanDecorators(clientContext);
     try (Scope redirectScope = tracer.activateSpan(redirectSpan)){
       for (ApacheClientSpanDecorator decorator : spanDecorators) {
         decorator.onRequest(request, clientContext, redirectSpan);
       }
-      CloseableHttpResponse response = requestExecutor.execute(route, request, clientContext, execAware);
+      CloseableHttpResponse response = executeRequest(redirectSpan, route, request, clientContext, execAware);
       for (ApacheClientSpanDecorator decorator : spanDecorators) {
         decorator.onResponse(response, clientContext, redirectSpan);
       }
@@ -155,9 +779,84 @@ public class TracingClientExec implements ClientExecChain {
         decorator.onError(request, clientContext, e, redirectSpan);
       }
       throw e;
+    }
+  }
+
+  /**
+   * Captures snapshots for decorators which run when the span is finished.
+   */
+  private CloseableHttpResponse handleNetworkProcessingOnDecoratedSpan(
+      AsyncSpanDecorators.DecoratedSpan redirectSpan,
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    redirectSpan.onRequest(request, clientContext);
+    try {
+      CloseableHttpResponse response;
+      Scope redirectScope = tracer.activateSpan(redirectSpan);
+      try {
+        response = executeRequest(redirectSpan, route, request, clientContext, execAware);
+      } finally {
+        redirectScope.close();
+      }
+      redirectSpan.onResponse(response);
+      return response;
+    } catch (IOException | HttpException | RuntimeException e) {
+      redirectSpan.onError(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Executes the request, entities are captured on the span when payload capture is enabled.
+   */
+  private CloseableHttpResponse executeRequest(
+      Span span,
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    if (payloadCapture == null) {
+      return executeDownstream(route, request, clientContext, execAware);
+    }
+    PayloadCapture.RequestCapture capture = payloadCapture.captureRequest(request);
+    CloseableHttpResponse response;
+    try {
+      response = executeDownstream(route, request, clientContext, execAware);
+    } catch (IOException | HttpException | RuntimeException e) {
+      payloadCapture.onError(capture, span);
+      throw e;
+    }
+    payloadCapture.onResponse(capture, request, response, span);
+    return response;
+  }
+
+  /**
+   * Executes the rest of the chain, its duration is excluded from the measured instrumentation time.
+   */
+  private CloseableHttpResponse executeDownstream(
+      HttpRoute route,
+      HttpRequestWrapper request,
+      HttpClientContext clientContext,
+      HttpExecutionAware execAware) throws IOException, HttpException {
+
+    TracingGovernor.Measurement measurement = governor != null
+        ? clientContext.getAttribute(GOVERNOR_MEASUREMENT_PROP, TracingGovernor.Measurement.class) : null;
+    if (measurement == null) {
+      return requestExecutor.execute(route, request, clientContext, execAware);
+    }
+    long start = System.nanoTime();
+    try {
+      return requestExecutor.execute(route, request, clientContext, execAware);
     } finally {
-      redirectSpan.finish();
+      measurement.addDownstream(System.nanoTime() - start);
     }
   }
 
+  private Span decorated(Span span, HttpClientContext clientContext) {
+    return asyncDecorators != null ? asyncDecorators.wrap(span, spanDecorators(clientContext)) : span;
+  }
 }
@@ -0,0 +1,187 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executor service which runs tasks with the span that was active when they were submitted, so that
+ * requests executed by traced clients in the tasks are children of the submitting span. It can wrap any
+ * executor, including virtual thread executors. Spans are activated only for the duration of a task,
+ * scopes are closed before the thread is returned to the executor.
+ *
+ * <p>Tasks submitted to other executors can be wrapped by {@link #wrap(Callable, Tracer)} and
+ * {@link #wrap(Runnable, Tracer)}.
+ *
+ * <p>Unlike {@code TracedExecutorService} of {@code opentracing-concurrent}, no span is started for submitted
+ * tasks, the captured span is only activated.
+ */
+public class TracingExecutorService implements ExecutorService {
+
+    private final ExecutorService delegate;
+    private final Tracer tracer;
+
+    public TracingExecutorService(ExecutorService delegate, Tracer tracer) {
+        this.delegate = delegate;
+        this.tracer = tracer;
+    }
+
+    /**
+     * Captures the active span of the calling thread.
+     *
+     * @param callable task
+     * @param tracer tracer instance
+     * @return task running with the captured span active
+     */
+    public static <T> Callable<T> wrap(Callable<T> callable, Tracer tracer) {
+        return new TracingCallable<>(callable, tracer, tracer.activeSpan());
+    }
+
+    /**
+     * Captures the active span of the calling thread.
+     *
+     * @param runnable task
+     * @param tracer tracer instance
+     * @return task running with the captured span active
+     */
+    public static Runnable wrap(Runnable runnable, Tracer tracer) {
+        return new TracingRunnable(runnable, tracer, tracer.activeSpan());
+    }
+
+    private <T> List<Callable<T>> wrap(Collection<? extends Callable<T>> tasks) {
+        Span span = tracer.activeSpan();
+        List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            wrapped.add(new TracingCallable<>(task, tracer, span));
+        }
+        return wrapped;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(wrap(command, tracer));
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return delegate.submit(wrap(task, tracer));
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        return delegate.submit(wrap(task, tracer), result);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return delegate.submit(wrap(task, tracer));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        return delegate.invokeAll(wrap(tasks));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return delegate.invokeAll(wrap(tasks), timeout, unit);
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+            throws InterruptedException, ExecutionException {
+        return delegate.invokeAny(wrap(tasks));
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return delegate.invokeAny(wrap(tasks), timeout, unit);
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    private static final class TracingCallable<T> implements Callable<T> {
+        private final Callable<T> delegate;
+        private final Tracer tracer;
+        private final Span span;
+
+        TracingCallable(Callable<T> delegate, Tracer tracer, Span span) {
+            this.delegate = delegate;
+            this.tracer = tracer;
+            this.span = span;
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (span == null) {
+                return delegate.call();
+            }
+            Scope scope = tracer.activateSpan(span);
+            try {
+                return delegate.call();
+            } finally {
+                scope.close();
+            }
+        }
+    }
+
+    private static final class TracingRunnable implements Runnable {
+        private final Runnable delegate;
+        private final Tracer tracer;
+        private final Span span;
+
+        TracingRunnable(Runnable delegate, Tracer tracer, Span span) {
+            this.delegate = delegate;
+            this.tracer = tracer;
+            this.span = span;
+        }
+
+        @Override
+        public void run() {
+            if (span == null) {
+                delegate.run();
+                return;
+            }
+            Scope scope = tracer.activateSpan(span);
+            try {
+                delegate.run();
+            } finally {
+                scope.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.tag.Tags;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+
+/**
+ * Executes a batch of requests concurrently under one batch span. The batch span is tagged with
+ * aggregated statistics: {@link #COUNT}, {@link #FAILURES}, {@link #MIN_LATENCY_MICROS},
+ * {@link #MAX_LATENCY_MICROS} and {@link #STRAGGLERS}, requests slower than {@code stragglerFactor}
+ * times the median latency. Requests whose tasks failed or were cancelled have no latency and are counted
+ * only in {@link #COUNT} and {@link #FAILURES}.
+ *
+ * <p>By default every request is traced by the client as a child of the batch span. When only the slowest
+ * {@code k} requests are recorded, requests are executed with {@link Constants#NOT_TRACED} and the batch
+ * span context is injected into copies of the requests, so downstream spans are children of the batch span.
+ * After the batch completes the {@code k} slowest requests are logged on the batch span as {@link #SLOWEST}
+ * events, no client spans are reported for them.
+ */
+public class TracingFanOut {
+
+    public static final String COUNT = "fanout.count";
+    public static final String FAILURES = "fanout.failures";
+    public static final String MIN_LATENCY_MICROS = "fanout.latency.min_micros";
+    public static final String MAX_LATENCY_MICROS = "fanout.latency.max_micros";
+    public static final String STRAGGLERS = "fanout.stragglers";
+    public static final String SLOWEST = "fanout.slowest";
+    public static final String LATENCY_MICROS = "latency.micros";
+
+    public static final int ALL_CHILDREN = Integer.MAX_VALUE;
+    public static final double DEFAULT_STRAGGLER_FACTOR = 2;
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Tracer tracer;
+    private final int recordedChildren;
+    private final double stragglerFactor;
+
+    /**
+     * Traces all requests.
+     *
+     * @param client traced client
+     * @param executor executor running the requests
+     * @param tracer tracer instance
+     */
+    public TracingFanOut(HttpClient client, ExecutorService executor, Tracer tracer) {
+        this(client, executor, tracer, ALL_CHILDREN, DEFAULT_STRAGGLER_FACTOR);
+    }
+
+    /**
+     * @param client traced client
+     * @param executor executor running the requests
+     * @param tracer tracer instance
+     * @param recordedChildren number of the slowest requests logged on the batch span or {@link #ALL_CHILDREN}
+     * to trace all requests
+     * @param stragglerFactor request slower than the median latency multiplied by this factor is a straggler
+     */
+    public TracingFanOut(HttpClient client, ExecutorService executor, Tracer tracer, int recordedChildren,
+                         double stragglerFactor) {
+        this.client = client;
+        this.executor = executor;
+        this.tracer = tracer;
+        this.recordedChildren = recordedChildren;
+        this.stragglerFactor = stragglerFactor;
+    }
+
+    /**
+     * Executes the requests and waits for all of them. The batch span is a child of the active span.
+     *
+     * @param operationName operation name of the batch span
+     * @param requests requests, they are not modified
+     * @param responseHandler handler of responses
+     * @return results in the order of the requests
+     * @throws InterruptedException if interrupted while waiting, remaining requests are cancelled
+     */
+    public <T> List<Result<T>> execute(String operationName, List<? extends HttpUriRequest> requests,
+                                       ResponseHandler<? extends T> responseHandler) throws InterruptedException {
+        Span batchSpan = tracer.buildSpan(operationName)
+            .withTag(Tags.COMPONENT.getKey(), TracingClientExec.COMPONENT_NAME)
+            .start();
+        boolean traceAll = recordedChildren >= requests.size();
+        long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long startNanos = System.nanoTime();
+
+        List<Future<Result<T>>> futures = new ArrayList<>(requests.size());
+        try {
+            Scope scope = tracer.activateSpan(batchSpan);
+            try {
+                for (HttpUriRequest request : requests) {
+                    Callable<Result<T>> task = traceAll
+                        ? TracingExecutorService.wrap(new Child<T>(request, responseHandler, null), tracer)
+                        : new Child<T>(request, responseHandler, batchSpan.context());
+                    futures.add(executor.submit(task));
+                }
+            } finally {
+                scope.close();
+            }
+
+            List<Result<T>> results = new ArrayList<>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(result(requests.get(i), futures.get(i)));
+            }
+            tagBatch(batchSpan, results);
+            if (!traceAll) {
+                logSlowest(batchSpan, results, startMicros, startNanos);
+            }
+            return results;
+        } catch (InterruptedException e) {
+            for (Future<Result<T>> future : futures) {
+                future.cancel(true);
+            }
+            Tags.ERROR.set(batchSpan, Boolean.TRUE);
+            throw e;
+        } finally {
+            batchSpan.finish();
+        }
+    }
+
+    private static <T> Result<T> result(HttpUriRequest request, Future<Result<T>> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return new Result<>(request, null, e.getCause(), -1, 0, 0);
+        } catch (CancellationException e) {
+            return new Result<>(request, null, e, -1, 0, 0);
+        }
+    }
+
+    private void tagBatch(Span batchSpan, List<? extends Result<?>> results) {
+        long[] latencies = new long[results.size()];
+        int completed = 0;
+        int failures = 0;
+        for (Result<?> result : results) {
+            if (result.getException() != null) {
+                failures++;
+            }
+            // futures which failed or were cancelled have no latency
+            if (result.startNanos != 0) {
+                latencies[completed++] = result.getLatencyNanos();
+            }
+        }
+        batchSpan.setTag(COUNT, results.size());
+        batchSpan.setTag(FAILURES, failures);
+        if (failures > 0) {
+            Tags.ERROR.set(batchSpan, Boolean.TRUE);
+        }
+        if (completed == 0) {
+            return;
+        }
+        latencies = Arrays.copyOf(latencies, completed);
+        Arrays.sort(latencies);
+        batchSpan.setTag(MIN_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(latencies[0]));
+        batchSpan.setTag(MAX_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1]));
+        long stragglerNanos = (long) (latencies[(latencies.length - 1) / 2] * stragglerFactor);
+        int stragglers = 0;
+        for (int i = latencies.length - 1; i >= 0 && latencies[i] > stragglerNanos; i--) {
+            stragglers++;
+        }
+        batchSpan.setTag(STRAGGLERS, stragglers);
+    }
+
+    private <T> void logSlowest(Span batchSpan, List<Result<T>> results, long startMicros, long startNanos) {
+        List<Result<T>> slowest = new ArrayList<>(results);
+        Collections.sort(slowest, new Comparator<Result<T>>() {
+            @Override
+            public int compare(Result<T> r1, Result<T> r2) {
+                return r1.getLatencyNanos() < r2.getLatencyNanos() ? 1
+                    : r1.getLatencyNanos() == r2.getLatencyNanos() ? 0 : -1;
+            }
+        });
+        for (Result<T> result : slowest.subList(0, Math.min(recordedChildren, slowest.size()))) {
+            if (result.startNanos == 0) {
+                // cancelled before it started
+                continue;
+            }
+            Map<String, Object> fields = new HashMap<>(8);
+            fields.put("event", SLOWEST);
+            fields.put(Tags.HTTP_METHOD.getKey(), result.getRequest().getMethod());
+            fields.put(Tags.HTTP_URL.getKey(), result.getRequest().getURI().toString());
+            fields.put(LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(result.getLatencyNanos()));
+            if (result.getStatusCode() > 0) {
+                fields.put(Tags.HTTP_STATUS.getKey(), result.getStatusCode());
+            }
+            if (result.getException() != null) {
+                fields.put(Tags.ERROR.getKey(), Boolean.TRUE);
+            }
+            batchSpan.log(startMicros + TimeUnit.NANOSECONDS.toMicros(result.endNanos - startNanos), fields);
+        }
+    }
+
+    /**
+     * Outcome of a request of the batch.
+     */
+    public static final class Result<T> {
+        private final HttpUriRequest request;
+        private final T value;
+        private final Throwable exception;
+        private final int statusCode;
+        private final long startNanos;
+        private final long endNanos;
+
+        Result(HttpUriRequest request, T value, Throwable exception, int statusCode, long startNanos,
+               long endNanos) {
+            this.request = request;
+            this.value = value;
+            this.exception = exception;
+            this.statusCode = statusCode;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        public HttpUriRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * @return value returned by the response handler or null if the request failed
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return exception thrown by the request or the response handler, null if it succeeded
+         */
+        public Throwable getException() {
+            return exception;
+        }
+
+        /**
+         * @return status code or -1 if no response was received
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public long getLatencyNanos() {
+            return endNanos - startNanos;
+        }
+    }
+
+    private final class Child<T> implements Callable<Result<T>> {
+        private final HttpUriRequest request;
+        private final ResponseHandler<? extends T> responseHandler;
+        /**
+         * Context injected into the request when it is not traced by the client, null otherwise.
+         */
+        private final SpanContext batchContext;
+        private int statusCode = -1;
+
+        Child(HttpUriRequest request, ResponseHandler<? extends T> responseHandler, SpanContext batchContext) {
+            this.request = request;
+            this.responseHandler = responseHandler;
+            this.batchContext = batchContext;
+        }
+
+        @Override
+        public Result<T> call() {
+            HttpClientContext context = HttpClientContext.create();
+            HttpUriRequest executed = request;
+            if (batchContext != null) {
+                context.setAttribute(Constants.NOT_TRACED, Boolean.TRUE);
+                // requests of the caller are not modified
+                executed = RequestBuilder.copy(request).build();
+                tracer.inject(batchContext, Format.Builtin.HTTP_HEADERS, new HttpHeadersInjectAdapter(executed));
+            }
+            long startNanos = System.nanoTime();
+            try {
+                T value = client.execute(executed, new ResponseHandler<T>() {
+                    @Override
+                    public T handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
+                        statusCode = response.getStatusLine().getStatusCode();
+                        return responseHandler.handleResponse(response);
+                    }
+                }, context);
+                return new Result<>(request, value, null, statusCode, startNanos, System.nanoTime());
+            } catch (IOException | RuntimeException e) {
+                return new Result<>(request, null, e, statusCode, startNanos, System.nanoTime());
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sheds tracing work when instrumentation takes longer than a budget, see
+ * {@link TracingHttpClientBuilder#withGovernor(TracingGovernor)}.
+ *
+ * <p>{@link TracingClientExec} measures the time each traced request spends in the exec minus the time spent
+ * in the rest of the chain. When the average over a window of requests exceeds the budget, tracing is degraded
+ * by one {@link Level}. When the average stays below {@code budget * recoveryRatio} for
+ * {@code recoveryWindows} consecutive windows, tracing is restored by one level. The level is chosen when
+ * a request starts and its redirects and retries keep it.
+ *
+ * <p>Level changes are counted per level, see {@link #getLevelChanges(Level)}.
+ */
+public class TracingGovernor {
+
+    public static final int DEFAULT_WINDOW = 256;
+    public static final double DEFAULT_RECOVERY_RATIO = 0.5;
+    public static final int DEFAULT_RECOVERY_WINDOWS = 8;
+
+    /**
+     * Levels of tracing in order of decreasing overhead.
+     */
+    public enum Level {
+        /**
+         * Requests are traced as configured.
+         */
+        FULL,
+        /**
+         * Span decorators are not invoked.
+         */
+        NO_DECORATORS,
+        /**
+         * Span decorators are not invoked and requests are represented by a single client span, see
+         * {@link TracingHttpClientBuilder#collapseLocalSpan()}.
+         */
+        NO_LOCAL_SPAN,
+        /**
+         * Spans are not created, the parent span context is injected into requests.
+         */
+        PROPAGATION_ONLY
+    }
+
+    private static final Level[] LEVELS = Level.values();
+
+    private final long budgetNanos;
+    private final long recoveryNanos;
+    private final int window;
+    private final int recoveryWindows;
+
+    private final AtomicLong windowNanos = new AtomicLong();
+    private final AtomicLong windowCount = new AtomicLong();
+    private final AtomicLongArray levelChanges = new AtomicLongArray(LEVELS.length);
+    private volatile Level level = Level.FULL;
+    /**
+     * Guarded by this.
+     */
+    private int windowsBelowRecovery;
+
+    /**
+     * @param budget average instrumentation time per request
+     * @param unit unit of the budget
+     */
+    public TracingGovernor(long budget, TimeUnit unit) {
+        this(budget, unit, DEFAULT_WINDOW, DEFAULT_RECOVERY_RATIO, DEFAULT_RECOVERY_WINDOWS);
+    }
+
+    /**
+     * @param budget average instrumentation time per request
+     * @param unit unit of the budget
+     * @param window number of requests averaged before the level is reconsidered
+     * @param recoveryRatio fraction of the budget the average has to stay below to restore a level
+     * @param recoveryWindows number of consecutive windows below the recovery threshold to restore a level
+     */
+    public TracingGovernor(long budget, TimeUnit unit, int window, double recoveryRatio, int recoveryWindows) {
+        if (window <= 0 || recoveryWindows <= 0) {
+            throw new IllegalArgumentException("window and recoveryWindows have to be positive");
+        }
+        this.budgetNanos = unit.toNanos(budget);
+        this.recoveryNanos = (long) (budgetNanos * recoveryRatio);
+        this.window = window;
+        this.recoveryWindows = recoveryWindows;
+    }
+
+    /**
+     * @return level applied to requests starting now
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level level
+     * @return number of times tracing was degraded or restored to the level
+     */
+    public long getLevelChanges(Level level) {
+        return levelChanges.get(level.ordinal());
+    }
+
+    Measurement startMeasurement() {
+        return new Measurement(System.nanoTime());
+    }
+
+    void stopMeasurement(Measurement measurement) {
+        record(System.nanoTime() - measurement.startNanos - measurement.downstreamNanos);
+    }
+
+    /**
+     * @param overheadNanos instrumentation time of a request
+     */
+    void record(long overheadNanos) {
+        windowNanos.addAndGet(overheadNanos);
+        if (windowCount.incrementAndGet() == window) {
+            evaluate();
+        }
+    }
+
+    private synchronized void evaluate() {
+        // requests recorded concurrently may be counted in the next window
+        long average = windowNanos.getAndSet(0) / window;
+        windowCount.set(0);
+
+        Level current = level;
+        if (average > budgetNanos) {
+            windowsBelowRecovery = 0;
+            if (current.ordinal() < LEVELS.length - 1) {
+                changeLevel(LEVELS[current.ordinal() + 1]);
+            }
+        } else if (average < recoveryNanos && current != Level.FULL) {
+            if (++windowsBelowRecovery >= recoveryWindows) {
+                windowsBelowRecovery = 0;
+                changeLevel(LEVELS[current.ordinal() - 1]);
+            }
+        } else {
+            windowsBelowRecovery = 0;
+        }
+    }
+
+    private void changeLevel(Level newLevel) {
+        level = newLevel;
+        levelChanges.incrementAndGet(newLevel.ordinal());
+    }
+
+    /**
+     * Time of a request, the time spent in the rest of the chain is not instrumentation.
+     */
+    static final class Measurement {
+        private final long startNanos;
+        private long downstreamNanos;
+
+        private Measurement(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        void addDownstream(long nanos) {
+            downstreamNanos += nanos;
+        }
+    }
+}
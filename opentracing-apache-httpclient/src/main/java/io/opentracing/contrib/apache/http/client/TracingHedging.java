@@ -0,0 +1,374 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.tag.IntTag;
+import io.opentracing.tag.StringTag;
+import io.opentracing.tag.Tags;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIUtils;
+
+/**
+ * Executes idempotent requests with hedging: when no response arrives within the hedge delay of the route,
+ * a duplicate request is sent, optionally to another target host, and the first successful response wins.
+ * The other attempt is aborted. Attempts execute copies of the request, so the request itself is never
+ * aborted. Requests with other methods than {@code GET}, {@code HEAD} and {@code OPTIONS} are executed
+ * without hedging.
+ *
+ * <p>The hedge delay is the configured percentile, by default p95, of latencies of attempts to the target
+ * host. Successful attempts record their latency, aborted attempts the time elapsed until they were aborted,
+ * a lower bound of their latency, so that slow attempts lost to the hedge still raise the delay. It is
+ * refreshed every {@link #REFRESH_INTERVAL} samples, until {@link #MIN_SAMPLES} latencies are recorded the
+ * initial delay is used.
+ *
+ * <p>Hedges of a target host are limited to the configured ratio of its requests, by default
+ * {@link #DEFAULT_MAX_HEDGE_RATIO}, with bursts of up to {@link #MAX_HEDGE_BURST} hedges. A slow target host
+ * is then not sent twice as many requests. Hosts above the maximum number of routes share one limit.
+ *
+ * <p>Each attempt is executed under an attempt span, the parent of spans created by the traced client.
+ * Attempt spans are tagged with {@link #HEDGE_NUMBER}, 0 for the original request and 1 for the hedge,
+ * and {@link #HEDGE_OUTCOME}.
+ */
+public class TracingHedging {
+
+    public static final String OPERATION_NAME = "hedged_attempt";
+    public static final IntTag HEDGE_NUMBER = new IntTag("http.hedge.number");
+    public static final StringTag HEDGE_OUTCOME = new StringTag("http.hedge.outcome");
+    public static final String OUTCOME_WIN = "win";
+    public static final String OUTCOME_CANCEL = "cancel";
+    public static final String OUTCOME_ERROR = "error";
+
+    public static final double DEFAULT_PERCENTILE = 95;
+    public static final int DEFAULT_MAX_ROUTES = 256;
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+    static final int MIN_SAMPLES = 20;
+    static final int REFRESH_INTERVAL = 64;
+    static final int MAX_HEDGE_BURST = 10;
+    private static final long HEDGE_COST = 1000;
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Tracer tracer;
+    private final double percentile;
+    private final long initialDelayNanos;
+    private final int maxRoutes;
+    private final long hedgeCredit;
+    private final ConcurrentMap<HttpHost, RouteLatency> routeLatencies = new ConcurrentHashMap<>();
+    private final RouteLatency otherRoutes = new RouteLatency();
+
+    /**
+     * @param client traced client
+     * @param executor executor running the attempts
+     * @param tracer tracer instance
+     * @param initialDelayMillis hedge delay used until enough latencies of the route are recorded
+     */
+    public TracingHedging(HttpClient client, ExecutorService executor, Tracer tracer, long initialDelayMillis) {
+        this(client, executor, tracer, DEFAULT_PERCENTILE, initialDelayMillis, DEFAULT_MAX_ROUTES);
+    }
+
+    /**
+     * @param client traced client
+     * @param executor executor running the attempts
+     * @param tracer tracer instance
+     * @param percentile latency percentile of the route used as the hedge delay
+     * @param initialDelayMillis hedge delay used until enough latencies of the route are recorded
+     * @param maxRoutes maximum number of target hosts with latency estimates, other hosts use the initial delay
+     */
+    public TracingHedging(HttpClient client, ExecutorService executor, Tracer tracer, double percentile,
+                          long initialDelayMillis, int maxRoutes) {
+        this(client, executor, tracer, percentile, initialDelayMillis, maxRoutes, DEFAULT_MAX_HEDGE_RATIO);
+    }
+
+    /**
+     * @param client traced client
+     * @param executor executor running the attempts
+     * @param tracer tracer instance
+     * @param percentile latency percentile of the route used as the hedge delay
+     * @param initialDelayMillis hedge delay used until enough latencies of the route are recorded
+     * @param maxRoutes maximum number of target hosts with latency estimates, other hosts use the initial delay
+     * @param maxHedgeRatio maximum ratio of hedges to requests of a target host
+     */
+    public TracingHedging(HttpClient client, ExecutorService executor, Tracer tracer, double percentile,
+                          long initialDelayMillis, int maxRoutes, double maxHedgeRatio) {
+        this.client = client;
+        this.executor = executor;
+        this.tracer = tracer;
+        this.percentile = percentile;
+        this.initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(initialDelayMillis);
+        this.maxRoutes = maxRoutes;
+        this.hedgeCredit = Math.round(maxHedgeRatio * HEDGE_COST);
+    }
+
+    /**
+     * Executes the request, the hedge is sent to the same target host.
+     */
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler)
+            throws IOException, InterruptedException {
+        return execute(request, null, responseHandler);
+    }
+
+    /**
+     * Executes the request. Attempt spans are children of the active span.
+     *
+     * @param request request with an absolute URI, attempts execute copies of it so that it can be reused
+     * @param hedgeTarget target host of the hedge, null for the target of the request
+     * @param responseHandler handler of the winning response, it is invoked on the executor thread
+     * @return value returned by the response handler
+     * @throws IOException exception of the last attempt if all attempts failed
+     * @throws InterruptedException if interrupted while waiting, all attempts are aborted
+     */
+    public <T> T execute(HttpUriRequest request, HttpHost hedgeTarget, ResponseHandler<? extends T> responseHandler)
+            throws IOException, InterruptedException {
+        if (!isIdempotent(request.getMethod())) {
+            return client.execute(request, responseHandler);
+        }
+        HttpHost target = URIUtils.extractHost(request.getURI());
+        RouteLatency routeLatency = routeLatency(target);
+        routeLatency.addHedgeCredit(hedgeCredit);
+        Span parent = tracer.activeSpan();
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        List<Attempt<T>> attempts = new ArrayList<>(2);
+        // attempts execute copies, aborting the losing attempt does not abort the request of the caller
+        attempts.add(submit(completionService,
+            new Attempt<T>(RequestBuilder.copy(request).build(), routeLatency, responseHandler, 0, parent)));
+
+        Throwable lastFailure = null;
+        try {
+            Future<T> completed = completionService.poll(routeLatency.delayNanos(initialDelayNanos),
+                    TimeUnit.NANOSECONDS);
+            if ((completed == null || failed(completed)) && routeLatency.tryHedge()) {
+                HttpHost hedgeHost = hedgeTarget != null ? hedgeTarget : target;
+                attempts.add(submit(completionService, new Attempt<T>(hedgeRequest(request, hedgeHost),
+                    routeLatency(hedgeHost), responseHandler, 1, parent)));
+            }
+            for (int pending = attempts.size(); pending > 0; pending--) {
+                if (completed == null) {
+                    completed = completionService.take();
+                }
+                Attempt<T> attempt = attempt(attempts, completed);
+                try {
+                    T value = completed.get();
+                    attempt.finish(OUTCOME_WIN);
+                    return value;
+                } catch (ExecutionException e) {
+                    lastFailure = e.getCause();
+                    Tags.ERROR.set(attempt.span, Boolean.TRUE);
+                    attempt.finish(OUTCOME_ERROR);
+                }
+                completed = null;
+            }
+        } finally {
+            for (Attempt<T> attempt : attempts) {
+                attempt.cancel();
+            }
+        }
+        if (lastFailure instanceof IOException) {
+            throw (IOException) lastFailure;
+        } else if (lastFailure instanceof RuntimeException) {
+            throw (RuntimeException) lastFailure;
+        } else if (lastFailure instanceof Error) {
+            throw (Error) lastFailure;
+        }
+        throw new IOException(lastFailure);
+    }
+
+    private static HttpUriRequest hedgeRequest(HttpUriRequest request, HttpHost target)
+            throws ClientProtocolException {
+        try {
+            return RequestBuilder.copy(request)
+                .setUri(URIUtils.rewriteURI(request.getURI(), target))
+                .build();
+        } catch (URISyntaxException e) {
+            throw new ClientProtocolException(e);
+        }
+    }
+
+    /**
+     * @return hedge delay of the target host in nanoseconds
+     */
+    long hedgeDelayNanos(HttpHost target) {
+        RouteLatency routeLatency = routeLatencies.get(target);
+        return routeLatency != null ? routeLatency.delayNanos(initialDelayNanos) : initialDelayNanos;
+    }
+
+    /**
+     * @return latency estimate of the target host, {@link #otherRoutes} above the maximum number of routes
+     */
+    private RouteLatency routeLatency(HttpHost target) {
+        RouteLatency routeLatency = routeLatencies.get(target);
+        if (routeLatency == null) {
+            if (routeLatencies.size() >= maxRoutes) {
+                return otherRoutes;
+            }
+            RouteLatency newRouteLatency = new RouteLatency();
+            routeLatency = routeLatencies.putIfAbsent(target, newRouteLatency);
+            if (routeLatency == null) {
+                routeLatency = newRouteLatency;
+            }
+        }
+        return routeLatency;
+    }
+
+    private <T> Attempt<T> submit(CompletionService<T> completionService, Attempt<T> attempt) {
+        attempt.future = completionService.submit(attempt);
+        return attempt;
+    }
+
+    private static boolean failed(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+
+    private static <T> Attempt<T> attempt(List<Attempt<T>> attempts, Future<T> future) {
+        for (Attempt<T> attempt : attempts) {
+            if (attempt.future == future) {
+                return attempt;
+            }
+        }
+        throw new IllegalStateException("Unknown attempt");
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * Latency histogram of a target host with the cached hedge delay and the hedge budget in thousandths of
+     * a hedge.
+     */
+    private static final class RouteLatency {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong hedgeBudget = new AtomicLong(MAX_HEDGE_BURST * HEDGE_COST);
+        private volatile long delayNanos;
+
+        void record(long durationNanos, double percentile) {
+            histogram.record(durationNanos);
+            long count = samples.incrementAndGet();
+            if (count == MIN_SAMPLES || (count > MIN_SAMPLES && count % REFRESH_INTERVAL == 0)) {
+                delayNanos = TimeUnit.MICROSECONDS.toNanos(histogram.snapshot().getValueAtPercentile(percentile));
+            }
+        }
+
+        long delayNanos(long initialDelayNanos) {
+            return delayNanos > 0 ? delayNanos : initialDelayNanos;
+        }
+
+        void addHedgeCredit(long credit) {
+            while (true) {
+                long budget = hedgeBudget.get();
+                long newBudget = Math.min(budget + credit, MAX_HEDGE_BURST * HEDGE_COST);
+                if (newBudget == budget || hedgeBudget.compareAndSet(budget, newBudget)) {
+                    return;
+                }
+            }
+        }
+
+        boolean tryHedge() {
+            while (true) {
+                long budget = hedgeBudget.get();
+                if (budget < HEDGE_COST) {
+                    return false;
+                }
+                if (hedgeBudget.compareAndSet(budget, budget - HEDGE_COST)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final class Attempt<T> implements Callable<T> {
+        private final HttpUriRequest request;
+        private final RouteLatency routeLatency;
+        private final ResponseHandler<? extends T> responseHandler;
+        private final Span span;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private volatile boolean started;
+        private volatile long startNanos;
+        private Future<T> future;
+        private boolean finished;
+
+        Attempt(HttpUriRequest request, RouteLatency routeLatency, ResponseHandler<? extends T> responseHandler,
+                int number, Span parent) {
+            this.request = request;
+            this.routeLatency = routeLatency;
+            this.responseHandler = responseHandler;
+            this.span = tracer.buildSpan(OPERATION_NAME)
+                .asChildOf(parent)
+                .withTag(Tags.COMPONENT.getKey(), TracingClientExec.COMPONENT_NAME)
+                .withTag(HEDGE_NUMBER.getKey(), number)
+                .start();
+        }
+
+        @Override
+        public T call() throws Exception {
+            startNanos = System.nanoTime();
+            started = true;
+            T value;
+            Scope scope = tracer.activateSpan(span);
+            try {
+                value = client.execute(request, responseHandler);
+            } finally {
+                scope.close();
+            }
+            record(System.nanoTime() - startNanos);
+            return value;
+        }
+
+        /**
+         * Records the latency once, either of the completed attempt or the elapsed time of the aborted one.
+         */
+        private void record(long durationNanos) {
+            if (routeLatency != otherRoutes && recorded.compareAndSet(false, true)) {
+                routeLatency.record(durationNanos, percentile);
+            }
+        }
+
+        void finish(String outcome) {
+            HEDGE_OUTCOME.set(span, outcome);
+            span.finish();
+            finished = true;
+        }
+
+        /**
+         * Aborts the attempt if it has not finished yet.
+         */
+        void cancel() {
+            if (finished) {
+                return;
+            }
+            if (started) {
+                // censored latency, the attempt would have taken at least this long
+                record(System.nanoTime() - startNanos);
+            }
+            request.abort();
+            future.cancel(false);
+            finish(OUTCOME_CANCEL);
+        }
+    }
+}
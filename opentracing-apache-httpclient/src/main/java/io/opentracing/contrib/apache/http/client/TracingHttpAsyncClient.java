@@ -0,0 +1,314 @@
+package io.opentracing.contrib.apache.http.client;
+
+import static io.opentracing.contrib.apache.http.client.Constants.PARENT_CONTEXT;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+
+/**
+ * Async client created by {@link TracingHttpAsyncClientBuilder}.
+ *
+ * <p>Each logical request is represented by a local span, every request sent to the network
+ * (the first one and each redirect) by a client child span. Client spans are started and injected by
+ * a request interceptor and finished by a response interceptor, the local span is finished when the
+ * response consumer completes, fails or is cancelled. Spans are never activated, parent of the local
+ * span is captured in {@link #execute(HttpAsyncRequestProducer, HttpAsyncResponseConsumer, HttpContext,
+ * FutureCallback)} on the calling thread, so nothing touches the scope manager on IO dispatcher threads.
+ */
+public class TracingHttpAsyncClient extends CloseableHttpAsyncClient {
+
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the tracing state of the request.
+   */
+  static final String STATE_PROP = TracingHttpAsyncClient.class.getName() + ".state";
+
+  private final CloseableHttpAsyncClient client;
+  private final Tracer tracer;
+  private final List<ApacheClientSpanDecorator> spanDecorators;
+  private final boolean injectDisabled;
+  private final ApacheClientHeaderInjector headerInjector;
+
+  TracingHttpAsyncClient(
+      CloseableHttpAsyncClient client,
+      Tracer tracer,
+      List<ApacheClientSpanDecorator> spanDecorators,
+      boolean injectDisabled,
+      ApacheClientHeaderInjector headerInjector) {
+    this.client = client;
+    this.tracer = tracer;
+    this.spanDecorators = Collections.unmodifiableList(new ArrayList<>(spanDecorators));
+    this.injectDisabled = injectDisabled;
+    this.headerInjector = headerInjector != null ? headerInjector : ApacheClientHeaderInjector.TRACER;
+  }
+
+  @Override
+  public boolean isRunning() {
+    return client.isRunning();
+  }
+
+  @Override
+  public void start() {
+    client.start();
+  }
+
+  @Override
+  public void close() throws IOException {
+    client.close();
+  }
+
+  @Override
+  public <T> Future<T> execute(
+      HttpAsyncRequestProducer requestProducer,
+      HttpAsyncResponseConsumer<T> responseConsumer,
+      HttpContext context,
+      FutureCallback<T> callback) {
+
+    HttpContext httpContext = context != null ? context : new BasicHttpContext();
+    SpanContext parentContext = (SpanContext) httpContext.getAttribute(PARENT_CONTEXT);
+    if (parentContext == null) {
+      Span activeSpan = tracer.activeSpan();
+      parentContext = activeSpan == null ? null : activeSpan.context();
+    }
+
+    State state = new State(tracer, spanDecorators, injectDisabled, headerInjector, parentContext);
+    httpContext.setAttribute(STATE_PROP, state);
+    return client.execute(requestProducer, new TracingResponseConsumer<>(responseConsumer, state, httpContext),
+        httpContext, callback);
+  }
+
+  /**
+   * Tracing state of a logical request shared by interceptors and the response consumer.
+   */
+  static final class State {
+    private final Tracer tracer;
+    private final List<ApacheClientSpanDecorator> spanDecorators;
+    private final boolean injectDisabled;
+    private final ApacheClientHeaderInjector headerInjector;
+    private final SpanContext parentContext;
+
+    private final AtomicReference<Span> clientSpan = new AtomicReference<>();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile Span localSpan;
+    private volatile HttpRequestWrapper clientRequest;
+
+    State(Tracer tracer, List<ApacheClientSpanDecorator> spanDecorators, boolean injectDisabled,
+        ApacheClientHeaderInjector headerInjector, SpanContext parentContext) {
+      this.tracer = tracer;
+      this.spanDecorators = spanDecorators;
+      this.injectDisabled = injectDisabled;
+      this.headerInjector = headerInjector;
+      this.parentContext = parentContext;
+    }
+
+    void onRequest(HttpRequest request, HttpRequestWrapper decoratedRequest, HttpContext context) {
+      if (finished.get()) {
+        return;
+      }
+      if (localSpan == null) {
+        Tracer.SpanBuilder spanBuilder = tracer.buildSpan(decoratedRequest.getMethod())
+            .withTag(Tags.COMPONENT.getKey(), TracingClientExec.COMPONENT_NAME)
+            .ignoreActiveSpan();
+        if (parentContext != null) {
+          spanBuilder.asChildOf(parentContext);
+        }
+        localSpan = spanBuilder.start();
+      }
+
+      Span span = tracer.buildSpan(decoratedRequest.getMethod())
+          .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+          .asChildOf(localSpan)
+          .start();
+      if (!injectDisabled) {
+        headerInjector.inject(tracer, span.context(), request);
+      }
+      for (ApacheClientSpanDecorator decorator : spanDecorators) {
+        decorator.onRequest(decoratedRequest, context, span);
+      }
+
+      clientRequest = decoratedRequest;
+      Span previous = clientSpan.getAndSet(span);
+      if (previous != null) {
+        previous.finish();
+      }
+      if (finished.get()) {
+        // exchange was cancelled concurrently
+        span = clientSpan.getAndSet(null);
+        if (span != null) {
+          span.finish();
+        }
+      }
+    }
+
+    void onResponse(HttpResponse response, HttpContext context) {
+      Span span = clientSpan.getAndSet(null);
+      if (span != null) {
+        for (ApacheClientSpanDecorator decorator : spanDecorators) {
+          decorator.onResponse(response, context, span);
+        }
+        span.finish();
+      }
+    }
+
+    void finish(Exception ex, HttpContext context) {
+      if (!finished.compareAndSet(false, true)) {
+        return;
+      }
+      Span span = clientSpan.getAndSet(null);
+      if (span != null) {
+        if (ex != null) {
+          for (ApacheClientSpanDecorator decorator : spanDecorators) {
+            decorator.onError(clientRequest, context, ex, span);
+          }
+        }
+        span.finish();
+      }
+      if (localSpan != null) {
+        localSpan.finish();
+      }
+    }
+
+    void cancel(HttpContext context) {
+      Span span = clientSpan.get();
+      if (span != null) {
+        span.log(Collections.singletonMap("event", "cancelled"));
+      }
+      finish(null, context);
+    }
+  }
+
+  /**
+   * Starts a client span for every request sent to the network, must be the last request interceptor.
+   */
+  static final class RequestInterceptor implements HttpRequestInterceptor {
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+      State state = (State) context.getAttribute(STATE_PROP);
+      if (state == null) {
+        return;
+      }
+      // the async client rewrites request URI to a relative one and does not set target of the wrapper
+      HttpRequestWrapper decoratedRequest = request instanceof HttpRequestWrapper
+          && ((HttpRequestWrapper) request).getTarget() != null
+          ? (HttpRequestWrapper) request
+          : HttpRequestWrapper.wrap(request, HttpClientContext.adapt(context).getTargetHost());
+      state.onRequest(request, decoratedRequest, context);
+    }
+  }
+
+  /**
+   * Finishes the client span when the response head is received, must be the first response interceptor.
+   * Note that for requests tunnelled through a proxy the response to {@code CONNECT} also passes
+   * through response interceptors.
+   */
+  static final class ResponseInterceptor implements HttpResponseInterceptor {
+    @Override
+    public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+      State state = (State) context.getAttribute(STATE_PROP);
+      if (state != null) {
+        state.onResponse(response, context);
+      }
+    }
+  }
+
+  /**
+   * Finishes spans of the logical request when the final response is consumed or the exchange fails.
+   */
+  static final class TracingResponseConsumer<T> implements HttpAsyncResponseConsumer<T> {
+    private final HttpAsyncResponseConsumer<T> delegate;
+    private final State state;
+    private final HttpContext context;
+
+    TracingResponseConsumer(HttpAsyncResponseConsumer<T> delegate, State state, HttpContext context) {
+      this.delegate = delegate;
+      this.state = state;
+      this.context = context;
+    }
+
+    @Override
+    public void responseReceived(HttpResponse response) throws IOException, HttpException {
+      delegate.responseReceived(response);
+    }
+
+    @Override
+    public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+      delegate.consumeContent(decoder, ioControl);
+    }
+
+    @Override
+    public void responseCompleted(HttpContext httpContext) {
+      try {
+        delegate.responseCompleted(httpContext);
+      } finally {
+        state.finish(null, context);
+      }
+    }
+
+    @Override
+    public void failed(Exception ex) {
+      try {
+        delegate.failed(ex);
+      } finally {
+        state.finish(ex, context);
+      }
+    }
+
+    @Override
+    public Exception getException() {
+      return delegate.getException();
+    }
+
+    @Override
+    public T getResult() {
+      return delegate.getResult();
+    }
+
+    @Override
+    public boolean isDone() {
+      return delegate.isDone();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        delegate.close();
+      } finally {
+        state.finish(null, context);
+      }
+    }
+
+    @Override
+    public boolean cancel() {
+      try {
+        return delegate.cancel();
+      } finally {
+        state.cancel(context);
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+
+/**
+ * Builder of traced {@code httpasyncclient} clients. Redirects are handled by the async client
+ * itself, they can be disabled via {@link org.apache.http.client.config.RequestConfig#isRedirectsEnabled()}.
+ */
+public class TracingHttpAsyncClientBuilder extends HttpAsyncClientBuilder {
+
+    private Tracer tracer;
+    private List<ApacheClientSpanDecorator> spanDecorators;
+    private boolean injectDisabled;
+    private ApacheClientHeaderInjector headerInjector;
+
+    /**
+     * When using this constructor tracer should be registered via
+     * {@link GlobalTracer#register(Tracer)}.
+     */
+    public TracingHttpAsyncClientBuilder() {
+        this(GlobalTracer.get(),
+            Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()));
+    }
+
+    /**
+     * @param tracer tracer instance
+     * @param spanDecorators decorators
+     */
+    public TracingHttpAsyncClientBuilder(
+        Tracer tracer,
+        List<ApacheClientSpanDecorator> spanDecorators) {
+        this.tracer = tracer;
+        this.spanDecorators = new ArrayList<>(spanDecorators);
+
+        super.addInterceptorLast(new TracingHttpAsyncClient.RequestInterceptor());
+        super.addInterceptorFirst(new TracingHttpAsyncClient.ResponseInterceptor());
+    }
+
+    public static TracingHttpAsyncClientBuilder create() {
+        return new TracingHttpAsyncClientBuilder();
+    }
+
+    public TracingHttpAsyncClientBuilder withTracer(Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    public TracingHttpAsyncClientBuilder withSpanDecorators(List<ApacheClientSpanDecorator> decorators) {
+        this.spanDecorators = new ArrayList<>(decorators);
+        return this;
+    }
+
+    public TracingHttpAsyncClientBuilder disableInjection() {
+        this.injectDisabled = true;
+        return this;
+    }
+
+    /**
+     * @param headerInjector injector of client span contexts e.g. {@link ApacheClientHeaderInjector#TRACEPARENT},
+     * by default contexts are injected via the tracer
+     */
+    public TracingHttpAsyncClientBuilder withHeaderInjector(ApacheClientHeaderInjector headerInjector) {
+        this.headerInjector = headerInjector;
+        return this;
+    }
+
+    @Override
+    public CloseableHttpAsyncClient build() {
+        return new TracingHttpAsyncClient(super.build(), tracer, spanDecorators, injectDisabled, headerInjector);
+    }
+}
@@ -6,21 +6,52 @@ import io.opentracing.util.GlobalTracer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.Header;
+import org.apache.http.client.AuthenticationStrategy;
+import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.RedirectStrategy;
+import org.apache.http.client.ServiceUnavailableRetryStrategy;
+import org.apache.http.client.UserTokenHandler;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.impl.execchain.RetryExec;
+import org.apache.http.impl.execchain.ServiceUnavailableRetryExec;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
 
 /**
  * @author Pavol Loffay
  */
 public class TracingHttpClientBuilder extends HttpClientBuilder {
-
     private final RedirectStrategy redirectStrategy;
     private final boolean redirectHandlingDisabled;
     private Tracer tracer;
     private List<ApacheClientSpanDecorator> spanDecorators;
     private boolean injectDisabled;
+    private ApacheClientSampler sampler;
+    private Header notSampledHeader;
+    private boolean collapseLocalSpan;
+    private boolean connectionPoolTracing;
+    private HttpClientConnectionManager phaseTimingsConnectionManager;
+    private boolean finishSpansOnResponseConsumed;
+    private ApacheClientMetrics metrics;
+    private RouteStatsRegistry routeStats;
+    private ApacheClientHeaderInjector headerInjector;
+    private TracingPolicy policy;
+    private RetryTracking retryTracking;
+    private AsyncSpanDecorators asyncDecorators;
+    private PayloadCapture payloadCapture;
+    private TracingGovernor governor;
+    private SpanTemplate.Applier spanTemplateApplier;
+    private CircuitBreakerRegistry circuitBreakers;
+    private boolean deadlinePropagation;
+    private String deadlineHeader;
 
     /**
      * When using this constructor tracer should be registered via
@@ -91,9 +122,274 @@ public class TracingHttpClientBuilder extends HttpClientBuilder {
         return this;
     }
 
+    /**
+     * @param headerInjector injector of client span contexts e.g. {@link ApacheClientHeaderInjector#TRACEPARENT},
+     * by default contexts are injected via the tracer
+     */
+    public TracingHttpClientBuilder withHeaderInjector(ApacheClientHeaderInjector headerInjector) {
+        this.headerInjector = headerInjector;
+        return this;
+    }
+
+    /**
+     * @param sampler sampler deciding whether a request is traced. Requests which are not sampled
+     * skip span creation and decorators entirely.
+     */
+    public TracingHttpClientBuilder withSampler(ApacheClientSampler sampler) {
+        this.sampler = sampler;
+        return this;
+    }
+
+    /**
+     * @param policy rules overriding sampling, injection and decorators for matching requests
+     */
+    public TracingHttpClientBuilder withTracingPolicy(TracingPolicy policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Header added to requests which are not sampled, e.g. {@code X-B3-Sampled: 0}, so that the
+     * downstream service does not start a new trace. It is not added when injection is disabled.
+     *
+     * @param name header name
+     * @param value header value
+     */
+    public TracingHttpClientBuilder withNotSampledHeader(String name, String value) {
+        this.notSampledHeader = new BasicHeader(name, value);
+        return this;
+    }
+
+    /**
+     * Represent a request without redirects by a single client span instead of a local span with
+     * a client child span. When a redirect is followed the client span of the first request becomes
+     * the parent of client spans of the redirected requests.
+     */
+    public TracingHttpClientBuilder collapseLocalSpan() {
+        this.collapseLocalSpan = true;
+        return this;
+    }
+
+    /**
+     * Finish spans when the response entity is fully read, closed or aborted instead of when the
+     * response head is received, and record transferred bytes, see {@link StreamingResponse}.
+     * Responses have to be consumed or closed, otherwise spans are never finished.
+     */
+    public TracingHttpClientBuilder finishSpansOnResponseConsumed() {
+        this.finishSpansOnResponseConsumed = true;
+        return this;
+    }
+
+    /**
+     * Record latency of all requests, sampled or not, into histograms. Histograms are read via
+     * {@link ApacheClientMetrics#export(ApacheClientMetrics.Exporter)}.
+     *
+     * @param metrics metrics registry, can be shared by multiple clients
+     */
+    public TracingHttpClientBuilder withMetrics(ApacheClientMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Record live per-route statistics of all requests sent to the network, sampled or not. Statistics are
+     * read from the registry via {@link RouteStatsRegistry#getStats(org.apache.http.conn.routing.HttpRoute)}
+     * while the client is in use.
+     *
+     * @param routeStats statistics registry, can be shared by multiple clients
+     */
+    public TracingHttpClientBuilder withRouteStats(RouteStatsRegistry routeStats) {
+        this.routeStats = routeStats;
+        return this;
+    }
+
+    /**
+     * Represent all automatic retries of a request by one local span and tag client spans of retried
+     * attempts with the attempt number and the retry reason, see {@link RetryTracking}. Retries are then
+     * executed by retry execs installed with the tracing exec, so that a request is retried exactly when the
+     * tracing exec expects it: {@link #setRetryHandler(HttpRequestRetryHandler)} and
+     * {@link #disableAutomaticRetries()} have no effect, pass a handler which does not retry, e.g.
+     * {@code new DefaultHttpRequestRetryHandler(0, false)}, to disable retries. Do not call
+     * {@link #setServiceUnavailableRetryStrategy(ServiceUnavailableRetryStrategy)}, responses would be retried
+     * twice.
+     *
+     * @param retryHandler retry handler, null for {@link DefaultHttpRequestRetryHandler#INSTANCE}
+     * @param unavailableRetryStrategy service unavailable retry strategy, null to not retry responses
+     */
+    public TracingHttpClientBuilder withRetryTracing(HttpRequestRetryHandler retryHandler,
+            ServiceUnavailableRetryStrategy unavailableRetryStrategy) {
+        this.retryTracking = new RetryTracking(
+                retryHandler != null ? retryHandler : DefaultHttpRequestRetryHandler.INSTANCE,
+                unavailableRetryStrategy);
+        // retry exec of the builder is replaced by the one in decorateProtocolExec
+        super.disableAutomaticRetries();
+        return this;
+    }
+
+    /**
+     * Fail fast on routes with open circuits or full bulkheads, see {@link CircuitBreakerRegistry}.
+     * Short-circuited calls throw {@link ShortCircuitException} and are represented by tagged client spans.
+     *
+     * @param circuitBreakers circuit breakers, can be shared by multiple clients
+     */
+    public TracingHttpClientBuilder withCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+        return this;
+    }
+
+    /**
+     * Shrink timeouts of requests with a deadline to the remaining time and fail fast when the deadline passed,
+     * see {@link DeadlineClientExec}. Deadlines are set via {@link Constants#DEADLINE} or baggage.
+     *
+     * @param headerName name of the header carrying the remaining time in milliseconds downstream, null to
+     * send no header
+     */
+    public TracingHttpClientBuilder withDeadlinePropagation(String headerName) {
+        this.deadlinePropagation = true;
+        this.deadlineHeader = headerName;
+        return this;
+    }
+
+    /**
+     * Run span decorators of client spans on background threads instead of the request thread. Decorators
+     * receive snapshots of requests and responses without entities, spans are finished after decorators ran.
+     * Closing the client does not stop the threads of the runner, call {@link AsyncSpanDecorators#shutdown()}
+     * once all clients using it are closed.
+     *
+     * @param asyncDecorators runner of decorators, can be shared by multiple clients
+     */
+    public TracingHttpClientBuilder withAsyncDecorators(AsyncSpanDecorators asyncDecorators) {
+        this.asyncDecorators = asyncDecorators;
+        return this;
+    }
+
+    /**
+     * Attach the first bytes of request and response entities to client spans of failed exchanges,
+     * see {@link PayloadCapture}.
+     *
+     * @param payloadCapture entity capture, can be shared by multiple clients
+     */
+    public TracingHttpClientBuilder withPayloadCapture(PayloadCapture payloadCapture) {
+        this.payloadCapture = payloadCapture;
+        return this;
+    }
+
+    /**
+     * Shed tracing work step by step when the average instrumentation time per request exceeds the budget
+     * of the governor and restore it when the time drops, see {@link TracingGovernor}.
+     *
+     * @param governor governor, can be shared by multiple clients
+     */
+    public TracingHttpClientBuilder withGovernor(TracingGovernor governor) {
+        this.governor = governor;
+        return this;
+    }
+
+    /**
+     * Resolve operation names and constant tags of spans once per target host and method and set them on
+     * span builders, see {@link SpanTemplate}. Client spans carry peer tags when they start unless
+     * {@link ApacheClientSpanDecorator.StandardTags} sets them.
+     */
+    public TracingHttpClientBuilder withSpanTemplates() {
+        return withSpanTemplates(SpanTemplate.WITH_TAG);
+    }
+
+    /**
+     * @param spanTemplateApplier applier of template tags, e.g. a bulk tag setter of the tracer
+     * @see #withSpanTemplates()
+     */
+    public TracingHttpClientBuilder withSpanTemplates(SpanTemplate.Applier spanTemplateApplier) {
+        this.spanTemplateApplier = spanTemplateApplier;
+        return this;
+    }
+
+    /**
+     * Record connection leases on client spans, see {@link TracingHttpClientConnectionManager}.
+     * To sample pool counters create the connection manager explicitly and pass it to
+     * {@link #setConnectionManager(HttpClientConnectionManager)} instead.
+     */
+    public TracingHttpClientBuilder withConnectionPoolTracing() {
+        this.connectionPoolTracing = true;
+        return this;
+    }
+
+    /**
+     * Log DNS lookup, connect, TLS handshake and time to first byte durations on client spans,
+     * see {@link ConnectionPhaseTimings}. The connection manager is set on this builder, so pool and socket
+     * settings of the builder such as {@link #setMaxConnPerRoute(int)} or {@link #setSSLContext} do not apply,
+     * configure the manager instead. {@link #build()} fails if the manager is replaced afterwards.
+     *
+     * @param connectionManager connection manager built from {@link ConnectionPhaseTimings} factories, e.g.
+     * {@link ConnectionPhaseTimings#connectionManager()}
+     */
+    public TracingHttpClientBuilder withPhaseTimings(HttpClientConnectionManager connectionManager) {
+        if (connectionManager == null) {
+            throw new IllegalArgumentException("Connection manager is null");
+        }
+        this.phaseTimingsConnectionManager = connectionManager;
+        super.setConnectionManager(connectionManager);
+        return this;
+    }
+
+    @Override
+    protected ClientExecChain createMainExec(
+            HttpRequestExecutor requestExec,
+            HttpClientConnectionManager connManager,
+            ConnectionReuseStrategy reuseStrategy,
+            ConnectionKeepAliveStrategy keepAliveStrategy,
+            HttpProcessor proxyHttpProcessor,
+            AuthenticationStrategy targetAuthStrategy,
+            AuthenticationStrategy proxyAuthStrategy,
+            UserTokenHandler userTokenHandler) {
+        if (phaseTimingsConnectionManager != null) {
+            if (connManager != phaseTimingsConnectionManager) {
+                throw new IllegalStateException("Connection manager of phase timings was replaced, "
+                    + "set a manager built from ConnectionPhaseTimings factories via withPhaseTimings");
+            }
+            requestExec = ConnectionPhaseTimings.requestExecutor(requestExec);
+        }
+        if (connectionPoolTracing && !(connManager instanceof TracingHttpClientConnectionManager)) {
+            connManager = new TracingHttpClientConnectionManager(connManager, tracer);
+        }
+        return super.createMainExec(requestExec, connManager, reuseStrategy, keepAliveStrategy,
+                proxyHttpProcessor, targetAuthStrategy, proxyAuthStrategy, userTokenHandler);
+    }
+
     @Override
     protected ClientExecChain decorateProtocolExec(final ClientExecChain requestExecutor) {
-        return new TracingClientExec(requestExecutor, redirectStrategy,
-                redirectHandlingDisabled, injectDisabled, tracer, spanDecorators);
+        ClientExecChain execChain = routeStats != null
+                ? new RouteStatsClientExec(requestExecutor, routeStats) : requestExecutor;
+        if (metrics != null) {
+            execChain = new MetricsClientExec(execChain, metrics);
+        }
+        if (circuitBreakers != null) {
+            execChain = new CircuitBreakerClientExec(execChain, circuitBreakers);
+        }
+        if (deadlinePropagation) {
+            execChain = new DeadlineClientExec(execChain, tracer, deadlineHeader);
+        }
+        TracingClientExec.Settings settings = new TracingClientExec.Settings();
+        settings.sampler = sampler;
+        settings.notSampledHeader = notSampledHeader;
+        settings.collapseLocalSpan = collapseLocalSpan;
+        settings.finishSpansOnResponseConsumed = finishSpansOnResponseConsumed;
+        settings.headerInjector = headerInjector;
+        settings.policy = policy;
+        settings.retryTracking = retryTracking;
+        settings.asyncDecorators = asyncDecorators;
+        settings.payloadCapture = payloadCapture;
+        settings.governor = governor;
+        settings.spanTemplateApplier = spanTemplateApplier;
+        execChain = new TracingClientExec(execChain, redirectStrategy,
+                redirectHandlingDisabled, injectDisabled, tracer, spanDecorators, settings);
+        if (retryTracking != null) {
+            // same position as the retry execs of the builder, which are not installed
+            execChain = new RetryExec(execChain, retryTracking.getRetryHandler());
+            if (retryTracking.getServiceUnavailableRetryStrategy() != null) {
+                execChain = new ServiceUnavailableRetryExec(execChain,
+                        retryTracking.getServiceUnavailableRetryStrategy());
+            }
+        }
+        return execChain;
     }
 }
@@ -0,0 +1,247 @@
+package io.opentracing.contrib.apache.http.client;
+
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.tag.BooleanTag;
+import io.opentracing.tag.IntTag;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Connection manager which records connection leases on the client span created by {@link TracingClientExec}.
+ * Leases of requests without a client span, e.g. not sampled requests, are only counted.
+ *
+ * <p>When a connection is leased the span gets a {@code connection.leased} log with the time spent
+ * waiting for the pool, {@link #CONNECTION_REUSED} tag and per-route {@link #POOL_LEASED} and
+ * {@link #POOL_PENDING} tags. The counters are maintained by this class without locking the pool,
+ * they can be sampled at any time via {@link #getRouteCounters(HttpRoute)}.
+ *
+ * <p>Counters are held in a concurrent map bounded by {@code maxRoutes}, routes above the limit share
+ * {@link #getOtherRouteCounters()} and their spans are tagged with the shared counts.
+ */
+public class TracingHttpClientConnectionManager implements HttpClientConnectionManager {
+
+    public static final BooleanTag CONNECTION_REUSED = new BooleanTag("http.connection.reused");
+    public static final IntTag POOL_LEASED = new IntTag("pool.route.leased");
+    public static final IntTag POOL_PENDING = new IntTag("pool.route.pending");
+
+    static final String LEASED_EVENT = "connection.leased";
+    static final String WAIT_MICROS = "wait.micros";
+
+    public static final int DEFAULT_MAX_ROUTES = 256;
+
+    private final HttpClientConnectionManager delegate;
+    private final int maxRoutes;
+    private final ConcurrentMap<HttpRoute, RouteCounters> routeCounters = new ConcurrentHashMap<>();
+    private final RouteCounters otherRouteCounters = new RouteCounters();
+    private final ConcurrentMap<HttpClientConnection, RouteCounters> leases = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate connection manager, usually
+     * {@link org.apache.http.impl.conn.PoolingHttpClientConnectionManager}
+     * @param tracer tracer instance
+     */
+    public TracingHttpClientConnectionManager(HttpClientConnectionManager delegate, Tracer tracer) {
+        this(delegate, tracer, DEFAULT_MAX_ROUTES);
+    }
+
+    /**
+     * @param delegate connection manager, usually
+     * {@link org.apache.http.impl.conn.PoolingHttpClientConnectionManager}
+     * @param tracer tracer instance
+     * @param maxRoutes maximum number of routes with their own counters
+     */
+    public TracingHttpClientConnectionManager(HttpClientConnectionManager delegate, Tracer tracer,
+                                              int maxRoutes) {
+        this.delegate = delegate;
+        this.maxRoutes = maxRoutes;
+    }
+
+    public HttpClientConnectionManager getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @param route route
+     * @return lease counters of the route or null if no connection has been requested for the route or
+     * the route shares {@link #getOtherRouteCounters()}
+     */
+    public RouteCounters getRouteCounters(HttpRoute route) {
+        return routeCounters.get(route);
+    }
+
+    /**
+     * @return lease counters shared by routes above the maximum number of routes
+     */
+    public RouteCounters getOtherRouteCounters() {
+        return otherRouteCounters;
+    }
+
+    /**
+     * @return lease counters of all routes with their own counters
+     */
+    public Map<HttpRoute, RouteCounters> getRouteCounters() {
+        return Collections.unmodifiableMap(new HashMap<>(routeCounters));
+    }
+
+    /**
+     * Statistics of the underlying pool including available connections. Unlike
+     * {@link #getRouteCounters(HttpRoute)} this locks the pool.
+     *
+     * @param route route
+     * @return pool statistics or null if the delegate is not a pool
+     */
+    @SuppressWarnings("unchecked")
+    public PoolStats getPoolStats(HttpRoute route) {
+        if (delegate instanceof ConnPoolControl) {
+            return ((ConnPoolControl<HttpRoute>) delegate).getStats(route);
+        }
+        return null;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        return new TracingConnectionRequest(delegate.requestConnection(route, state), counters(route));
+    }
+
+    @Override
+    public void releaseConnection(HttpClientConnection conn, Object newState, long validDuration,
+                                  TimeUnit timeUnit) {
+        RouteCounters counters = leases.remove(conn);
+        if (counters != null) {
+            counters.leased.decrementAndGet();
+        }
+        delegate.releaseConnection(conn, newState, validDuration, timeUnit);
+    }
+
+    @Override
+    public void connect(HttpClientConnection conn, HttpRoute route, int connectTimeout, HttpContext context)
+            throws IOException {
+        delegate.connect(conn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+        delegate.upgrade(conn, route, context);
+    }
+
+    @Override
+    public void routeComplete(HttpClientConnection conn, HttpRoute route, HttpContext context)
+            throws IOException {
+        delegate.routeComplete(conn, route, context);
+    }
+
+    @Override
+    public void closeIdleConnections(long idletime, TimeUnit tunit) {
+        delegate.closeIdleConnections(idletime, tunit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    private RouteCounters counters(HttpRoute route) {
+        RouteCounters counters = routeCounters.get(route);
+        if (counters == null) {
+            if (routeCounters.size() >= maxRoutes) {
+                return otherRouteCounters;
+            }
+            RouteCounters newCounters = new RouteCounters();
+            counters = routeCounters.putIfAbsent(route, newCounters);
+            if (counters == null) {
+                counters = newCounters;
+            }
+        }
+        return counters;
+    }
+
+    private void onLeased(HttpClientConnection conn, RouteCounters counters, long waitNanos) {
+        int leased = counters.leased.incrementAndGet();
+        leases.put(conn, counters);
+
+        Span span = TracingClientExec.currentClientSpan();
+        if (span == null) {
+            return;
+        }
+        Map<String, Object> fields = new HashMap<>(4);
+        fields.put("event", LEASED_EVENT);
+        fields.put(WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(waitNanos));
+        span.log(fields);
+        CONNECTION_REUSED.set(span, conn.isOpen());
+        POOL_LEASED.set(span, leased);
+        POOL_PENDING.set(span, counters.pending.get());
+    }
+
+    /**
+     * Lease counters of a route. Leased connections are counted from the moment they are handed out
+     * until they are released, pending requests while they wait for the pool.
+     */
+    public static final class RouteCounters {
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        public int getLeased() {
+            return leased.get();
+        }
+
+        public int getPending() {
+            return pending.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[leased: " + leased.get() + "; pending: " + pending.get() + "]";
+        }
+    }
+
+    private final class TracingConnectionRequest implements ConnectionRequest {
+        private final ConnectionRequest delegate;
+        private final RouteCounters counters;
+
+        TracingConnectionRequest(ConnectionRequest delegate, RouteCounters counters) {
+            this.delegate = delegate;
+            this.counters = counters;
+        }
+
+        @Override
+        public HttpClientConnection get(long timeout, TimeUnit tunit)
+                throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+            long start = System.nanoTime();
+            counters.pending.incrementAndGet();
+            HttpClientConnection conn;
+            try {
+                conn = delegate.get(timeout, tunit);
+            } finally {
+                counters.pending.decrementAndGet();
+            }
+            onLeased(conn, counters, System.nanoTime() - start);
+            return conn;
+        }
+
+        @Override
+        public boolean cancel() {
+            return delegate.cancel();
+        }
+    }
+}
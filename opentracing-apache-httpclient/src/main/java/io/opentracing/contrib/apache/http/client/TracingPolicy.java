@@ -0,0 +1,267 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * Rules selecting how requests are traced based on target host, method and URI path. Rules can skip
+ * tracing, skip injection, set a sampler or decorators. Rules are evaluated in the order they were
+ * declared and the first matching rule applies, requests without a matching rule are traced as configured
+ * on the builder.
+ *
+ * <p>Path patterns consist of segments separated by {@code /}. A segment is either literal, or a template
+ * {@code {name}} or {@code *} matching any single segment. Pattern ending with {@code /**} matches any
+ * remaining segments, {@code /**} alone matches all paths. Empty segments are ignored.
+ *
+ * <p>Patterns are compiled into a trie per host, matching walks the path once without regular expressions.
+ * The policy is evaluated once per logical request, redirects follow the rule of the first request.
+ */
+public final class TracingPolicy {
+
+    private static final String ANY_SEGMENT = "*";
+    private static final String ANY_SUFFIX = "**";
+
+    private final Rule[] rules;
+    private final Map<String, Node> hostRoots = new HashMap<>();
+    private final Node anyHostRoot = new Node();
+
+    /**
+     * @param rules rules in order of precedence, rules must not be modified afterwards
+     */
+    public TracingPolicy(List<Rule> rules) {
+        this.rules = rules.toArray(new Rule[rules.size()]);
+        for (int i = 0; i < this.rules.length; i++) {
+            Rule rule = this.rules[i];
+            Node root = anyHostRoot;
+            if (rule.host != null) {
+                root = hostRoots.get(rule.host);
+                if (root == null) {
+                    root = new Node();
+                    hostRoots.put(rule.host, root);
+                }
+            }
+            root.add(rule.pathPattern, i);
+        }
+    }
+
+    public TracingPolicy(Rule... rules) {
+        this(Arrays.asList(rules));
+    }
+
+    /**
+     * @return the first matching rule or null
+     */
+    public Rule match(HttpRoute route, HttpRequestWrapper request) {
+        String path = PathNormalizer.rawPath(request);
+        String method = request.getMethod();
+
+        int match = Integer.MAX_VALUE;
+        HttpHost target = route.getTargetHost();
+        if (!hostRoots.isEmpty() && target != null) {
+            Node hostRoot = hostRoots.get(target.getHostName().toLowerCase(Locale.ROOT));
+            if (hostRoot != null) {
+                match = hostRoot.match(path, 0, method, rules, match);
+            }
+        }
+        match = anyHostRoot.match(path, 0, method, rules, match);
+        return match == Integer.MAX_VALUE ? null : rules[match];
+    }
+
+    /**
+     * Matching criteria and tracing settings of a group of requests.
+     */
+    public static final class Rule {
+        private final String pathPattern;
+        private String host;
+        private String method;
+        private ApacheClientSampler sampler;
+        private boolean injectionDisabled;
+        private List<ApacheClientSpanDecorator> spanDecorators;
+
+        private Rule(String pathPattern) {
+            this.pathPattern = pathPattern;
+        }
+
+        /**
+         * @param pathPattern path pattern e.g. {@code /health/**} or {@code /users/{id}/orders}
+         */
+        public static Rule forPath(String pathPattern) {
+            return new Rule(pathPattern);
+        }
+
+        /**
+         * @param host target host name, all its paths match
+         */
+        public static Rule forHost(String host) {
+            return new Rule("/" + ANY_SUFFIX).withHost(host);
+        }
+
+        /**
+         * @param host target host name, case insensitive
+         */
+        public Rule withHost(String host) {
+            this.host = host.toLowerCase(Locale.ROOT);
+            return this;
+        }
+
+        public Rule withMethod(String method) {
+            this.method = method;
+            return this;
+        }
+
+        /**
+         * Matching requests are not traced.
+         */
+        public Rule notTraced() {
+            return withSampler(ApacheClientSampler.NEVER);
+        }
+
+        /**
+         * @param samplingRate fraction of matching requests which are traced
+         */
+        public Rule withSampleRate(double samplingRate) {
+            return withSampler(new ApacheClientSampler.Probabilistic(samplingRate));
+        }
+
+        /**
+         * @param sampler sampler used instead of the sampler of the builder
+         */
+        public Rule withSampler(ApacheClientSampler sampler) {
+            this.sampler = sampler;
+            return this;
+        }
+
+        /**
+         * Matching requests are traced but span contexts are not injected.
+         */
+        public Rule disableInjection() {
+            this.injectionDisabled = true;
+            return this;
+        }
+
+        /**
+         * @param spanDecorators decorators used instead of the decorators of the builder
+         */
+        public Rule withSpanDecorators(List<ApacheClientSpanDecorator> spanDecorators) {
+            this.spanDecorators = Collections.unmodifiableList(new ArrayList<>(spanDecorators));
+            return this;
+        }
+
+        public ApacheClientSampler getSampler() {
+            return sampler;
+        }
+
+        public boolean isInjectionDisabled() {
+            return injectionDisabled;
+        }
+
+        /**
+         * @return decorators or null if the decorators of the builder are used
+         */
+        public List<ApacheClientSpanDecorator> getSpanDecorators() {
+            return spanDecorators;
+        }
+
+        @Override
+        public String toString() {
+            return (method != null ? method + " " : "") + (host != null ? host : "") + pathPattern;
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private Node anySegment;
+        /**
+         * Indexes of rules ending at this node.
+         */
+        private final List<Integer> rules = new ArrayList<>(1);
+        /**
+         * Indexes of rules ending at this node with {@code /**}.
+         */
+        private final List<Integer> suffixRules = new ArrayList<>(1);
+
+        void add(String pattern, int ruleIndex) {
+            Node node = this;
+            int pos = 0;
+            while ((pos = nextSegmentStart(pattern, pos)) < pattern.length()) {
+                int end = segmentEnd(pattern, pos);
+                String segment = pattern.substring(pos, end);
+                if (ANY_SUFFIX.equals(segment) && nextSegmentStart(pattern, end) == pattern.length()) {
+                    node.suffixRules.add(ruleIndex);
+                    return;
+                }
+                if (ANY_SEGMENT.equals(segment) || (segment.startsWith("{") && segment.endsWith("}"))) {
+                    if (node.anySegment == null) {
+                        node.anySegment = new Node();
+                    }
+                    node = node.anySegment;
+                } else {
+                    Node child = node.children.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(segment, child);
+                    }
+                    node = child;
+                }
+                pos = end;
+            }
+            node.rules.add(ruleIndex);
+        }
+
+        /**
+         * @return index of the first matching rule or {@code bestMatch} if there is no better match
+         */
+        int match(String path, int pos, String method, Rule[] allRules, int bestMatch) {
+            bestMatch = firstMatching(suffixRules, method, allRules, bestMatch);
+            pos = nextSegmentStart(path, pos);
+            if (pos == path.length()) {
+                return firstMatching(rules, method, allRules, bestMatch);
+            }
+            int end = segmentEnd(path, pos);
+            if (!children.isEmpty()) {
+                Node child = children.get(path.substring(pos, end));
+                if (child != null) {
+                    bestMatch = child.match(path, end, method, allRules, bestMatch);
+                }
+            }
+            if (anySegment != null) {
+                bestMatch = anySegment.match(path, end, method, allRules, bestMatch);
+            }
+            return bestMatch;
+        }
+
+        private static int firstMatching(List<Integer> ruleIndexes, String method, Rule[] allRules, int bestMatch) {
+            for (int i = 0; i < ruleIndexes.size(); i++) {
+                int ruleIndex = ruleIndexes.get(i);
+                if (ruleIndex >= bestMatch) {
+                    break;
+                }
+                String ruleMethod = allRules[ruleIndex].method;
+                if (ruleMethod == null || ruleMethod.equalsIgnoreCase(method)) {
+                    return ruleIndex;
+                }
+            }
+            return bestMatch;
+        }
+
+        private static int nextSegmentStart(String path, int pos) {
+            while (pos < path.length() && path.charAt(pos) == '/') {
+                pos++;
+            }
+            return pos;
+        }
+
+        private static int segmentEnd(String path, int pos) {
+            int end = path.indexOf('/', pos);
+            return end < 0 ? path.length() : end;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerRegistryTest {
+
+    private static final HttpRoute ROUTE = new HttpRoute(new HttpHost("localhost", 8080));
+
+    @Test
+    public void testHalfOpenTrialCall() {
+        CircuitBreakerRegistry.Circuit circuit = new CircuitBreakerRegistry()
+                .withWindow(4, 4)
+                .withOpenDuration(0)
+                .circuit(ROUTE);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertNull(circuit.tryStart());
+            circuit.end(0, i % 2 == 0);
+        }
+        Assert.assertEquals(CircuitBreakerRegistry.State.OPEN, circuit.getState());
+
+        // open duration elapsed, a single trial call is let through
+        Assert.assertNull(circuit.tryStart());
+        Assert.assertEquals(CircuitBreakerRegistry.State.HALF_OPEN, circuit.getState());
+        Assert.assertEquals(ShortCircuitException.Reason.CIRCUIT_OPEN, circuit.tryStart());
+        circuit.end(0, true);
+        Assert.assertEquals(CircuitBreakerRegistry.State.OPEN, circuit.getState());
+
+        Assert.assertNull(circuit.tryStart());
+        circuit.end(0, false);
+        Assert.assertEquals(CircuitBreakerRegistry.State.CLOSED, circuit.getState());
+        Assert.assertTrue(Double.isNaN(circuit.getFailureRate()));
+        Assert.assertEquals(1, circuit.getShortCircuited());
+    }
+
+    @Test
+    public void testHalfOpenDecidedByTrialCall() throws Exception {
+        final CircuitBreakerRegistry.Circuit circuit = new CircuitBreakerRegistry()
+                .withWindow(2, 2)
+                .withOpenDuration(0)
+                .circuit(ROUTE);
+        // call started before the circuit opened
+        Assert.assertNull(circuit.tryStart());
+        Assert.assertNull(circuit.tryStart());
+        circuit.end(0, true);
+        Assert.assertNull(circuit.tryStart());
+        circuit.end(0, true);
+        Assert.assertEquals(CircuitBreakerRegistry.State.OPEN, circuit.getState());
+
+        final CountDownLatch trialStarted = new CountDownLatch(1);
+        final CountDownLatch callEnded = new CountDownLatch(1);
+        Thread trial = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertNull(circuit.tryStart());
+                trialStarted.countDown();
+                try {
+                    callEnded.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                circuit.end(0, false);
+            }
+        });
+        trial.start();
+        trialStarted.await();
+        circuit.end(0, false);
+        Assert.assertEquals(CircuitBreakerRegistry.State.HALF_OPEN, circuit.getState());
+        callEnded.countDown();
+        trial.join();
+        Assert.assertEquals(CircuitBreakerRegistry.State.CLOSED, circuit.getState());
+        Assert.assertTrue(Double.isNaN(circuit.getFailureRate()));
+
+        Assert.assertNull(circuit.tryStart());
+        circuit.end(0, false);
+        Assert.assertNull(circuit.tryStart());
+        circuit.end(0, false);
+        Assert.assertEquals(0.0, circuit.getFailureRate(), 0);
+    }
+
+    @Test
+    public void testSlowCalls() {
+        CircuitBreakerRegistry.Circuit circuit = new CircuitBreakerRegistry()
+                .withWindow(2, 2)
+                .withSlowCallThreshold(10, 1.0)
+                .circuit(ROUTE);
+        circuit.tryStart();
+        circuit.end(TimeUnit.MILLISECONDS.toNanos(20), false);
+        circuit.tryStart();
+        circuit.end(TimeUnit.MILLISECONDS.toNanos(1), false);
+        Assert.assertEquals(CircuitBreakerRegistry.State.CLOSED, circuit.getState());
+        Assert.assertEquals(0.5, circuit.getSlowCallRate(), 0);
+        // the oldest outcome is overwritten
+        circuit.tryStart();
+        circuit.end(TimeUnit.MILLISECONDS.toNanos(20), false);
+        circuit.tryStart();
+        circuit.end(TimeUnit.MILLISECONDS.toNanos(20), false);
+        Assert.assertEquals(CircuitBreakerRegistry.State.OPEN, circuit.getState());
+        Assert.assertEquals(0.0, circuit.getFailureRate(), 0);
+    }
+
+    @Test
+    public void testBulkhead() {
+        CircuitBreakerRegistry.Circuit circuit = new CircuitBreakerRegistry()
+                .withBulkhead(2)
+                .circuit(ROUTE);
+        Assert.assertNull(circuit.tryStart());
+        Assert.assertNull(circuit.tryStart());
+        Assert.assertEquals(ShortCircuitException.Reason.BULKHEAD_FULL, circuit.tryStart());
+        circuit.end(0, false);
+        Assert.assertNull(circuit.tryStart());
+        Assert.assertEquals(1, circuit.getShortCircuited());
+    }
+
+    @Test
+    public void testMaxRoutes() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry().withMaxRoutes(1);
+        Assert.assertNotNull(registry.circuit(ROUTE));
+        Assert.assertNull(registry.circuit(new HttpRoute(new HttpHost("other"))));
+        Assert.assertSame(registry.getCircuit(ROUTE), registry.circuit(ROUTE));
+    }
+}
@@ -0,0 +1,51 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < (1L << 34); value = value * 3 / 2 + 1) {
+            int index = LatencyHistogram.index(value);
+            Assert.assertTrue(LatencyHistogram.lowestEquivalentValue(index) <= value);
+            Assert.assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+            Assert.assertEquals(index, LatencyHistogram.index(LatencyHistogram.lowestEquivalentValue(index)));
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000000, snapshot.getMaxMicros());
+        Assert.assertEquals(500500, snapshot.getMeanMicros(), 1);
+        Assert.assertEquals(500000, snapshot.getValueAtPercentile(50), 500000 * 0.04);
+        Assert.assertEquals(990000, snapshot.getValueAtPercentile(99), 990000 * 0.04);
+        Assert.assertEquals(1000000, snapshot.getValueAtPercentile(100));
+        Assert.assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testMergeAndReset() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(TimeUnit.MILLISECONDS.toNanos(1));
+        second.record(TimeUnit.MILLISECONDS.toNanos(3));
+        LatencyHistogram.Snapshot merged = first.snapshot().merge(second.snapshot());
+        Assert.assertEquals(2, merged.getCount());
+        Assert.assertEquals(4000, merged.getSumMicros());
+        Assert.assertEquals(3000, merged.getMaxMicros());
+
+        first.reset();
+        Assert.assertEquals(0, first.snapshot().getCount());
+        Assert.assertEquals(0, first.snapshot().getMaxMicros());
+    }
+}
@@ -0,0 +1,169 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.localserver.LocalServerTestBase;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+public class TracingCachingHttpClientBuilderTest extends LocalServerTestBase {
+
+    private static MockTracer mockTracer = new MockTracer(new ThreadLocalScopeManager(), MockTracer.Propagator.TEXT_MAP);
+
+    private HttpHost serverHost;
+    private TracingCachingHttpClientBuilder cachingClientBuilder;
+    private CacheableHandler cacheableHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        this.cacheableHandler = new CacheableHandler();
+        this.serverBootstrap.registerHandler(CacheableHandler.MAPPING, cacheableHandler);
+        this.serverHost = super.start();
+        this.cachingClientBuilder = new TracingCachingHttpClientBuilder(DefaultRedirectStrategy.INSTANCE, false,
+                mockTracer, Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()));
+    }
+
+    @After
+    public void shutDown() throws Exception {
+        if(this.server != null) {
+            this.server.shutdown(1L, TimeUnit.SECONDS);
+        }
+        mockTracer.reset();
+    }
+
+    @Test
+    public void testCacheMissAndHit() throws IOException {
+        try (CloseableHttpClient client = cachingClientBuilder.build()) {
+            assertCacheMissAndHit(client);
+        }
+    }
+
+    @Test
+    public void testMappedFileStorage() throws IOException {
+        File file = File.createTempFile("http-cache", ".bin");
+        file.deleteOnExit();
+        try (MappedFileHttpCacheStorage storage = new MappedFileHttpCacheStorage(file, 64 * 1024)) {
+            cachingClientBuilder.setHttpCacheStorage(storage);
+            try (CloseableHttpClient client = cachingClientBuilder.build()) {
+                assertCacheMissAndHit(client);
+            }
+            Assert.assertEquals(1, storage.size());
+        }
+    }
+
+    @Test
+    public void testMappedFileStorageEviction() throws IOException {
+        File file = File.createTempFile("http-cache", ".bin");
+        file.deleteOnExit();
+        HttpCacheEntry entry = new HttpCacheEntry(new Date(), new Date(),
+                new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"), new Header[0],
+                new HeapResource(new byte[16 * 1024]));
+        // room for two serialized entries
+        try (MappedFileHttpCacheStorage storage = new MappedFileHttpCacheStorage(file, 40 * 1024)) {
+            storage.putEntry("a", entry);
+            storage.putEntry("b", entry);
+            Assert.assertEquals(16 * 1024, storage.getEntry("a").getResource().length());
+            storage.putEntry("c", entry);
+            // the ring wraps and overwrites the oldest entry
+            Assert.assertNull(storage.getEntry("a"));
+            Assert.assertNotNull(storage.getEntry("b"));
+            Assert.assertNotNull(storage.getEntry("c"));
+
+            storage.removeEntry("b");
+            Assert.assertNull(storage.getEntry("b"));
+            Assert.assertEquals(1, storage.size());
+        }
+    }
+
+    @Test
+    public void testMappedFileStorageClosed() throws IOException {
+        File file = File.createTempFile("http-cache", ".bin");
+        file.deleteOnExit();
+        HttpCacheEntry entry = new HttpCacheEntry(new Date(), new Date(),
+                new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"), new Header[0],
+                new HeapResource(new byte[16]));
+        MappedFileHttpCacheStorage storage = new MappedFileHttpCacheStorage(file, 1024);
+        storage.putEntry("a", entry);
+        storage.close();
+
+        Assert.assertEquals(0, storage.size());
+        try {
+            storage.getEntry("a");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            storage.putEntry("b", entry);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private void assertCacheMissAndHit(CloseableHttpClient client) throws IOException {
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(CacheableHandler.BODY,
+                    EntityUtils.toString(client.execute(new HttpGet(serverUrl(CacheableHandler.MAPPING))).getEntity()));
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(4, mockSpans.size());
+        MockSpan missSpan = mockSpans.get(0);
+        Assert.assertEquals("miss", missSpan.tags().get(CacheTracingClientExec.CACHE_STATUS));
+        MockSpan hitSpan = mockSpans.get(2);
+        Assert.assertEquals("hit", hitSpan.tags().get(CacheTracingClientExec.CACHE_STATUS));
+        Assert.assertEquals("cache.hit", hitSpan.logEntries().get(0).fields().get("event"));
+        Assert.assertNull(hitSpan.tags().get(CacheTracingClientExec.CACHE_STALE));
+        Assert.assertEquals(1, cacheableHandler.requests);
+        TracingHttpClientBuilderTest.assertOnErrors(mockSpans);
+    }
+
+    private String serverUrl(String path) {
+        return serverHost.toString() + path;
+    }
+
+    public static class CacheableHandler implements HttpRequestHandler {
+        public static final String MAPPING = "/cacheable";
+        public static final String BODY = "cacheable";
+        private volatile int requests;
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            requests++;
+            response.setStatusCode(HttpStatus.SC_OK);
+            response.setHeader("Cache-Control", "max-age=60");
+            response.setEntity(new StringEntity(BODY));
+        }
+    }
+}
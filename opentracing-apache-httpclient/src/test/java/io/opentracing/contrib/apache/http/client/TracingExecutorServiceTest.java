@@ -0,0 +1,206 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.localserver.LocalServerTestBase;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.tag.Tags;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+/**
+ * Runs many concurrent requests on virtual threads when the JDK supports them, on a thread pool otherwise.
+ */
+public class TracingExecutorServiceTest extends LocalServerTestBase {
+
+    private static final int REQUESTS = 2000;
+    private static final int THREADS = 64;
+
+    private static MockTracer mockTracer = new MockTracer(new ThreadLocalScopeManager(), MockTracer.Propagator.TEXT_MAP);
+
+    private HttpHost serverHost;
+    private CloseableHttpClient client;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        this.serverHost = super.start();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(THREADS);
+        connectionManager.setDefaultMaxPerRoute(THREADS);
+        this.client = new TracingHttpClientBuilder(DefaultRedirectStrategy.INSTANCE, false, mockTracer,
+                Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()))
+                .setConnectionManager(connectionManager)
+                .build();
+        this.executor = newExecutor();
+    }
+
+    @After
+    public void shutDown() throws Exception {
+        executor.shutdownNow();
+        client.close();
+        if(this.server != null) {
+            this.server.shutdown(1L, TimeUnit.SECONDS);
+        }
+        mockTracer.reset();
+    }
+
+    @Test
+    public void testParentage() throws Exception {
+        ExecutorService tracingExecutor = new TracingExecutorService(executor, mockTracer);
+        List<Span> parents = new ArrayList<>(REQUESTS);
+        List<Future<Integer>> futures = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            Span parent = mockTracer.buildSpan("parent-" + i).start();
+            parents.add(parent);
+            try (Scope scope = mockTracer.activateSpan(parent)) {
+                futures.add(tracingExecutor.submit(request(i)));
+            }
+        }
+        for (Future<Integer> future : futures) {
+            Assert.assertEquals(200, future.get(30, TimeUnit.SECONDS).intValue());
+        }
+        for (Span parent : parents) {
+            parent.finish();
+        }
+
+        assertParentage(mockTracer.finishedSpans());
+        assertNoActiveSpan(executor);
+    }
+
+    @Test
+    public void testWrapCallable() throws Exception {
+        Span parent = mockTracer.buildSpan("parent-0").start();
+        Future<Integer> future;
+        try (Scope scope = mockTracer.activateSpan(parent)) {
+            future = executor.submit(TracingExecutorService.wrap(request(0), mockTracer));
+        }
+        Assert.assertEquals(200, future.get(30, TimeUnit.SECONDS).intValue());
+        parent.finish();
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+        assertParentage(mockSpans);
+        assertNoActiveSpan(executor);
+    }
+
+    @Test
+    public void testNoActiveSpan() throws Exception {
+        Future<Integer> future = new TracingExecutorService(executor, mockTracer).submit(request(0, null));
+        Assert.assertEquals(200, future.get(30, TimeUnit.SECONDS).intValue());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertEquals(0, mockSpans.get(1).parentId());
+    }
+
+    private Callable<Integer> request(int index) {
+        return request(index, "parent-" + index);
+    }
+
+    /**
+     * @param parent operation name of the span expected to be active, null if none
+     */
+    private Callable<Integer> request(final int index, final String parent) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                assertActiveSpan(parent);
+                try (CloseableHttpResponse response =
+                         client.execute(new HttpGet(serverHost.toURI() + "/echo/" + index))) {
+                    EntityUtils.consume(response.getEntity());
+                    // client span scope has been closed on this thread
+                    assertActiveSpan(parent);
+                    return response.getStatusLine().getStatusCode();
+                }
+            }
+        };
+    }
+
+    private static void assertActiveSpan(String operationName) {
+        MockSpan activeSpan = (MockSpan) mockTracer.activeSpan();
+        Assert.assertEquals(operationName, activeSpan != null ? activeSpan.operationName() : null);
+    }
+
+    /**
+     * Client span of {@code /echo/i} is a child of a local span which is a child of {@code parent-i}.
+     */
+    private static void assertParentage(List<MockSpan> mockSpans) {
+        Map<Long, MockSpan> spansById = new HashMap<>();
+        for (MockSpan mockSpan : mockSpans) {
+            spansById.put(mockSpan.context().spanId(), mockSpan);
+        }
+        int clientSpans = 0;
+        for (MockSpan mockSpan : mockSpans) {
+            if (!Tags.SPAN_KIND_CLIENT.equals(mockSpan.tags().get(Tags.SPAN_KIND.getKey()))) {
+                continue;
+            }
+            clientSpans++;
+            String url = (String) mockSpan.tags().get(Tags.HTTP_URL.getKey());
+            String index = url.substring(url.lastIndexOf('/') + 1);
+            MockSpan localSpan = spansById.get(mockSpan.parentId());
+            MockSpan parent = spansById.get(localSpan.parentId());
+            Assert.assertEquals("parent-" + index, parent.operationName());
+            Assert.assertEquals(parent.context().traceId(), mockSpan.context().traceId());
+        }
+        Assert.assertEquals(mockSpans.size() / 3, clientSpans);
+        TracingHttpClientBuilderTest.assertOnErrors(mockSpans);
+    }
+
+    /**
+     * Occupies all threads of the executor at once and checks that no scope is left active on them.
+     */
+    private static void assertNoActiveSpan(ExecutorService executor) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<Span>> futures = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<Span>() {
+                @Override
+                public Span call() throws Exception {
+                    barrier.await(30, TimeUnit.SECONDS);
+                    return mockTracer.activeSpan();
+                }
+            }));
+        }
+        for (Future<Span> future : futures) {
+            Assert.assertNull(future.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Virtual thread per task executor on JDK 21+, a fixed thread pool otherwise.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(THREADS);
+        }
+    }
+}
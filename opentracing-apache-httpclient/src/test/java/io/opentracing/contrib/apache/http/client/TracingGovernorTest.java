@@ -0,0 +1,41 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TracingGovernorTest {
+
+    @Test
+    public void testDegradeAndRecover() {
+        TracingGovernor governor = new TracingGovernor(100, TimeUnit.NANOSECONDS, 2, 0.5, 2);
+        governor.record(150);
+        Assert.assertEquals(TracingGovernor.Level.FULL, governor.getLevel());
+        governor.record(150);
+        Assert.assertEquals(TracingGovernor.Level.NO_DECORATORS, governor.getLevel());
+
+        for (int i = 0; i < 6; i++) {
+            governor.record(500);
+        }
+        Assert.assertEquals(TracingGovernor.Level.PROPAGATION_ONLY, governor.getLevel());
+
+        // within budget but above the recovery threshold
+        governor.record(80);
+        governor.record(80);
+        Assert.assertEquals(TracingGovernor.Level.PROPAGATION_ONLY, governor.getLevel());
+
+        for (int i = 0; i < 4; i++) {
+            governor.record(10);
+        }
+        Assert.assertEquals(TracingGovernor.Level.NO_LOCAL_SPAN, governor.getLevel());
+        for (int i = 0; i < 8; i++) {
+            governor.record(10);
+        }
+        Assert.assertEquals(TracingGovernor.Level.FULL, governor.getLevel());
+
+        Assert.assertEquals(2, governor.getLevelChanges(TracingGovernor.Level.NO_DECORATORS));
+        Assert.assertEquals(2, governor.getLevelChanges(TracingGovernor.Level.NO_LOCAL_SPAN));
+        Assert.assertEquals(1, governor.getLevelChanges(TracingGovernor.Level.PROPAGATION_ONLY));
+        Assert.assertEquals(1, governor.getLevelChanges(TracingGovernor.Level.FULL));
+    }
+}
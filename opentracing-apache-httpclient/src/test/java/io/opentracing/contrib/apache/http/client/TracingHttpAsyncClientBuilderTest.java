@@ -0,0 +1,149 @@
+package io.opentracing.contrib.apache.http.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.localserver.LocalServerTestBase;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.opentracing.Scope;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.tag.Tags;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+public class TracingHttpAsyncClientBuilderTest extends LocalServerTestBase {
+
+    private static MockTracer mockTracer = new MockTracer(new ThreadLocalScopeManager(), MockTracer.Propagator.TEXT_MAP);
+
+    private HttpHost serverHost;
+    private CloseableHttpAsyncClient asyncClient;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        this.serverBootstrap
+                .registerHandler(TracingHttpClientBuilderTest.RedirectHandler.MAPPING,
+                        new TracingHttpClientBuilderTest.RedirectHandler())
+                .registerHandler(TracingHttpClientBuilderTest.PropagationHandler.MAPPING,
+                        new TracingHttpClientBuilderTest.PropagationHandler());
+        this.serverHost = super.start();
+
+        this.asyncClient = new TracingHttpAsyncClientBuilder(mockTracer,
+                Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()))
+                .build();
+        this.asyncClient.start();
+    }
+
+    @After
+    public void shutDown() throws Exception {
+        this.asyncClient.close();
+        if(this.server != null) {
+            this.server.shutdown(1L, TimeUnit.SECONDS);
+        }
+        mockTracer.reset();
+    }
+
+    @Test
+    public void testStandardTags() throws Exception {
+        HttpResponse response = asyncClient.execute(new HttpGet(serverUrl("/echo/a")), null).get();
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals("GET", mockSpan.operationName());
+        Assert.assertEquals(6, mockSpan.tags().size());
+        Assert.assertEquals(Tags.SPAN_KIND_CLIENT, mockSpan.tags().get(Tags.SPAN_KIND.getKey()));
+        Assert.assertEquals("GET", mockSpan.tags().get(Tags.HTTP_METHOD.getKey()));
+        Assert.assertEquals(serverUrl("/echo/a"), mockSpan.tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(200, mockSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(serverHost.getPort(), mockSpan.tags().get(Tags.PEER_PORT.getKey()));
+        Assert.assertEquals(serverHost.getHostName(), mockSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+
+        MockSpan localSpan = mockSpans.get(1);
+        Assert.assertEquals(localSpan.context().spanId(), mockSpan.parentId());
+        Assert.assertEquals(TracingClientExec.COMPONENT_NAME, localSpan.tags().get(Tags.COMPONENT.getKey()));
+        TracingHttpClientBuilderTest.assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testRedirect() throws Exception {
+        asyncClient.execute(new HttpGet(serverUrl(TracingHttpClientBuilderTest.RedirectHandler.MAPPING)), null).get();
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+
+        MockSpan localSpan = mockSpans.get(2);
+        Assert.assertEquals(301, mockSpans.get(0).tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(200, mockSpans.get(1).tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(localSpan.context().spanId(), mockSpans.get(0).parentId());
+        Assert.assertEquals(localSpan.context().spanId(), mockSpans.get(1).parentId());
+
+        Assert.assertEquals(
+                TracingHttpClientBuilderTest.PropagationHandler.lastRequest.getFirstHeader("spanId").getValue(),
+                String.valueOf(mockSpans.get(1).context().spanId()));
+        TracingHttpClientBuilderTest.assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testActiveParentSpan() throws Exception {
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        try (Scope ignored = mockTracer.activateSpan(parent)) {
+            asyncClient.execute(new HttpGet(serverUrl("/echo/a")), null).get();
+        } finally {
+            parent.finish();
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+        Assert.assertEquals(parent.context().spanId(), mockSpans.get(1).parentId());
+        Assert.assertEquals(parent.context().traceId(), mockSpans.get(0).context().traceId());
+    }
+
+    @Test
+    public void testManualParentSpan() throws Exception {
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(Constants.PARENT_CONTEXT, parent.context());
+
+        asyncClient.execute(new HttpGet(serverUrl("/echo/a")), context, null).get();
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertEquals(parent.context().spanId(), mockSpans.get(1).parentId());
+    }
+
+    @Test
+    public void testUnknownHostException() throws Exception {
+        try {
+            asyncClient.execute(new HttpGet("http://notexisting.example.com"), null).get();
+            Assert.fail();
+        } catch (ExecutionException ex) {
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals(Boolean.TRUE, mockSpan.tags().get(Tags.ERROR.getKey()));
+        Assert.assertEquals(1, mockSpan.logEntries().size());
+        Assert.assertEquals(Tags.ERROR.getKey(), mockSpan.logEntries().get(0).fields().get("event"));
+    }
+
+    protected String serverUrl(String path) {
+        return serverHost.toString() + path;
+    }
+}
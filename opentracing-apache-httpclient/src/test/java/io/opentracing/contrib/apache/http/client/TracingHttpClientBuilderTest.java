@@ -1,33 +1,56 @@
 package io.opentracing.contrib.apache.http.client;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.SocketTimeoutException;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.*;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.DefaultServiceUnavailableRetryStrategy;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
 import org.apache.http.localserver.LocalServerTestBase;
 import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestExecutor;
 import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -35,8 +58,11 @@ import org.junit.Test;
 
 import io.opentracing.Scope;
 import io.opentracing.Span;
+import io.opentracing.Tracer;
 import io.opentracing.mock.MockSpan;
 import io.opentracing.mock.MockTracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMap;
 import io.opentracing.tag.Tags;
 import io.opentracing.util.ThreadLocalScopeManager;
 
@@ -56,7 +82,11 @@ public class TracingHttpClientBuilderTest extends LocalServerTestBase {
                 Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()));
 
         this.serverBootstrap.registerHandler(RedirectHandler.MAPPING, new RedirectHandler())
-                .registerHandler(PropagationHandler.MAPPING, new PropagationHandler());
+                .registerHandler(PropagationHandler.MAPPING, new PropagationHandler())
+                .registerHandler(PayloadHandler.MAPPING, new PayloadHandler())
+                .registerHandler(UnavailableHandler.MAPPING, new UnavailableHandler())
+                .registerHandler(SlowFirstHandler.MAPPING, new SlowFirstHandler())
+                .registerHandler(FailingHandler.MAPPING, new FailingHandler());
         this.serverHost = super.start();
     }
 
@@ -96,6 +126,52 @@ public class TracingHttpClientBuilderTest extends LocalServerTestBase {
         assertLocalSpan(mockSpans.get(1));
     }
 
+    @Test
+    public void testStandardTagsPeerCache() throws IOException {
+        ApacheClientSpanDecorator.StandardTags standardTags = new ApacheClientSpanDecorator.StandardTags(1);
+        {
+            CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                    .withSpanDecorators(Collections.<ApacheClientSpanDecorator>singletonList(standardTags))
+                    .build();
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+            EntityUtils.consume(client.execute(serverHost,
+                    new BasicHttpRequest("GET", "/echo/b", HttpVersion.HTTP_1_1)).getEntity());
+            // the cache is full, the host is tagged without caching
+            HttpHost uncachedHost = new HttpHost("127.0.0.1", serverHost.getPort(), serverHost.getSchemeName());
+            EntityUtils.consume(client.execute(new HttpGet(uncachedHost.toURI() + "/echo/c")).getEntity());
+        }
+
+        Assert.assertEquals(1, standardTags.cachedPeers());
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(6, mockSpans.size());
+        MockSpan cachedSpan = mockSpans.get(2);
+        Assert.assertEquals(serverUrl("/echo/b"), cachedSpan.tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(serverHost.getHostName(), cachedSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+        Assert.assertEquals(serverHost.getPort(), cachedSpan.tags().get(Tags.PEER_PORT.getKey()));
+        Assert.assertEquals(mockSpans.get(0).tags().get(Tags.PEER_HOSTNAME.getKey()),
+                cachedSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+        MockSpan uncachedSpan = mockSpans.get(4);
+        Assert.assertEquals("127.0.0.1", uncachedSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+        Assert.assertEquals(serverHost.getPort(), uncachedSpan.tags().get(Tags.PEER_PORT.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testStandardTagsErrorLogFields() {
+        IOException ex = new IOException("failure");
+        MockSpan span = mockTracer.buildSpan("GET").start();
+        new ApacheClientSpanDecorator.StandardTags()
+                .onError(new BasicHttpRequest("GET", "/"), new BasicHttpContext(), ex, span);
+        span.finish();
+
+        Assert.assertEquals(Boolean.TRUE, span.tags().get(Tags.ERROR.getKey()));
+        Assert.assertEquals(1, span.logEntries().size());
+        Map<String, ?> fields = span.logEntries().get(0).fields();
+        Assert.assertEquals(2, fields.size());
+        Assert.assertEquals(Tags.ERROR.getKey(), fields.get("event"));
+        Assert.assertSame(ex, fields.get("error.object"));
+    }
+
     @Test
     public void testBasicHttpRequest() throws IOException {
         {
@@ -152,6 +228,8 @@ public class TracingHttpClientBuilderTest extends LocalServerTestBase {
         Assert.assertEquals(serverHost.getHostName(), mockSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
 
         assertLocalSpan(mockSpans.get(2));
+        Assert.assertEquals(mockSpans.get(2).context().spanId(), mockSpans.get(0).parentId());
+        Assert.assertEquals(mockSpans.get(2).context().spanId(), mockSpans.get(1).parentId());
     }
 
     @Test
@@ -429,44 +507,1561 @@ public class TracingHttpClientBuilderTest extends LocalServerTestBase {
         assertLocalSpan(mockSpans.get(3));
     }
 
-    public void assertLocalSpan(MockSpan mockSpan) {
-        Assert.assertEquals(1, mockSpan.tags().size());
+    @Test
+    public void testRetryTracing() throws IOException {
+        {
+            CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                    .withRetryTracing(null, null)
+                    .setRequestExecutor(new HttpRequestExecutor() {
+                private boolean passThrough = false;
+                @Override
+                public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+                    if (!passThrough) {
+                        passThrough = true;
+                        throw new IOException("close span and retry");
+                    }
+                    return super.execute(request, conn, context);
+                }
+            }).build();
+            client.execute(serverHost, new BasicHttpRequest("GET", "/echo/a", HttpVersion.HTTP_1_1));
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+
+        MockSpan failedRequestSpan = mockSpans.get(0);
+        MockSpan succeededRequestSpan = mockSpans.get(1);
+        MockSpan localSpan = mockSpans.get(2);
+        Assert.assertEquals(localSpan.context().spanId(), failedRequestSpan.parentId());
+        Assert.assertEquals(localSpan.context().spanId(), succeededRequestSpan.parentId());
+        Assert.assertNull(failedRequestSpan.tags().get(RetryTracking.RETRY_ATTEMPT.getKey()));
+        Assert.assertEquals(2, succeededRequestSpan.tags().get(RetryTracking.RETRY_ATTEMPT.getKey()));
+        Assert.assertEquals(IOException.class.getName(),
+                succeededRequestSpan.tags().get(RetryTracking.RETRY_REASON.getKey()));
+        Assert.assertEquals(200, succeededRequestSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+
+        Assert.assertEquals(1, localSpan.logEntries().size());
+        Map<String, ?> fields = localSpan.logEntries().get(0).fields();
+        Assert.assertEquals(RetryTracking.RETRY_EVENT, fields.get("event"));
+        Assert.assertEquals(2, fields.get(RetryTracking.RETRY_ATTEMPT.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testRetryTracingRetriesDisabled() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withRetryTracing(new DefaultHttpRequestRetryHandler(0, false), null)
+                .disableAutomaticRetries()
+                .setRequestExecutor(new HttpRequestExecutor() {
+            private boolean passThrough = false;
+            @Override
+            public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+                if (!passThrough) {
+                    passThrough = true;
+                    throw new IOException("close span without retry");
+                }
+                return super.execute(request, conn, context);
+            }
+        }).build();
+        HttpClientContext context = HttpClientContext.create();
+        try {
+            client.execute(serverHost, new BasicHttpRequest("GET", "/echo/a", HttpVersion.HTTP_1_1), context);
+            Assert.fail();
+        } catch (IOException expected) {
+        }
+        // the local span of the failed request is finished and not continued by a request reusing the context
+        Assert.assertEquals(2, mockTracer.finishedSpans().size());
+        client.execute(serverHost, new BasicHttpRequest("GET", "/echo/a", HttpVersion.HTTP_1_1), context);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(4, mockSpans.size());
+        MockSpan failedLocalSpan = mockSpans.get(1);
+        MockSpan succeededRequestSpan = mockSpans.get(2);
+        MockSpan localSpan = mockSpans.get(3);
+        Assert.assertEquals(failedLocalSpan.context().spanId(), mockSpans.get(0).parentId());
+        Assert.assertEquals(localSpan.context().spanId(), succeededRequestSpan.parentId());
+        Assert.assertNotEquals(failedLocalSpan.context().spanId(), localSpan.context().spanId());
+        Assert.assertNull(succeededRequestSpan.tags().get(RetryTracking.RETRY_ATTEMPT.getKey()));
+        Assert.assertEquals(0, localSpan.logEntries().size());
+    }
+
+    @Test
+    public void testRetryTracingServiceUnavailable() throws IOException {
+        {
+            HttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                    .withRetryTracing(null, new DefaultServiceUnavailableRetryStrategy(2, 1))
+                    .build();
+            HttpResponse response = client.execute(new HttpGet(serverUrl(UnavailableHandler.MAPPING)));
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(4, mockSpans.size());
+        MockSpan localSpan = mockSpans.get(3);
+        for (int i = 0; i < 3; i++) {
+            MockSpan attemptSpan = mockSpans.get(i);
+            Assert.assertEquals(localSpan.context().spanId(), attemptSpan.parentId());
+            Assert.assertEquals(i < 2 ? 503 : 200, attemptSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+            Assert.assertEquals(i == 0 ? null : i + 1,
+                    attemptSpan.tags().get(RetryTracking.RETRY_ATTEMPT.getKey()));
+            Assert.assertEquals(i == 0 ? null : "503",
+                    attemptSpan.tags().get(RetryTracking.RETRY_REASON.getKey()));
+        }
+        Assert.assertEquals(2, localSpan.logEntries().size());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testRetryTracingCollapsedLocalSpan() throws IOException {
+        {
+            HttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                    .collapseLocalSpan()
+                    .withRetryTracing(null, new DefaultServiceUnavailableRetryStrategy(1, 1))
+                    .build();
+            HttpResponse response = client.execute(new HttpGet(serverUrl(UnavailableHandler.MAPPING)));
+            Assert.assertEquals(503, response.getStatusLine().getStatusCode());
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        MockSpan retriedSpan = mockSpans.get(0);
+        MockSpan firstSpan = mockSpans.get(1);
+        Assert.assertEquals(firstSpan.context().spanId(), retriedSpan.parentId());
+        Assert.assertEquals(2, retriedSpan.tags().get(RetryTracking.RETRY_ATTEMPT.getKey()));
+        Assert.assertEquals(1, firstSpan.logEntries().size());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testNotSampled() throws IOException {
+        {
+            HttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                    .withSampler(ApacheClientSampler.NEVER)
+                    .withNotSampledHeader("X-B3-Sampled", "0")
+                    .build();
+            client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)));
+        }
+
+        Assert.assertEquals(0, mockTracer.finishedSpans().size());
+        Assert.assertEquals("0", PropagationHandler.lastRequest.getFirstHeader("X-B3-Sampled").getValue());
+        Assert.assertNull(PropagationHandler.lastRequest.getFirstHeader("traceId"));
+    }
+
+    @Test
+    public void testNotSampledClearsRedirectCountOnError() throws IOException {
+        HttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                .withSampler(ApacheClientSampler.NEVER)
+                .disableAutomaticRetries()
+                .setRequestExecutor(new HttpRequestExecutor() {
+                    @Override
+                    public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+                        if (request.getRequestLine().getUri().contains(PropagationHandler.MAPPING)) {
+                            throw new IOException("redirected request fails");
+                        }
+                        return super.execute(request, conn, context);
+                    }
+                }).build();
+        HttpContext context = new BasicHttpContext();
+        try {
+            client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)), context);
+            Assert.fail();
+        } catch (IOException e) {
+        }
+
+        Assert.assertNull(context.getAttribute(TracingClientExec.REDIRECT_COUNT));
+        Assert.assertNull(context.getAttribute(TracingClientExec.SAMPLED_PROP));
+    }
+
+    @Test
+    public void testSamplingDecisionKeptOnRedirect() throws IOException {
+        final AtomicInteger samplerCalls = new AtomicInteger();
+        {
+            HttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                    .withSampler(new ApacheClientSampler() {
+                        @Override
+                        public boolean isSampled(HttpRoute route, HttpRequestWrapper request,
+                                HttpClientContext clientContext) {
+                            return samplerCalls.getAndIncrement() == 0;
+                        }
+                    })
+                    .build();
+            client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)));
+            client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)));
+        }
+
+        Assert.assertEquals(2, samplerCalls.get());
+        Assert.assertEquals(3, mockTracer.finishedSpans().size());
+        assertLocalSpan(mockTracer.finishedSpans().get(2));
+    }
+
+    @Test
+    public void testProbabilisticSampler() {
+        HttpRequestWrapper request = HttpRequestWrapper.wrap(new HttpGet(serverUrl("/echo/a")));
+        HttpRoute route = new HttpRoute(serverHost);
+        Assert.assertTrue(new ApacheClientSampler.Probabilistic(1).isSampled(route, request, null));
+        Assert.assertFalse(new ApacheClientSampler.Probabilistic(0).isSampled(route, request, null));
+    }
+
+    @Test
+    public void testRateLimitedPerRouteSampler() {
+        HttpRequestWrapper request = HttpRequestWrapper.wrap(new HttpGet(serverUrl("/echo/a")));
+        ApacheClientSampler sampler = new ApacheClientSampler.RateLimitedPerRoute(1);
+        Assert.assertTrue(sampler.isSampled(new HttpRoute(serverHost), request, null));
+        Assert.assertFalse(sampler.isSampled(new HttpRoute(serverHost), request, null));
+        Assert.assertTrue(sampler.isSampled(new HttpRoute(new HttpHost("example.com")), request, null));
+    }
+
+    @Test
+    public void testRateLimitedPerRouteSamplerMaxRoutes() {
+        HttpRequestWrapper request = HttpRequestWrapper.wrap(new HttpGet(serverUrl("/echo/a")));
+        ApacheClientSampler sampler = new ApacheClientSampler.RateLimitedPerRoute(1, 1);
+        Assert.assertTrue(sampler.isSampled(new HttpRoute(serverHost), request, null));
+        // hosts above the limit share a single limit and do not reset the limit of known hosts
+        Assert.assertTrue(sampler.isSampled(new HttpRoute(new HttpHost("example.com")), request, null));
+        Assert.assertFalse(sampler.isSampled(new HttpRoute(new HttpHost("example.org")), request, null));
+        Assert.assertFalse(sampler.isSampled(new HttpRoute(serverHost), request, null));
+    }
+
+    @Test
+    public void testCollapsedLocalSpan() throws IOException {
+        {
+            HttpClient client = ((TracingHttpClientBuilder)clientBuilder).collapseLocalSpan().build();
+            client.execute(new HttpGet(serverUrl("/echo/a")));
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals("GET", mockSpan.operationName());
+        Assert.assertEquals(7, mockSpan.tags().size());
         Assert.assertEquals(TracingClientExec.COMPONENT_NAME, mockSpan.tags().get(Tags.COMPONENT.getKey()));
+        Assert.assertEquals(Tags.SPAN_KIND_CLIENT, mockSpan.tags().get(Tags.SPAN_KIND.getKey()));
+        Assert.assertEquals(serverUrl("/echo/a"), mockSpan.tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(200, mockSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+        assertOnErrors(mockSpans);
     }
 
-    protected String serverUrl(String path) {
-        return serverHost.toString() + path;
+    @Test
+    public void testCollapsedLocalSpanRedirect() throws IOException {
+        {
+            HttpClient client = ((TracingHttpClientBuilder)clientBuilder).collapseLocalSpan().build();
+            client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)));
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+
+        MockSpan redirectedSpan = mockSpans.get(0);
+        MockSpan firstSpan = mockSpans.get(1);
+        Assert.assertEquals(firstSpan.context().spanId(), redirectedSpan.parentId());
+        Assert.assertEquals(serverUrl(RedirectHandler.MAPPING), firstSpan.tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(301, firstSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(serverUrl(PropagationHandler.MAPPING), redirectedSpan.tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(200, redirectedSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(PropagationHandler.lastRequest.getFirstHeader("spanId").getValue(),
+                String.valueOf(redirectedSpan.context().spanId()));
+        assertOnErrors(mockSpans);
     }
 
-    public static void assertOnErrors(List<MockSpan> spans) {
-        for (MockSpan mockSpan: spans) {
-            Assert.assertEquals(mockSpan.generatedErrors().toString(), 0, mockSpan.generatedErrors().size());
+    @Test
+    public void testConnectionPoolTracing() throws IOException {
+        TracingHttpClientConnectionManager connectionManager = new TracingHttpClientConnectionManager(
+                new PoolingHttpClientConnectionManager(), mockTracer);
+        {
+            CloseableHttpClient client = clientBuilder.setConnectionManager(connectionManager).build();
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
         }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(4, mockSpans.size());
+
+        MockSpan firstSpan = mockSpans.get(0);
+        Assert.assertEquals(Boolean.FALSE,
+                firstSpan.tags().get(TracingHttpClientConnectionManager.CONNECTION_REUSED.getKey()));
+        Assert.assertEquals(1, firstSpan.tags().get(TracingHttpClientConnectionManager.POOL_LEASED.getKey()));
+        Assert.assertEquals(0, firstSpan.tags().get(TracingHttpClientConnectionManager.POOL_PENDING.getKey()));
+        Assert.assertEquals(1, firstSpan.logEntries().size());
+        Assert.assertEquals(TracingHttpClientConnectionManager.LEASED_EVENT,
+                firstSpan.logEntries().get(0).fields().get("event"));
+        Assert.assertNotNull(firstSpan.logEntries().get(0).fields().get(TracingHttpClientConnectionManager.WAIT_MICROS));
+
+        Assert.assertEquals(Boolean.TRUE,
+                mockSpans.get(2).tags().get(TracingHttpClientConnectionManager.CONNECTION_REUSED.getKey()));
+
+        HttpRoute route = new HttpRoute(serverHost);
+        Assert.assertEquals(0, connectionManager.getRouteCounters(route).getLeased());
+        Assert.assertEquals(0, connectionManager.getRouteCounters(route).getPending());
+        Assert.assertEquals(1, connectionManager.getPoolStats(route).getAvailable());
+        assertOnErrors(mockSpans);
     }
 
-    public static class RedirectHandler implements HttpRequestHandler {
+    @Test
+    public void testConnectionPoolTracingBoundedRoutes() throws IOException {
+        TracingHttpClientConnectionManager connectionManager = new TracingHttpClientConnectionManager(
+                new PoolingHttpClientConnectionManager(), mockTracer, 0);
+        {
+            CloseableHttpClient client = clientBuilder.setConnectionManager(connectionManager).build();
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+        }
 
-        public static final String MAPPING = "/redirect";
+        Assert.assertNull(connectionManager.getRouteCounters(new HttpRoute(serverHost)));
+        Assert.assertEquals(0, connectionManager.getRouteCounters().size());
+        Assert.assertEquals(0, connectionManager.getOtherRouteCounters().getLeased());
+        Assert.assertEquals(1, mockTracer.finishedSpans().get(0).tags()
+                .get(TracingHttpClientConnectionManager.POOL_LEASED.getKey()));
+    }
 
-        @Override
-        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
-                throws HttpException, IOException {
+    @Test
+    public void testConnectionPoolTracingNotSampled() throws IOException {
+        TracingHttpClientConnectionManager connectionManager = new TracingHttpClientConnectionManager(
+                new PoolingHttpClientConnectionManager(), mockTracer);
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        {
+            CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                    .withSampler(ApacheClientSampler.NEVER)
+                    .setConnectionManager(connectionManager)
+                    .build();
+            try (Scope ignored = mockTracer.activateSpan(parent)) {
+                EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+            }
+        }
+        parent.finish();
 
-            response.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
-            response.addHeader("Location", PropagationHandler.MAPPING);
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        // leases of requests without a client span are not recorded on the caller's span
+        Assert.assertEquals(0, mockSpans.get(0).tags().size());
+        Assert.assertEquals(0, mockSpans.get(0).logEntries().size());
+        Assert.assertEquals(0, connectionManager.getRouteCounters(new HttpRoute(serverHost)).getLeased());
+    }
+
+    @Test
+    public void testConnectionPoolTracingDefaultManager() throws IOException {
+        {
+            CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder).withConnectionPoolTracing().build();
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
         }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertEquals(Boolean.FALSE,
+                mockSpans.get(0).tags().get(TracingHttpClientConnectionManager.CONNECTION_REUSED.getKey()));
+        Assert.assertEquals(1, mockSpans.get(0).logEntries().size());
     }
 
-    public static class PropagationHandler implements HttpRequestHandler {
-        public static final String MAPPING = "/propagation";
-        public static HttpRequest lastRequest;
+    @Test
+    public void testPhaseTimings() throws IOException {
+        {
+            CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                    .withPhaseTimings(ConnectionPhaseTimings.connectionManager())
+                    .build();
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+        }
 
-        @Override
-        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
-                throws HttpException, IOException {
-            // TODO this is ugly...
-            lastRequest = request;
-            response.setStatusCode(HttpStatus.SC_OK);
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(4, mockSpans.size());
+
+        List<MockSpan.LogEntry> logs = mockSpans.get(0).logEntries();
+        Assert.assertEquals(3, logs.size());
+        Assert.assertEquals(ConnectionPhaseTimings.DNS_LOOKUP, logs.get(0).fields().get("event"));
+        Assert.assertEquals(ConnectionPhaseTimings.TCP_CONNECT, logs.get(1).fields().get("event"));
+        Assert.assertEquals(ConnectionPhaseTimings.TTFB, logs.get(2).fields().get("event"));
+        for (MockSpan.LogEntry log: logs) {
+            Assert.assertTrue(log.fields().get(ConnectionPhaseTimings.DURATION_MICROS) instanceof Long);
+        }
+
+        // connection is reused
+        logs = mockSpans.get(2).logEntries();
+        Assert.assertEquals(1, logs.size());
+        Assert.assertEquals(ConnectionPhaseTimings.TTFB, logs.get(0).fields().get("event"));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testPhaseTimingsCustomConnectionManager() throws IOException {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                ConnectionPhaseTimings.socketFactoryRegistry(SSLConnectionSocketFactory.getSocketFactory()),
+                ConnectionPhaseTimings.dnsResolver(SystemDefaultDnsResolver.INSTANCE));
+        connectionManager.setDefaultMaxPerRoute(64);
+        {
+            CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                    .withPhaseTimings(connectionManager)
+                    .build();
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+        }
+
+        Assert.assertEquals(1, connectionManager.getStats(new HttpRoute(serverHost)).getAvailable());
+        Assert.assertEquals(64, connectionManager.getMaxPerRoute(new HttpRoute(serverHost)));
+        List<MockSpan.LogEntry> logs = mockTracer.finishedSpans().get(0).logEntries();
+        Assert.assertEquals(3, logs.size());
+        Assert.assertEquals(ConnectionPhaseTimings.DNS_LOOKUP, logs.get(0).fields().get("event"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPhaseTimingsConnectionManagerReplaced() {
+        ((TracingHttpClientBuilder)clientBuilder)
+                .withPhaseTimings(ConnectionPhaseTimings.connectionManager())
+                .setConnectionManager(new PoolingHttpClientConnectionManager())
+                .build();
+    }
+
+    @Test
+    public void testPhaseTimingsNotSampled() throws IOException {
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        {
+            CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                    .withSampler(ApacheClientSampler.NEVER)
+                    .withPhaseTimings(ConnectionPhaseTimings.connectionManager())
+                    .build();
+            try (Scope ignored = mockTracer.activateSpan(parent)) {
+                EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+            }
+        }
+        parent.finish();
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        // phases of requests without a client span are not logged on the caller's span
+        Assert.assertEquals(0, mockSpans.get(0).logEntries().size());
+    }
+
+    @Test
+    public void testFinishSpansOnResponseConsumed() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder).finishSpansOnResponseConsumed().build();
+        HttpPost post = new HttpPost(serverUrl(PayloadHandler.MAPPING));
+        post.setEntity(new StringEntity("hello"));
+        CloseableHttpResponse response = client.execute(post);
+        Assert.assertEquals(0, mockTracer.finishedSpans().size());
+
+        Assert.assertEquals(PayloadHandler.PAYLOAD.length, EntityUtils.toByteArray(response.getEntity()).length);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals(5L, mockSpan.tags().get(StreamingResponse.REQUEST_BYTES));
+        Assert.assertEquals((long) PayloadHandler.PAYLOAD.length, mockSpan.tags().get(StreamingResponse.RESPONSE_BYTES));
+        Assert.assertNotNull(mockSpan.tags().get(StreamingResponse.RESPONSE_BYTES_PER_SECOND));
+        Assert.assertEquals(mockSpans.get(1).context().spanId(), mockSpan.parentId());
+        assertLocalSpan(mockSpans.get(1));
+
+        response.close();
+        Assert.assertEquals(2, mockTracer.finishedSpans().size());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testFinishSpansOnResponseClosed() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder).finishSpansOnResponseConsumed()
+                .collapseLocalSpan()
+                .build();
+        CloseableHttpResponse response = client.execute(new HttpGet(serverUrl(PayloadHandler.MAPPING)));
+        Assert.assertEquals(0, mockTracer.finishedSpans().size());
+
+        response.getEntity().getContent().read();
+        response.close();
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        Assert.assertEquals(1L, mockSpans.get(0).tags().get(StreamingResponse.RESPONSE_BYTES));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testFinishSpansOnResponseConsumedRedirect() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder).finishSpansOnResponseConsumed().build();
+        CloseableHttpResponse response = client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)));
+        EntityUtils.consume(response.getEntity());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+        Assert.assertEquals(301, mockSpans.get(0).tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(200, mockSpans.get(1).tags().get(Tags.HTTP_STATUS.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        ApacheClientMetrics metrics = new ApacheClientMetrics();
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                .withSampler(ApacheClientSampler.NEVER)
+                .withMetrics(metrics)
+                .build();
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING))).getEntity());
+        EntityUtils.consume(client.execute(new HttpPost(serverUrl(PropagationHandler.MAPPING))).getEntity());
+
+        Assert.assertEquals(0, mockTracer.finishedSpans().size());
+        final Map<ApacheClientMetrics.Key, LatencyHistogram.Snapshot> snapshots = new HashMap<>();
+        metrics.export(new ApacheClientMetrics.Exporter() {
+            @Override
+            public void export(ApacheClientMetrics.Key key, LatencyHistogram.Snapshot snapshot) {
+                snapshots.put(key, snapshot);
+            }
+        });
+        Assert.assertEquals(3, snapshots.size());
+        String host = serverHost.toHostString();
+        Assert.assertEquals(1, snapshots.get(new ApacheClientMetrics.Key("GET", host, "3xx")).getCount());
+        Assert.assertEquals(1, snapshots.get(new ApacheClientMetrics.Key("GET", host, "2xx")).getCount());
+        LatencyHistogram.Snapshot snapshot = snapshots.get(new ApacheClientMetrics.Key("POST", host, "2xx"));
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertTrue(snapshot.getMaxMicros() > 0);
+        Assert.assertEquals(snapshot.getMaxMicros(), snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testMetricsBoundedCardinality() throws IOException {
+        ApacheClientMetrics metrics = new ApacheClientMetrics(1);
+        metrics.record(new HttpHost("a.example", 80), "GET", 200, 1000);
+        metrics.record(new HttpHost("b.example"), "GET", 503, 1000);
+        metrics.record(new HttpHost("c.example"), "PROPFIND", -1, 1000);
+
+        final List<ApacheClientMetrics.Key> keys = new ArrayList<>();
+        metrics.export(new ApacheClientMetrics.Exporter() {
+            @Override
+            public void export(ApacheClientMetrics.Key key, LatencyHistogram.Snapshot snapshot) {
+                keys.add(key);
+            }
+        });
+        Assert.assertEquals(3, keys.size());
+        Assert.assertTrue(keys.contains(new ApacheClientMetrics.Key("GET", "a.example:80", "2xx")));
+        Assert.assertTrue(keys.contains(new ApacheClientMetrics.Key("GET", ApacheClientMetrics.OTHER_HOST, "5xx")));
+        Assert.assertTrue(keys.contains(new ApacheClientMetrics.Key(ApacheClientMetrics.OTHER_METHOD,
+                ApacheClientMetrics.OTHER_HOST, ApacheClientMetrics.ERROR_STATUS_CLASS)));
+    }
+
+    @Test
+    public void testRouteStats() throws IOException {
+        RouteStatsRegistry registry = new RouteStatsRegistry();
+        {
+            HttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                    .withSampler(ApacheClientSampler.NEVER)
+                    .withRouteStats(registry)
+                    .build();
+            for (int i = 0; i < 4; i++) {
+                HttpResponse response = client.execute(new HttpGet(serverUrl(UnavailableHandler.MAPPING)));
+                EntityUtils.consume(response.getEntity());
+            }
+        }
+
+        RouteStatsRegistry.Stats stats = registry.getStats(new HttpRoute(serverHost));
+        Assert.assertEquals(1, registry.getAllStats().size());
+        Assert.assertEquals(0, stats.getInFlight());
+        Assert.assertEquals(4, stats.getCount());
+        Assert.assertEquals(2, stats.getErrors());
+        Assert.assertTrue(stats.getLatencyMicros() > 0);
+        // 1, 1, 0, 0 with alpha 0.2
+        Assert.assertEquals(0.64, stats.getErrorRate(), 0.001);
+        Assert.assertEquals(4, stats.getLatencySnapshot().getCount());
+        Assert.assertEquals(0, mockTracer.finishedSpans().size());
+    }
+
+    @Test
+    public void testRouteStatsExpiredWindows() throws Exception {
+        RouteStatsRegistry registry = new RouteStatsRegistry(RouteStatsRegistry.DEFAULT_MAX_ROUTES,
+                RouteStatsRegistry.DEFAULT_ALPHA, 50);
+        {
+            HttpClient client = ((TracingHttpClientBuilder) clientBuilder).withRouteStats(registry).build();
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+        }
+
+        RouteStatsRegistry.Stats stats = registry.getStats(new HttpRoute(serverHost));
+        Assert.assertEquals(1, stats.getLatencySnapshot().getCount());
+        // no request is recorded for two windows
+        Thread.sleep(100);
+        Assert.assertEquals(0, stats.getLatencySnapshot().getCount());
+        Assert.assertEquals(1, stats.getCount());
+    }
+
+    @Test
+    public void testRouteStatsBoundedRoutes() throws IOException {
+        RouteStatsRegistry registry = new RouteStatsRegistry(0, RouteStatsRegistry.DEFAULT_ALPHA,
+                RouteStatsRegistry.DEFAULT_WINDOW_MILLIS);
+        {
+            HttpClient client = ((TracingHttpClientBuilder) clientBuilder).withRouteStats(registry).build();
+            client.execute(new HttpGet(serverUrl("/echo/a")));
+        }
+
+        Assert.assertNull(registry.getStats(new HttpRoute(serverHost)));
+        Assert.assertEquals(1, registry.getOtherStats().getCount());
+    }
+
+    @Test
+    public void testAsyncDecorators() throws Exception {
+        final List<String> decoratorThreads = Collections.synchronizedList(new ArrayList<String>());
+        AsyncSpanDecorators asyncDecorators = new AsyncSpanDecorators();
+        try {
+            HttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                    .withSpanDecorators(Arrays.asList(new ApacheClientSpanDecorator.StandardTags(),
+                            new ThreadRecordingDecorator(decoratorThreads, null)))
+                    .withAsyncDecorators(asyncDecorators)
+                    .build();
+            client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)));
+            awaitFinishedSpans(3);
+        } finally {
+            asyncDecorators.shutdown();
+        }
+
+        List<MockSpan> mockSpans = new ArrayList<>(mockTracer.finishedSpans());
+        MockSpan localSpan = null;
+        for (MockSpan mockSpan : mockSpans) {
+            if (mockSpan.parentId() == 0) {
+                localSpan = mockSpan;
+            }
+        }
+        assertLocalSpan(localSpan);
+        mockSpans.remove(localSpan);
+        for (MockSpan clientSpan : mockSpans) {
+            Assert.assertEquals(localSpan.context().spanId(), clientSpan.parentId());
+            Assert.assertEquals(6, clientSpan.tags().size());
+            Assert.assertTrue(clientSpan.finishMicros() <= localSpan.finishMicros());
+        }
+        Assert.assertEquals(2, decoratorThreads.size());
+        for (String thread : decoratorThreads) {
+            Assert.assertNotEquals(Thread.currentThread().getName(), thread);
+        }
+        Assert.assertEquals(0, asyncDecorators.getDropped());
+        assertOnErrors(mockTracer.finishedSpans());
+    }
+
+    @Test
+    public void testAsyncDecoratorsDropOnOverflow() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncSpanDecorators asyncDecorators = new AsyncSpanDecorators(1, 1);
+        try {
+            HttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                    .withSpanDecorators(Collections.<ApacheClientSpanDecorator>singletonList(
+                            new ThreadRecordingDecorator(new ArrayList<String>(), release)))
+                    .withAsyncDecorators(asyncDecorators)
+                    .build();
+            for (int i = 0; i < 3; i++) {
+                client.execute(new HttpGet(serverUrl("/echo/a")));
+            }
+            // the first span is being decorated, the second one is queued
+            Assert.assertEquals(1, asyncDecorators.getDropped());
+            release.countDown();
+            awaitFinishedSpans(6);
+        } finally {
+            release.countDown();
+            asyncDecorators.shutdown();
+        }
+        assertOnErrors(mockTracer.finishedSpans());
+    }
+
+    private static void awaitFinishedSpans(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mockTracer.finishedSpans().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, mockTracer.finishedSpans().size());
+    }
+
+    /**
+     * Records threads it runs on, optionally waits for a latch.
+     */
+    static class ThreadRecordingDecorator implements ApacheClientSpanDecorator {
+        private final List<String> threads;
+        private final CountDownLatch latch;
+
+        ThreadRecordingDecorator(List<String> threads, CountDownLatch latch) {
+            this.threads = threads;
+            this.latch = latch;
+        }
+
+        @Override
+        public void onRequest(HttpRequestWrapper request, HttpContext httpContext, Span span) {
+            threads.add(Thread.currentThread().getName());
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void onResponse(HttpResponse response, HttpContext httpContext, Span span) {
+        }
+
+        @Override
+        public void onError(HttpRequest request, HttpContext httpContext, Exception ex, Span span) {
+        }
+    }
+
+    @Test
+    public void testPayloadCapture() throws IOException {
+        PayloadCapture payloadCapture = new PayloadCapture(8, 1)
+                .withRedactor(new PayloadCapture.Redactor() {
+                    @Override
+                    public String redact(String content) {
+                        return content.replace("secret", "******");
+                    }
+                });
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withPayloadCapture(payloadCapture)
+                .build();
+
+        HttpPost post = new HttpPost(serverUrl(FailingHandler.MAPPING));
+        post.setEntity(new StringEntity("secret request"));
+        CloseableHttpResponse response = client.execute(post);
+        Assert.assertEquals(500, response.getStatusLine().getStatusCode());
+        Assert.assertEquals(FailingHandler.BODY, EntityUtils.toString(response.getEntity()));
+        Assert.assertTrue(post.getEntity() instanceof StringEntity);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals("****** r", mockSpan.tags().get(PayloadCapture.REQUEST_BODY));
+        Assert.assertEquals(true, mockSpan.tags().get(PayloadCapture.REQUEST_BODY_TRUNCATED));
+        Assert.assertEquals(FailingHandler.BODY.substring(0, 8), mockSpan.tags().get(PayloadCapture.RESPONSE_BODY));
+        Assert.assertEquals(true, mockSpan.tags().get(PayloadCapture.RESPONSE_BODY_TRUNCATED));
+        Assert.assertEquals(1, payloadCapture.getAvailableBuffers());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testPayloadCaptureNotAttached() throws IOException {
+        PayloadCapture payloadCapture = new PayloadCapture(8, 1);
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withPayloadCapture(payloadCapture)
+                .build();
+
+        HttpPost post = new HttpPost(serverUrl(PayloadHandler.MAPPING));
+        post.setEntity(new StringEntity("hello"));
+        CloseableHttpResponse response = client.execute(post);
+        Assert.assertEquals(PayloadHandler.PAYLOAD.length, EntityUtils.toByteArray(response.getEntity()).length);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertNull(mockSpans.get(0).tags().get(PayloadCapture.REQUEST_BODY));
+        Assert.assertNull(mockSpans.get(0).tags().get(PayloadCapture.RESPONSE_BODY));
+        Assert.assertEquals(1, payloadCapture.getAvailableBuffers());
+        Assert.assertEquals(0, payloadCapture.getSkipped());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testPayloadCaptureResponseReadFailure() throws IOException {
+        PayloadCapture payloadCapture = new PayloadCapture(8, 1);
+        final IOException failure = new IOException("connection reset");
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new SequenceInputStream(new ByteArrayInputStream("abc".getBytes()), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw failure;
+            }
+        }));
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_INTERNAL_SERVER_ERROR, "");
+        response.setEntity(entity);
+        MockSpan span = mockTracer.buildSpan("GET").start();
+
+        payloadCapture.onResponse(null, new BasicHttpRequest("GET", "/"), response, span);
+        Assert.assertNull(span.tags().get(PayloadCapture.RESPONSE_BODY));
+        Assert.assertEquals(1, payloadCapture.getAvailableBuffers());
+
+        InputStream content = response.getEntity().getContent();
+        byte[] replayed = new byte[3];
+        Assert.assertEquals(3, content.read(replayed));
+        Assert.assertEquals("abc", new String(replayed));
+        try {
+            content.read();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testPayloadCaptureRule() throws IOException {
+        PayloadCapture payloadCapture = new PayloadCapture()
+                .withRule(new PayloadCapture.Rule() {
+                    @Override
+                    public boolean matches(HttpRequest request, HttpResponse response) {
+                        return "POST".equals(request.getRequestLine().getMethod());
+                    }
+                });
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withPayloadCapture(payloadCapture)
+                .build();
+
+        HttpPost post = new HttpPost(serverUrl("/echo/a"));
+        post.setEntity(new StringEntity("hello"));
+        Assert.assertEquals("hello", EntityUtils.toString(client.execute(post).getEntity()));
+
+        MockSpan mockSpan = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals("hello", mockSpan.tags().get(PayloadCapture.REQUEST_BODY));
+        Assert.assertEquals("hello", mockSpan.tags().get(PayloadCapture.RESPONSE_BODY));
+        Assert.assertNull(mockSpan.tags().get(PayloadCapture.RESPONSE_BODY_TRUNCATED));
+    }
+
+    @Test
+    public void testGovernorDegradesTracing() throws IOException {
+        TracingGovernor governor = new TracingGovernor(0, TimeUnit.NANOSECONDS, 1, 0, 1);
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withGovernor(governor)
+                .build();
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(Constants.PARENT_CONTEXT, parent.context());
+
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)), context).getEntity());
+        Assert.assertEquals(TracingGovernor.Level.NO_DECORATORS, governor.getLevel());
+        Assert.assertEquals(2, mockTracer.finishedSpans().size());
+        Assert.assertEquals(6, mockTracer.finishedSpans().get(0).tags().size());
+        mockTracer.reset();
+
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)), context).getEntity());
+        Assert.assertEquals(TracingGovernor.Level.NO_LOCAL_SPAN, governor.getLevel());
+        Assert.assertEquals(2, mockTracer.finishedSpans().size());
+        Assert.assertEquals(1, mockTracer.finishedSpans().get(0).tags().size());
+        mockTracer.reset();
+
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)), context).getEntity());
+        Assert.assertEquals(TracingGovernor.Level.PROPAGATION_ONLY, governor.getLevel());
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        Assert.assertEquals(parent.context().spanId(), mockSpans.get(0).parentId());
+        mockTracer.reset();
+
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)), context).getEntity());
+        Assert.assertEquals(0, mockTracer.finishedSpans().size());
+        Assert.assertEquals(String.valueOf(parent.context().spanId()),
+                PropagationHandler.lastRequest.getFirstHeader("spanId").getValue());
+
+        Assert.assertEquals(1, governor.getLevelChanges(TracingGovernor.Level.NO_DECORATORS));
+        Assert.assertEquals(1, governor.getLevelChanges(TracingGovernor.Level.NO_LOCAL_SPAN));
+        Assert.assertEquals(1, governor.getLevelChanges(TracingGovernor.Level.PROPAGATION_ONLY));
+        Assert.assertEquals(0, governor.getLevelChanges(TracingGovernor.Level.FULL));
+    }
+
+    @Test
+    public void testSpanTemplates() throws IOException {
+        final AtomicInteger applied = new AtomicInteger();
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withSpanDecorators(Collections.<ApacheClientSpanDecorator>emptyList())
+                .withSpanTemplates(new SpanTemplate.Applier() {
+                    @Override
+                    public Tracer.SpanBuilder apply(Tracer.SpanBuilder spanBuilder,
+                            SpanTemplate.TagSet tags) {
+                        applied.incrementAndGet();
+                        return SpanTemplate.WITH_TAG.apply(spanBuilder, tags);
+                    }
+                })
+                .build();
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/b"))).getEntity());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(4, mockSpans.size());
+        Assert.assertEquals(4, applied.get());
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals("GET", mockSpan.operationName());
+        Assert.assertEquals(3, mockSpan.tags().size());
+        Assert.assertEquals(Tags.SPAN_KIND_CLIENT, mockSpan.tags().get(Tags.SPAN_KIND.getKey()));
+        Assert.assertEquals(serverHost.getPort(), mockSpan.tags().get(Tags.PEER_PORT.getKey()));
+        Assert.assertEquals(serverHost.getHostName(), mockSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+        assertLocalSpan(mockSpans.get(1));
+        Assert.assertEquals(mockSpan.tags(), mockSpans.get(2).tags());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testSpanTemplatesCollapsedLocalSpan() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withSpanTemplates()
+                .collapseLocalSpan()
+                .build();
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals(7, mockSpan.tags().size());
+        Assert.assertEquals(TracingClientExec.COMPONENT_NAME, mockSpan.tags().get(Tags.COMPONENT.getKey()));
+        Assert.assertEquals(Tags.SPAN_KIND_CLIENT, mockSpan.tags().get(Tags.SPAN_KIND.getKey()));
+        Assert.assertEquals(200, mockSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testSpanTemplatesPeerTagsSetByStandardTags() throws IOException {
+        final List<Map<String, Object>> templateTags = new ArrayList<>();
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withSpanTemplates(new SpanTemplate.Applier() {
+                    @Override
+                    public Tracer.SpanBuilder apply(Tracer.SpanBuilder spanBuilder,
+                            SpanTemplate.TagSet tags) {
+                        templateTags.add(tags.asMap());
+                        return SpanTemplate.WITH_TAG.apply(spanBuilder, tags);
+                    }
+                })
+                .collapseLocalSpan()
+                .build();
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl("/echo/a"))).getEntity());
+
+        // the default decorators include StandardTags, templates leave peer tags to it
+        Assert.assertFalse(templateTags.isEmpty());
+        for (Map<String, Object> tags : templateTags) {
+            Assert.assertFalse(tags.containsKey(Tags.PEER_HOSTNAME.getKey()));
+            Assert.assertFalse(tags.containsKey(Tags.PEER_PORT.getKey()));
+        }
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals(7, mockSpan.tags().size());
+        Assert.assertEquals(serverHost.getHostName(), mockSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+        Assert.assertEquals(serverHost.getPort(), mockSpan.tags().get(Tags.PEER_PORT.getKey()));
+        Assert.assertEquals(serverUrl("/echo/a"), mockSpan.tags().get(Tags.HTTP_URL.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testCircuitBreakerShortCircuit() throws IOException {
+        CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry()
+                .withWindow(2, 2)
+                .withOpenDuration(60000);
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withCircuitBreakers(circuitBreakers)
+                .build();
+        for (int i = 0; i < 2; i++) {
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl(FailingHandler.MAPPING))).getEntity());
+        }
+        HttpRoute route = new HttpRoute(serverHost);
+        Assert.assertEquals(CircuitBreakerRegistry.State.OPEN, circuitBreakers.getCircuit(route).getState());
+        Assert.assertEquals(1.0, circuitBreakers.getCircuit(route).getFailureRate(), 0);
+        mockTracer.reset();
+
+        try {
+            client.execute(new HttpGet(serverUrl(FailingHandler.MAPPING)));
+            Assert.fail();
+        } catch (ShortCircuitException e) {
+            Assert.assertEquals(ShortCircuitException.Reason.CIRCUIT_OPEN, e.getReason());
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals("circuit_open", mockSpan.tags().get(CircuitBreakerClientExec.SHORT_CIRCUIT));
+        Assert.assertEquals(Boolean.TRUE, mockSpan.tags().get(Tags.ERROR.getKey()));
+        Assert.assertEquals(1, circuitBreakers.getCircuit(route).getShortCircuited());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testCircuitBreakerShortCircuitNotSampled() throws IOException {
+        CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry()
+                .withWindow(2, 2)
+                .withOpenDuration(60000);
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withSampler(ApacheClientSampler.NEVER)
+                .withCircuitBreakers(circuitBreakers)
+                .build();
+        for (int i = 0; i < 2; i++) {
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl(FailingHandler.MAPPING))).getEntity());
+        }
+
+        MockSpan parentSpan = mockTracer.buildSpan("parent").start();
+        Scope scope = mockTracer.activateSpan(parentSpan);
+        try {
+            client.execute(new HttpGet(serverUrl(FailingHandler.MAPPING)));
+            Assert.fail();
+        } catch (ShortCircuitException e) {
+            Assert.assertEquals(ShortCircuitException.Reason.CIRCUIT_OPEN, e.getReason());
+        } finally {
+            scope.close();
+        }
+        parentSpan.finish();
+
+        // the request has no client span, the span of the caller is not tagged
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        Assert.assertNull(mockSpans.get(0).tags().get(CircuitBreakerClientExec.SHORT_CIRCUIT));
+    }
+
+    @Test
+    public void testDeadlinePropagation() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withDeadlinePropagation("X-Deadline-Ms")
+                .build();
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(Constants.DEADLINE, System.currentTimeMillis() + 5000);
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)), context).getEntity());
+
+        long remaining = Long.parseLong(PropagationHandler.lastRequest.getFirstHeader("X-Deadline-Ms").getValue());
+        Assert.assertTrue(remaining > 0 && remaining <= 5000);
+        MockSpan mockSpan = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals(remaining, mockSpan.tags().get(DeadlineClientExec.DEADLINE_REMAINING));
+        Assert.assertEquals(-1, HttpClientContext.adapt(context).getRequestConfig().getSocketTimeout());
+    }
+
+    @Test
+    public void testDeadlineFromBaggageShrinksTimeouts() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withDeadlinePropagation(null)
+                .build();
+        Span parent = mockTracer.buildSpan("parent").start();
+        parent.setBaggageItem(Constants.DEADLINE_BAGGAGE_ITEM, String.valueOf(System.currentTimeMillis() + 200));
+        long start = System.currentTimeMillis();
+        try (Scope scope = mockTracer.activateSpan(parent)) {
+            client.execute(new HttpGet(serverUrl(SlowFirstHandler.MAPPING)));
+            Assert.fail();
+        } catch (SocketTimeoutException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+
+        MockSpan mockSpan = mockTracer.finishedSpans().get(0);
+        Assert.assertNotNull(mockSpan.tags().get(DeadlineClientExec.DEADLINE_REMAINING));
+        Assert.assertEquals(Boolean.TRUE, mockSpan.tags().get(Tags.ERROR.getKey()));
+    }
+
+    @Test
+    public void testDeadlineExceeded() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withDeadlinePropagation(null)
+                .build();
+        PropagationHandler.lastRequest = null;
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(Constants.DEADLINE, System.currentTimeMillis() - 10);
+        try {
+            client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)), context);
+            Assert.fail();
+        } catch (DeadlineExceededException e) {
+            Assert.assertNull(PropagationHandler.lastRequest);
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertEquals(true, mockSpans.get(0).tags().get(DeadlineClientExec.DEADLINE_EXCEEDED));
+        Assert.assertEquals(Boolean.TRUE, mockSpans.get(0).tags().get(Tags.ERROR.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testDeadlineFromParentContext() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withDeadlinePropagation("X-Deadline-Ms")
+                .build();
+        Span parent = mockTracer.buildSpan("parent").start();
+        parent.setBaggageItem(Constants.DEADLINE_BAGGAGE_ITEM, String.valueOf(System.currentTimeMillis() + 5000));
+        Span active = mockTracer.buildSpan("active").start();
+        active.setBaggageItem(Constants.DEADLINE_BAGGAGE_ITEM, String.valueOf(System.currentTimeMillis() - 10));
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(Constants.PARENT_CONTEXT, parent.context());
+        Scope scope = mockTracer.activateSpan(active);
+        try {
+            EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)), context)
+                    .getEntity());
+        } finally {
+            scope.close();
+        }
+
+        // the deadline of the parent context applies, not the one of the active span
+        long remaining = Long.parseLong(PropagationHandler.lastRequest.getFirstHeader("X-Deadline-Ms").getValue());
+        Assert.assertTrue(remaining > 0 && remaining <= 5000);
+        Assert.assertEquals(2, mockTracer.finishedSpans().size());
+    }
+
+    @Test
+    public void testDeadlineExceededNotSampled() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder) clientBuilder)
+                .withSampler(ApacheClientSampler.NEVER)
+                .withDeadlinePropagation(null)
+                .build();
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        parent.setBaggageItem(Constants.DEADLINE_BAGGAGE_ITEM, String.valueOf(System.currentTimeMillis() - 10));
+        Scope scope = mockTracer.activateSpan(parent);
+        try {
+            client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING)));
+            Assert.fail();
+        } catch (DeadlineExceededException expected) {
+        } finally {
+            scope.close();
+        }
+        parent.finish();
+
+        // the request has no client span, the span of the caller is not tagged
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        Assert.assertNull(mockSpans.get(0).tags().get(DeadlineClientExec.DEADLINE_EXCEEDED));
+    }
+
+    @Test
+    public void testTraceparentHeaderInjector() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                .withHeaderInjector(ApacheClientHeaderInjector.TRACEPARENT)
+                .build();
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING))).getEntity());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        MockSpan clientSpan = mockSpans.get(0);
+        // the mock tracer does not inject a sampling decision
+        Assert.assertNull(PropagationHandler.lastRequest.getFirstHeader("traceparent"));
+        Assert.assertEquals(String.valueOf(clientSpan.context().traceId()),
+                PropagationHandler.lastRequest.getFirstHeader("traceId").getValue());
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testTraceparentHeaderInjectorSampledFlag() {
+        for (String sampled : Arrays.asList("1", "0")) {
+            MockTracer tracer = new MockTracer(new ThreadLocalScopeManager(), new B3SampledPropagator(sampled));
+            MockSpan span = tracer.buildSpan("foo").start();
+            HttpRequest request = new BasicHttpRequest("GET", "/");
+            ApacheClientHeaderInjector.TRACEPARENT.inject(tracer, span.context(), request);
+
+            Assert.assertEquals(1, request.getAllHeaders().length);
+            Assert.assertEquals(String.format("00-%032d-%016d-0%s", span.context().traceId(),
+                    span.context().spanId(), sampled), request.getFirstHeader("traceparent").getValue());
+        }
+    }
+
+    @Test
+    public void testTraceparentHeaderInjectorExplicitSampledFlag() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                .withHeaderInjector(new TraceparentHeaderInjector(TraceparentHeaderInjector.ALWAYS_SAMPLED))
+                .build();
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING))).getEntity());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        MockSpan clientSpan = mockSpans.get(0);
+        Assert.assertEquals(String.format("00-%032d-%016d-01", clientSpan.context().traceId(),
+                clientSpan.context().spanId()), PropagationHandler.lastRequest.getFirstHeader("traceparent").getValue());
+        // the tracer does not inject
+        Assert.assertNull(PropagationHandler.lastRequest.getFirstHeader("traceId"));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testInjectionReplacesHeaders() {
+        HttpRequest request = new BasicHttpRequest("GET", "/");
+        request.addHeader("traceId", "1");
+        HttpHeadersInjectAdapter adapter = new HttpHeadersInjectAdapter(request);
+        adapter.put("traceId", "2");
+        adapter.put("spanId", "3");
+
+        Assert.assertEquals(2, request.getAllHeaders().length);
+        Assert.assertEquals("2", request.getFirstHeader("traceId").getValue());
+        Assert.assertEquals("spanId: 3", ((FormattedHeader) request.getFirstHeader("spanId")).getBuffer().toString());
+    }
+
+    @Test
+    public void testTracingPolicy() throws IOException {
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                .withTracingPolicy(new TracingPolicy(
+                        TracingPolicy.Rule.forPath(RedirectHandler.MAPPING).notTraced(),
+                        TracingPolicy.Rule.forPath(PropagationHandler.MAPPING).disableInjection()
+                                .withSpanDecorators(Collections.<ApacheClientSpanDecorator>emptyList())))
+                .build();
+
+        // redirect follows the rule of the first request
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(RedirectHandler.MAPPING))).getEntity());
+        Assert.assertEquals(0, mockTracer.finishedSpans().size());
+        Assert.assertNull(PropagationHandler.lastRequest.getFirstHeader("traceId"));
+
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl(PropagationHandler.MAPPING))).getEntity());
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertEquals(1, mockSpans.get(0).tags().size());
+        Assert.assertNull(PropagationHandler.lastRequest.getFirstHeader("traceId"));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testTracingPolicyMatching() {
+        TracingPolicy.Rule health = TracingPolicy.Rule.forPath("/health/**");
+        TracingPolicy.Rule orders = TracingPolicy.Rule.forPath("/users/{id}/orders").withMethod("GET");
+        TracingPolicy.Rule metadata = TracingPolicy.Rule.forHost("Metadata.internal");
+        TracingPolicy.Rule user = TracingPolicy.Rule.forPath("/users/*");
+        TracingPolicy policy = new TracingPolicy(health, orders, metadata, user);
+
+        HttpRoute route = new HttpRoute(new HttpHost("localhost"));
+        HttpRoute metadataRoute = new HttpRoute(new HttpHost("metadata.internal"));
+        Assert.assertSame(health, policy.match(route, get("/health")));
+        Assert.assertSame(health, policy.match(metadataRoute, get("/health/live?verbose")));
+        Assert.assertSame(orders, policy.match(route, get("http://localhost/users/1/orders/")));
+        Assert.assertNull(policy.match(route, HttpRequestWrapper.wrap(new BasicHttpRequest("POST", "/users/1/orders"))));
+        Assert.assertSame(metadata, policy.match(metadataRoute, get("/users/1")));
+        Assert.assertSame(user, policy.match(route, get("/users/1")));
+        Assert.assertNull(policy.match(route, get("/users/1/2")));
+        Assert.assertNull(policy.match(route, get("/")));
+    }
+
+    private static HttpRequestWrapper get(String uri) {
+        return HttpRequestWrapper.wrap(new BasicHttpRequest("GET", uri));
+    }
+
+    @Test
+    public void testPathNormalizer() {
+        PathNormalizer normalizer = new PathNormalizer(Collections.singletonList("/files/{name}"),
+                PathNormalizer.QueryMode.STRIP, 16);
+        Assert.assertEquals("/users/{id}/orders", normalizer.normalize("/users/42/orders"));
+        Assert.assertEquals("/users/{uuid}/", normalizer.normalize("/users/123e4567-e89b-12d3-a456-426614174000/"));
+        Assert.assertEquals("/objects/{id}", normalizer.normalize("/objects/0123456789abcdef0123"));
+        Assert.assertEquals("/users/me", normalizer.normalize("/users/me"));
+        Assert.assertEquals("/files/{name}", normalizer.normalize("/files/report.pdf"));
+        Assert.assertEquals("/", normalizer.normalize("/"));
+        Assert.assertEquals("http://localhost/a", normalizer.normalizeUrl("http://localhost/a?id=1#top"));
+
+        PathNormalizer hashing = new PathNormalizer(Collections.<String>emptyList(),
+                PathNormalizer.QueryMode.HASH, 16);
+        String hashed = hashing.normalizeUrl("http://localhost/a?token=secret");
+        Assert.assertTrue(hashed, hashed.startsWith("http://localhost/a?"));
+        Assert.assertFalse(hashed.contains("secret"));
+        Assert.assertEquals(hashed, hashing.normalizeUrl("http://localhost/a?token=secret#top"));
+        Assert.assertEquals("http://localhost/a", hashing.normalizeUrl("http://localhost/a"));
+    }
+
+    @Test
+    public void testPathNormalizerCacheSize() {
+        PathNormalizer normalizer = new PathNormalizer(Collections.<String>emptyList(),
+                PathNormalizer.QueryMode.KEEP, 4);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("/users/{id}", normalizer.normalize("/users/" + i));
+            Assert.assertEquals("/orders", normalizer.normalize("/orders"));
+        }
+        // old paths are evicted, recently used paths stay cached
+        Assert.assertEquals(4, normalizer.cachedPaths());
+        Assert.assertEquals("/orders", normalizer.normalize("/orders"));
+        Assert.assertEquals(4, normalizer.cachedPaths());
+    }
+
+    @Test
+    public void testRouteTags() throws IOException {
+        PathNormalizer normalizer = new PathNormalizer(Collections.<String>emptyList(),
+                PathNormalizer.QueryMode.STRIP, PathNormalizer.DEFAULT_CACHE_SIZE);
+        CloseableHttpClient client = ((TracingHttpClientBuilder)clientBuilder)
+                .withSpanDecorators(Arrays.asList(
+                        new ApacheClientSpanDecorator.StandardTags(
+                                ApacheClientSpanDecorator.StandardTags.DEFAULT_MAX_CACHED_PEERS, normalizer),
+                        new ApacheClientSpanDecorator.RouteTags(normalizer, true)))
+                .build();
+        EntityUtils.consume(client.execute(new HttpGet(serverUrl("/payload/42?id=42"))).getEntity());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        MockSpan clientSpan = mockSpans.get(0);
+        Assert.assertEquals("GET /payload/{id}", clientSpan.operationName());
+        Assert.assertEquals("/payload/{id}", clientSpan.tags().get(ApacheClientSpanDecorator.RouteTags.HTTP_ROUTE.getKey()));
+        Assert.assertEquals(serverUrl("/payload/42"), clientSpan.tags().get(Tags.HTTP_URL.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        CloseableHttpClient client = clientBuilder.build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<HttpGet> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(new HttpGet(serverUrl("/echo/" + i)));
+        }
+        List<TracingFanOut.Result<Integer>> results = new TracingFanOut(client, executor, mockTracer)
+                .execute("fanout", requests, new StatusCodeHandler());
+        executor.shutdown();
+
+        Assert.assertEquals(5, results.size());
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(11, mockSpans.size());
+        MockSpan batchSpan = mockSpans.get(10);
+        Assert.assertEquals("fanout", batchSpan.operationName());
+        Assert.assertEquals(5, batchSpan.tags().get(TracingFanOut.COUNT));
+        Assert.assertEquals(0, batchSpan.tags().get(TracingFanOut.FAILURES));
+        Assert.assertTrue((Long) batchSpan.tags().get(TracingFanOut.MAX_LATENCY_MICROS)
+                >= (Long) batchSpan.tags().get(TracingFanOut.MIN_LATENCY_MICROS));
+        Assert.assertNotNull(batchSpan.tags().get(TracingFanOut.STRAGGLERS));
+        for (MockSpan mockSpan : mockSpans) {
+            if (mockSpan != batchSpan && !Tags.SPAN_KIND_CLIENT.equals(mockSpan.tags().get(Tags.SPAN_KIND.getKey()))) {
+                Assert.assertEquals(batchSpan.context().spanId(), mockSpan.parentId());
+            }
+        }
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testFanOutSlowest() throws Exception {
+        CloseableHttpClient client = clientBuilder.build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<HttpGet> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(new HttpGet(serverUrl(PropagationHandler.MAPPING)));
+        }
+        requests.add(new HttpGet("http://nonexisting.example.com"));
+        List<TracingFanOut.Result<Integer>> results = new TracingFanOut(client, executor, mockTracer, 2,
+                TracingFanOut.DEFAULT_STRAGGLER_FACTOR).execute("fanout", requests, new StatusCodeHandler());
+        executor.shutdown();
+
+        Assert.assertEquals(200, results.get(0).getStatusCode());
+        Assert.assertEquals(Integer.valueOf(200), results.get(0).getValue());
+        Assert.assertTrue(results.get(4).getException() instanceof UnknownHostException);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(1, mockSpans.size());
+        MockSpan batchSpan = mockSpans.get(0);
+        Assert.assertEquals(5, batchSpan.tags().get(TracingFanOut.COUNT));
+        Assert.assertEquals(1, batchSpan.tags().get(TracingFanOut.FAILURES));
+        Assert.assertEquals(Boolean.TRUE, batchSpan.tags().get(Tags.ERROR.getKey()));
+        Assert.assertEquals(String.valueOf(batchSpan.context().spanId()),
+                PropagationHandler.lastRequest.getFirstHeader("spanId").getValue());
+        for (HttpGet request : requests) {
+            Assert.assertNull(request.getFirstHeader("spanId"));
+        }
+        // the slowest requests are logged on the batch span instead of being reported as client spans
+        List<MockSpan.LogEntry> logs = batchSpan.logEntries();
+        Assert.assertEquals(2, logs.size());
+        for (MockSpan.LogEntry log : logs) {
+            Assert.assertEquals(TracingFanOut.SLOWEST, log.fields().get("event"));
+            Assert.assertEquals("GET", log.fields().get(Tags.HTTP_METHOD.getKey()));
+            Assert.assertTrue(log.fields().get(TracingFanOut.LATENCY_MICROS) instanceof Long);
+            Assert.assertTrue(log.timestampMicros() >= batchSpan.startMicros());
+        }
+        Assert.assertTrue((Long) logs.get(0).fields().get(TracingFanOut.LATENCY_MICROS)
+                >= (Long) logs.get(1).fields().get(TracingFanOut.LATENCY_MICROS));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testFanOutLatencyOfFailedTasks() throws Exception {
+        CloseableHttpClient client = clientBuilder.build();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<HttpGet> requests = Arrays.asList(new HttpGet(serverUrl(UnavailableHandler.MAPPING)),
+                new HttpGet(serverUrl(PropagationHandler.MAPPING)));
+        List<TracingFanOut.Result<Integer>> results = new TracingFanOut(client, executor, mockTracer, 0,
+                TracingFanOut.DEFAULT_STRAGGLER_FACTOR).execute("fanout", requests, new ResponseHandler<Integer>() {
+                    @Override
+                    public Integer handleResponse(HttpResponse response) throws IOException {
+                        EntityUtils.consume(response.getEntity());
+                        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+                            throw new AssertionError("task failure");
+                        }
+                        return response.getStatusLine().getStatusCode();
+                    }
+                });
+        executor.shutdown();
+
+        Assert.assertTrue(results.get(0).getException() instanceof AssertionError);
+        Assert.assertEquals(0, results.get(0).getLatencyNanos());
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        MockSpan batchSpan = mockSpans.get(mockSpans.size() - 1);
+        Assert.assertEquals(1, batchSpan.tags().get(TracingFanOut.FAILURES));
+        // the failed task is not the fastest request
+        Assert.assertTrue((Long) batchSpan.tags().get(TracingFanOut.MIN_LATENCY_MICROS) > 0);
+        Assert.assertEquals(batchSpan.tags().get(TracingFanOut.MIN_LATENCY_MICROS),
+                batchSpan.tags().get(TracingFanOut.MAX_LATENCY_MICROS));
+        Assert.assertEquals(0, batchSpan.tags().get(TracingFanOut.STRAGGLERS));
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            TracingHedging hedging = new TracingHedging(clientBuilder.build(), executor, mockTracer, 50);
+            HttpGet request = new HttpGet(serverUrl(SlowFirstHandler.MAPPING));
+            int statusCode = hedging.execute(request, new StatusCodeHandler());
+            Assert.assertEquals(200, statusCode);
+            // the primary attempt was aborted, not the request of the caller
+            Assert.assertFalse(request.isAborted());
+            // spans of the aborted attempt are finished on the executor thread
+            awaitFinishedSpans(6);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<MockSpan> attemptSpans = new ArrayList<>();
+        for (MockSpan mockSpan : mockTracer.finishedSpans()) {
+            if (TracingHedging.OPERATION_NAME.equals(mockSpan.operationName())) {
+                attemptSpans.add(mockSpan);
+            }
+        }
+        Assert.assertEquals(2, attemptSpans.size());
+        Map<Integer, String> outcomes = new HashMap<>();
+        for (MockSpan attemptSpan : attemptSpans) {
+            outcomes.put((Integer) attemptSpan.tags().get(TracingHedging.HEDGE_NUMBER.getKey()),
+                    (String) attemptSpan.tags().get(TracingHedging.HEDGE_OUTCOME.getKey()));
+        }
+        Assert.assertEquals(TracingHedging.OUTCOME_CANCEL, outcomes.get(0));
+        Assert.assertEquals(TracingHedging.OUTCOME_WIN, outcomes.get(1));
+    }
+
+    @Test
+    public void testHedgingDelayEstimate() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            TracingHedging hedging = new TracingHedging(clientBuilder.build(), executor, mockTracer, 10000);
+            Assert.assertEquals(TimeUnit.SECONDS.toNanos(10), hedging.hedgeDelayNanos(serverHost));
+            for (int i = 0; i < TracingHedging.MIN_SAMPLES; i++) {
+                Assert.assertEquals(200, hedging.execute(new HttpGet(serverUrl("/echo/a")), new StatusCodeHandler())
+                        .intValue());
+            }
+            long delayNanos = hedging.hedgeDelayNanos(serverHost);
+            Assert.assertTrue(delayNanos > 0 && delayNanos < TimeUnit.SECONDS.toNanos(10));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (MockSpan mockSpan : mockTracer.finishedSpans()) {
+            if (TracingHedging.OPERATION_NAME.equals(mockSpan.operationName())) {
+                Assert.assertEquals(0, mockSpan.tags().get(TracingHedging.HEDGE_NUMBER.getKey()));
+                Assert.assertEquals(TracingHedging.OUTCOME_WIN, mockSpan.tags().get(TracingHedging.HEDGE_OUTCOME.getKey()));
+            }
+        }
+        Assert.assertEquals(3 * TracingHedging.MIN_SAMPLES, mockTracer.finishedSpans().size());
+    }
+
+    @Test
+    public void testHedgingRateLimit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // no hedge delay, every request is hedged until the budget of the route is spent
+            TracingHedging hedging = new TracingHedging(clientBuilder.build(), executor, mockTracer,
+                    TracingHedging.DEFAULT_PERCENTILE, 0, TracingHedging.DEFAULT_MAX_ROUTES, 0);
+            for (int i = 0; i < TracingHedging.MAX_HEDGE_BURST + 5; i++) {
+                Assert.assertEquals(200, hedging.execute(new HttpGet(serverUrl("/echo/a")), new StatusCodeHandler())
+                        .intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int hedges = 0;
+        for (MockSpan mockSpan : mockTracer.finishedSpans()) {
+            if (TracingHedging.OPERATION_NAME.equals(mockSpan.operationName())
+                    && Integer.valueOf(1).equals(mockSpan.tags().get(TracingHedging.HEDGE_NUMBER.getKey()))) {
+                hedges++;
+            }
+        }
+        Assert.assertEquals(TracingHedging.MAX_HEDGE_BURST, hedges);
+    }
+
+    static class StatusCodeHandler implements ResponseHandler<Integer> {
+        @Override
+        public Integer handleResponse(HttpResponse response) throws IOException {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    public void assertLocalSpan(MockSpan mockSpan) {
+        Assert.assertEquals(1, mockSpan.tags().size());
+        Assert.assertEquals(TracingClientExec.COMPONENT_NAME, mockSpan.tags().get(Tags.COMPONENT.getKey()));
+    }
+
+    protected String serverUrl(String path) {
+        return serverHost.toString() + path;
+    }
+
+    public static void assertOnErrors(List<MockSpan> spans) {
+        for (MockSpan mockSpan: spans) {
+            Assert.assertEquals(mockSpan.generatedErrors().toString(), 0, mockSpan.generatedErrors().size());
+        }
+    }
+
+    public static class RedirectHandler implements HttpRequestHandler {
+
+        public static final String MAPPING = "/redirect";
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+
+            response.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+            response.addHeader("Location", PropagationHandler.MAPPING);
+        }
+    }
+
+    public static class PayloadHandler implements HttpRequestHandler {
+        public static final String MAPPING = "/payload";
+        public static final byte[] PAYLOAD = new byte[64 * 1024];
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            response.setStatusCode(HttpStatus.SC_OK);
+            response.setEntity(new ByteArrayEntity(PAYLOAD));
+        }
+    }
+
+    public static class FailingHandler implements HttpRequestHandler {
+        public static final String MAPPING = "/failing";
+        public static final String BODY = "internal failure details";
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            response.setStatusCode(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            response.setEntity(new StringEntity(BODY));
+        }
+    }
+
+    /**
+     * Responds with 503 to the first two requests of each test and with 200 afterwards.
+     */
+    public static class UnavailableHandler implements HttpRequestHandler {
+        public static final String MAPPING = "/unavailable";
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            response.setStatusCode(requests.getAndIncrement() < 2
+                    ? HttpStatus.SC_SERVICE_UNAVAILABLE : HttpStatus.SC_OK);
+        }
+    }
+
+    /**
+     * Delays the response to the first request of each test.
+     */
+    public static class SlowFirstHandler implements HttpRequestHandler {
+        public static final String MAPPING = "/slow";
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            if (requests.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            response.setStatusCode(HttpStatus.SC_OK);
+        }
+    }
+
+    public static class PropagationHandler implements HttpRequestHandler {
+        public static final String MAPPING = "/propagation";
+        public static HttpRequest lastRequest;
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                throws HttpException, IOException {
+            // TODO this is ugly...
+            lastRequest = request;
+            response.setStatusCode(HttpStatus.SC_OK);
+        }
+    }
+
+    private static class B3SampledPropagator implements MockTracer.Propagator {
+        private final String sampled;
+
+        B3SampledPropagator(String sampled) {
+            this.sampled = sampled;
+        }
+
+        @Override
+        public <C> void inject(MockSpan.MockContext ctx, Format<C> format, C carrier) {
+            MockTracer.Propagator.TEXT_MAP.inject(ctx, format, carrier);
+            ((TextMap) carrier).put("X-B3-Sampled", sampled);
+        }
+
+        @Override
+        public <C> MockSpan.MockContext extract(Format<C> format, C carrier) {
+            return MockTracer.Propagator.TEXT_MAP.extract(format, carrier);
         }
     }
 }
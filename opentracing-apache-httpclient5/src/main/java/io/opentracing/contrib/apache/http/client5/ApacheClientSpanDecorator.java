@@ -0,0 +1,113 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import io.opentracing.Span;
+import io.opentracing.tag.StringTag;
+import io.opentracing.tag.Tags;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.ProtocolVersion;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.net.URIAuthority;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decorate span at different stages of request processing. Do not finish span in decorator.
+ *
+ * <p>Decorators are shared by the classic and the async client, in the async client they are
+ * invoked on IO dispatcher threads.
+ */
+public interface ApacheClientSpanDecorator {
+
+    /**
+     * Decorate span before request is fired.
+     *
+     * @param request request, scheme and authority are always set
+     * @param httpContext context
+     * @param span span to decorate
+     */
+    void onRequest(HttpRequest request, HttpContext httpContext, Span span);
+
+    /**
+     * Decorate span after response head is received.
+     *
+     * @param response response
+     * @param httpContext context
+     * @param span span to decorate
+     */
+    void onResponse(HttpResponse response, HttpContext httpContext, Span span);
+
+    /**
+     *  Decorate span span on error e.g. {@link java.net.UnknownHostException}.
+     *
+     * @param request request
+     * @param httpContext context
+     * @param ex exception
+     * @param span span to decorate
+     */
+    void onError(HttpRequest request, HttpContext httpContext, Exception ex, Span span);
+
+    /**
+     * Decorator which adds standard set of tags and logs. Besides the standard tags the negotiated
+     * protocol version is added as {@link #HTTP_PROTOCOL}, for HTTP/2 a client span represents
+     * a single stream.
+     */
+    class StandardTags implements ApacheClientSpanDecorator {
+        public static final StringTag HTTP_PROTOCOL = new StringTag("http.protocol");
+
+        @Override
+        public void onRequest(HttpRequest request, HttpContext httpContext, Span span) {
+            Tags.HTTP_METHOD.set(span, request.getMethod());
+
+            URIAuthority authority = request.getAuthority();
+            if (authority != null) {
+                Tags.HTTP_URL.set(span, url(request, authority));
+                Tags.PEER_HOSTNAME.set(span, authority.getHostName());
+                Tags.PEER_PORT.set(span, port(authority.getPort(), request.getScheme()));
+            }
+        }
+
+        @Override
+        public void onResponse(HttpResponse response, HttpContext httpContext, Span span) {
+            Tags.HTTP_STATUS.set(span, response.getCode());
+            ProtocolVersion version = response.getVersion() != null ? response.getVersion()
+                : httpContext.getProtocolVersion();
+            if (version != null) {
+                HTTP_PROTOCOL.set(span, version.format());
+            }
+        }
+
+        @Override
+        public void onError(HttpRequest request, HttpContext httpContext, Exception ex, Span span) {
+            Tags.ERROR.set(span, Boolean.TRUE);
+            span.log(errorLogs(ex));
+        }
+
+        private static String url(HttpRequest request, URIAuthority authority) {
+            // user info of the authority is intentionally left out
+            StringBuilder url = new StringBuilder()
+                .append(request.getScheme() != null ? request.getScheme() : "http")
+                .append("://")
+                .append(authority.getHostName());
+            if (authority.getPort() != -1) {
+                url.append(':').append(authority.getPort());
+            }
+            return url.append(request.getPath() != null ? request.getPath() : "/").toString();
+        }
+
+        private static int port(int port, String scheme) {
+            if (port == -1 && scheme != null) {
+                return scheme.equalsIgnoreCase("https") ? 443 : 80;
+            }
+            return port;
+        }
+
+        private static Map<String, Object> errorLogs(Throwable throwable) {
+            Map<String, Object> errorLogs = new HashMap<>(2);
+            errorLogs.put("event", Tags.ERROR.getKey());
+            errorLogs.put("error.object", throwable);
+            return errorLogs;
+        }
+    }
+}
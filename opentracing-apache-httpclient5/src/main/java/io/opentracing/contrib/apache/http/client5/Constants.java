@@ -0,0 +1,16 @@
+package io.opentracing.contrib.apache.http.client5;
+
+public final class Constants {
+
+  private Constants() {}
+
+  /**
+   * SpanContext which will be used as a parent for created client span.
+   */
+  public static final String PARENT_CONTEXT = TracingHttpClientBuilder.class.getName() + ".parentSpanContext";
+
+  /**
+   * Value of the component tag of local spans.
+   */
+  public static final String COMPONENT_NAME = "apache-httpclient5";
+}
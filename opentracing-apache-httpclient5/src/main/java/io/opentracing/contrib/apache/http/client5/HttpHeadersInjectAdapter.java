@@ -0,0 +1,27 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.hc.core5.http.HttpRequest;
+
+import io.opentracing.propagation.TextMap;
+
+public class HttpHeadersInjectAdapter implements TextMap {
+
+    private HttpRequest httpRequest;
+
+    public HttpHeadersInjectAdapter(HttpRequest httpRequest) {
+        this.httpRequest = httpRequest;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        httpRequest.setHeader(key, value);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        throw new UnsupportedOperationException("This class should be used only with tracer#inject()");
+    }
+}
@@ -0,0 +1,153 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import static io.opentracing.contrib.apache.http.client5.Constants.PARENT_CONTEXT;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hc.client5.http.async.AsyncExecCallback;
+import org.apache.hc.client5.http.async.AsyncExecChain;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncDataConsumer;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+
+/**
+ * Async exec chain handler which starts a local span for every logical request. It has to be
+ * the first element of the chain. The span is finished when the final response is received or the
+ * exchange fails, before the result is handed over to the caller.
+ *
+ * <p>Parent of the local span is captured when the request is submitted, spans are never
+ * activated, so nothing touches the scope manager on IO dispatcher threads.
+ */
+public class LocalSpanAsyncExecChainHandler implements AsyncExecChainHandler {
+
+  private final Tracer tracer;
+
+  public LocalSpanAsyncExecChainHandler(Tracer tracer) {
+    this.tracer = tracer;
+  }
+
+  @Override
+  public void execute(
+      HttpRequest request,
+      AsyncEntityProducer entityProducer,
+      AsyncExecChain.Scope scope,
+      AsyncExecChain chain,
+      AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
+    HttpClientContext clientContext = scope.clientContext;
+
+    SpanContext parentContext = clientContext.getAttribute(PARENT_CONTEXT, SpanContext.class);
+    if (parentContext == null) {
+      Span activeSpan = tracer.activeSpan();
+      parentContext = activeSpan == null ? null : activeSpan.context();
+    }
+    Tracer.SpanBuilder spanBuilder = tracer.buildSpan(request.getMethod())
+        .withTag(Tags.COMPONENT.getKey(), Constants.COMPONENT_NAME)
+        .ignoreActiveSpan();
+    if (parentContext != null) {
+      spanBuilder.asChildOf(parentContext);
+    }
+
+    Span span = spanBuilder.start();
+    clientContext.setAttribute(LocalSpanExecChainHandler.SPAN_PROP, span);
+    LocalSpanCallback callback = new LocalSpanCallback(asyncExecCallback, span);
+    try {
+      chain.proceed(request, entityProducer, scope, callback);
+    } catch (HttpException | IOException | RuntimeException e) {
+      callback.finish();
+      throw e;
+    }
+  }
+
+  private static final class LocalSpanCallback implements AsyncExecCallback {
+    private final AsyncExecCallback delegate;
+    private final Span span;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    LocalSpanCallback(AsyncExecCallback delegate, Span span) {
+      this.delegate = delegate;
+      this.span = span;
+    }
+
+    @Override
+    public AsyncDataConsumer handleResponse(HttpResponse response, EntityDetails entityDetails)
+        throws HttpException, IOException {
+      // the caller is notified by the response consumer, not by completed()
+      if (entityDetails == null) {
+        finish();
+        return delegate.handleResponse(response, null);
+      }
+      AsyncDataConsumer dataConsumer = delegate.handleResponse(response, entityDetails);
+      return dataConsumer != null ? new LocalSpanDataConsumer(dataConsumer, this) : null;
+    }
+
+    @Override
+    public void handleInformationResponse(HttpResponse response) throws HttpException, IOException {
+      delegate.handleInformationResponse(response);
+    }
+
+    @Override
+    public void completed() {
+      finish();
+      delegate.completed();
+    }
+
+    @Override
+    public void failed(Exception cause) {
+      finish();
+      delegate.failed(cause);
+    }
+
+    void finish() {
+      if (finished.compareAndSet(false, true)) {
+        span.finish();
+      }
+    }
+  }
+
+  /**
+   * Finishes the local span when the response body is fully received, before the caller is notified.
+   */
+  private static final class LocalSpanDataConsumer implements AsyncDataConsumer {
+    private final AsyncDataConsumer delegate;
+    private final LocalSpanCallback callback;
+
+    LocalSpanDataConsumer(AsyncDataConsumer delegate, LocalSpanCallback callback) {
+      this.delegate = delegate;
+      this.callback = callback;
+    }
+
+    @Override
+    public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+      delegate.updateCapacity(capacityChannel);
+    }
+
+    @Override
+    public void consume(ByteBuffer src) throws IOException {
+      delegate.consume(src);
+    }
+
+    @Override
+    public void streamEnd(List<? extends Header> trailers) throws HttpException, IOException {
+      callback.finish();
+      delegate.streamEnd(trailers);
+    }
+
+    @Override
+    public void releaseResources() {
+      delegate.releaseResources();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import static io.opentracing.contrib.apache.http.client5.Constants.PARENT_CONTEXT;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+import java.io.IOException;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+
+/**
+ * Classic exec chain handler which starts a local span for every logical request. It has to be
+ * the first element of the chain, so that redirects and retries are children of a single local span.
+ *
+ * <p>The span is stored in the context under {@link #SPAN_PROP}, client spans created by
+ * {@link TracingExecChainHandler} further down the chain are its children.
+ */
+public class LocalSpanExecChainHandler implements ExecChainHandler {
+
+  /**
+   * Id of {@link HttpClientContext#setAttribute(String, Object)} holding the local span of the request.
+   */
+  static final String SPAN_PROP = TracingHttpClientBuilder.class.getName() + ".localSpan";
+
+  private final Tracer tracer;
+
+  public LocalSpanExecChainHandler(Tracer tracer) {
+    this.tracer = tracer;
+  }
+
+  @Override
+  public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+      throws IOException, HttpException {
+    HttpClientContext clientContext = scope.clientContext;
+
+    Tracer.SpanBuilder spanBuilder = tracer.buildSpan(request.getMethod())
+        .withTag(Tags.COMPONENT.getKey(), Constants.COMPONENT_NAME);
+    SpanContext parentContext = clientContext.getAttribute(PARENT_CONTEXT, SpanContext.class);
+    if (parentContext != null) {
+      spanBuilder.ignoreActiveSpan()
+          .asChildOf(parentContext);
+    }
+
+    Span span = spanBuilder.start();
+    clientContext.setAttribute(SPAN_PROP, span);
+    try {
+      return chain.proceed(request, scope);
+    } finally {
+      clientContext.removeAttribute(SPAN_PROP);
+      span.finish();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.tag.Tags;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hc.client5.http.async.AsyncExecCallback;
+import org.apache.hc.client5.http.async.AsyncExecChain;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncDataConsumer;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+
+/**
+ * Async exec chain handler which creates a client span for every request sent to the network,
+ * this includes redirects and retries. It has to be placed right before
+ * {@link org.apache.hc.client5.http.impl.ChainElement#PROTOCOL}.
+ *
+ * <p>The client span is finished when the response head is received or when the exchange fails.
+ * With HTTP/2 every exchange is a separate stream multiplexed over a shared connection, so each
+ * client span represents a single stream.
+ */
+public class TracingAsyncExecChainHandler implements AsyncExecChainHandler {
+
+  private final Tracer tracer;
+  private final List<ApacheClientSpanDecorator> spanDecorators;
+  private final boolean injectDisabled;
+
+  public TracingAsyncExecChainHandler(
+      Tracer tracer,
+      List<ApacheClientSpanDecorator> spanDecorators,
+      boolean injectDisabled) {
+    this.tracer = tracer;
+    this.spanDecorators = Collections.unmodifiableList(new ArrayList<>(spanDecorators));
+    this.injectDisabled = injectDisabled;
+  }
+
+  @Override
+  public void execute(
+      HttpRequest request,
+      AsyncEntityProducer entityProducer,
+      AsyncExecChain.Scope scope,
+      AsyncExecChain chain,
+      AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
+    HttpClientContext clientContext = scope.clientContext;
+    TracingExecChainHandler.ensureTarget(request, scope.route);
+
+    Tracer.SpanBuilder spanBuilder = tracer.buildSpan(request.getMethod())
+        .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+        .ignoreActiveSpan();
+    Span localSpan = clientContext.getAttribute(LocalSpanExecChainHandler.SPAN_PROP, Span.class);
+    if (localSpan != null) {
+      spanBuilder.asChildOf(localSpan);
+    }
+    Span span = spanBuilder.start();
+
+    if (!injectDisabled) {
+      tracer.inject(span.context(), Format.Builtin.HTTP_HEADERS, new HttpHeadersInjectAdapter(request));
+    }
+    for (ApacheClientSpanDecorator decorator : spanDecorators) {
+      decorator.onRequest(request, clientContext, span);
+    }
+
+    ClientSpanCallback callback = new ClientSpanCallback(asyncExecCallback, span, request, clientContext);
+    try {
+      chain.proceed(request, entityProducer, scope, callback);
+    } catch (HttpException | IOException | RuntimeException e) {
+      callback.finish(null, e);
+      throw e;
+    }
+  }
+
+  private final class ClientSpanCallback implements AsyncExecCallback {
+    private final AsyncExecCallback delegate;
+    private final Span span;
+    private final HttpRequest request;
+    private final HttpClientContext clientContext;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    ClientSpanCallback(AsyncExecCallback delegate, Span span, HttpRequest request, HttpClientContext clientContext) {
+      this.delegate = delegate;
+      this.span = span;
+      this.request = request;
+      this.clientContext = clientContext;
+    }
+
+    @Override
+    public AsyncDataConsumer handleResponse(HttpResponse response, EntityDetails entityDetails)
+        throws HttpException, IOException {
+      finish(response, null);
+      return delegate.handleResponse(response, entityDetails);
+    }
+
+    @Override
+    public void handleInformationResponse(HttpResponse response) throws HttpException, IOException {
+      delegate.handleInformationResponse(response);
+    }
+
+    @Override
+    public void completed() {
+      finish(null, null);
+      delegate.completed();
+    }
+
+    @Override
+    public void failed(Exception cause) {
+      finish(null, cause);
+      delegate.failed(cause);
+    }
+
+    void finish(HttpResponse response, Exception ex) {
+      if (!finished.compareAndSet(false, true)) {
+        return;
+      }
+      for (ApacheClientSpanDecorator decorator : spanDecorators) {
+        if (response != null) {
+          decorator.onResponse(response, clientContext, span);
+        } else if (ex != null) {
+          decorator.onError(request, clientContext, ex, span);
+        }
+      }
+      span.finish();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.tag.Tags;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.net.URIAuthority;
+
+/**
+ * Classic exec chain handler which creates a client span for every request sent to the network,
+ * this includes redirects and retries. It has to be placed right before
+ * {@link org.apache.hc.client5.http.impl.ChainElement#PROTOCOL}.
+ *
+ * <p>Client span is a child of the local span started by {@link LocalSpanExecChainHandler},
+ * it is active while the rest of the chain is executed.
+ */
+public class TracingExecChainHandler implements ExecChainHandler {
+
+  private final Tracer tracer;
+  private final List<ApacheClientSpanDecorator> spanDecorators;
+  private final boolean injectDisabled;
+
+  public TracingExecChainHandler(
+      Tracer tracer,
+      List<ApacheClientSpanDecorator> spanDecorators,
+      boolean injectDisabled) {
+    this.tracer = tracer;
+    this.spanDecorators = Collections.unmodifiableList(new ArrayList<>(spanDecorators));
+    this.injectDisabled = injectDisabled;
+  }
+
+  @Override
+  public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+      throws IOException, HttpException {
+    HttpClientContext clientContext = scope.clientContext;
+    ensureTarget(request, scope.route);
+
+    Tracer.SpanBuilder spanBuilder = tracer.buildSpan(request.getMethod())
+        .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT);
+    Span localSpan = clientContext.getAttribute(LocalSpanExecChainHandler.SPAN_PROP, Span.class);
+    if (localSpan != null) {
+      spanBuilder.asChildOf(localSpan);
+    }
+    Span span = spanBuilder.start();
+
+    if (!injectDisabled) {
+      tracer.inject(span.context(), Format.Builtin.HTTP_HEADERS, new HttpHeadersInjectAdapter(request));
+    }
+    for (ApacheClientSpanDecorator decorator : spanDecorators) {
+      decorator.onRequest(request, clientContext, span);
+    }
+
+    try (Scope ignored = tracer.activateSpan(span)) {
+      ClassicHttpResponse response = chain.proceed(request, scope);
+      for (ApacheClientSpanDecorator decorator : spanDecorators) {
+        decorator.onResponse(response, clientContext, span);
+      }
+      return response;
+    } catch (IOException | HttpException | RuntimeException e) {
+      for (ApacheClientSpanDecorator decorator : spanDecorators) {
+        decorator.onError(request, clientContext, e, span);
+      }
+      throw e;
+    } finally {
+      span.finish();
+    }
+  }
+
+  /**
+   * Sets scheme and authority of the request from the route target the same way
+   * {@code ProtocolExec} does, so that decorators see the full request URI.
+   */
+  static void ensureTarget(HttpRequest request, HttpRoute route) {
+    HttpHost target = route.getTargetHost();
+    if (request.getScheme() == null) {
+      request.setScheme(target.getSchemeName());
+    }
+    if (request.getAuthority() == null) {
+      request.setAuthority(new URIAuthority(target));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.core5.http.config.NamedElementChain;
+
+/**
+ * Builder of traced HTTP/2 only async clients. Every logical request is represented by a local
+ * span, every stream by a client child span.
+ */
+public class TracingH2AsyncClientBuilder extends H2AsyncClientBuilder {
+
+    private Tracer tracer;
+    private List<ApacheClientSpanDecorator> spanDecorators;
+    private boolean injectDisabled;
+
+    /**
+     * When using this constructor tracer should be registered via
+     * {@link GlobalTracer#register(Tracer)}.
+     */
+    public TracingH2AsyncClientBuilder() {
+        this(GlobalTracer.get(),
+            Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()));
+    }
+
+    /**
+     * @param tracer tracer instance
+     * @param spanDecorators decorators
+     */
+    public TracingH2AsyncClientBuilder(
+        Tracer tracer,
+        List<ApacheClientSpanDecorator> spanDecorators) {
+        this.tracer = tracer;
+        this.spanDecorators = new ArrayList<>(spanDecorators);
+    }
+
+    public static TracingH2AsyncClientBuilder create() {
+        return new TracingH2AsyncClientBuilder();
+    }
+
+    public TracingH2AsyncClientBuilder withTracer(Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    public TracingH2AsyncClientBuilder withSpanDecorators(List<ApacheClientSpanDecorator> decorators) {
+        this.spanDecorators = new ArrayList<>(decorators);
+        return this;
+    }
+
+    public TracingH2AsyncClientBuilder disableInjection() {
+        this.injectDisabled = true;
+        return this;
+    }
+
+    @Override
+    protected void customizeExecChain(NamedElementChain<AsyncExecChainHandler> execChainDefinition) {
+        super.customizeExecChain(execChainDefinition);
+        execChainDefinition.addFirst(new LocalSpanAsyncExecChainHandler(tracer),
+            TracingHttpClientBuilder.LOCAL_SPAN);
+        execChainDefinition.addBefore(ChainElement.PROTOCOL.name(),
+            new TracingAsyncExecChainHandler(tracer, spanDecorators, injectDisabled),
+            TracingHttpClientBuilder.CLIENT_SPAN);
+    }
+}
@@ -0,0 +1,71 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.core5.http.config.NamedElementChain;
+
+/**
+ * Builder of traced async clients negotiating HTTP/1.1 or HTTP/2. Every logical request is
+ * represented by a local span, every exchange sent to the network by a client child span.
+ */
+public class TracingHttpAsyncClientBuilder extends HttpAsyncClientBuilder {
+
+    private Tracer tracer;
+    private List<ApacheClientSpanDecorator> spanDecorators;
+    private boolean injectDisabled;
+
+    /**
+     * When using this constructor tracer should be registered via
+     * {@link GlobalTracer#register(Tracer)}.
+     */
+    public TracingHttpAsyncClientBuilder() {
+        this(GlobalTracer.get(),
+            Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()));
+    }
+
+    /**
+     * @param tracer tracer instance
+     * @param spanDecorators decorators
+     */
+    public TracingHttpAsyncClientBuilder(
+        Tracer tracer,
+        List<ApacheClientSpanDecorator> spanDecorators) {
+        this.tracer = tracer;
+        this.spanDecorators = new ArrayList<>(spanDecorators);
+    }
+
+    public static TracingHttpAsyncClientBuilder create() {
+        return new TracingHttpAsyncClientBuilder();
+    }
+
+    public TracingHttpAsyncClientBuilder withTracer(Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    public TracingHttpAsyncClientBuilder withSpanDecorators(List<ApacheClientSpanDecorator> decorators) {
+        this.spanDecorators = new ArrayList<>(decorators);
+        return this;
+    }
+
+    public TracingHttpAsyncClientBuilder disableInjection() {
+        this.injectDisabled = true;
+        return this;
+    }
+
+    @Override
+    protected void customizeExecChain(NamedElementChain<AsyncExecChainHandler> execChainDefinition) {
+        super.customizeExecChain(execChainDefinition);
+        execChainDefinition.addFirst(new LocalSpanAsyncExecChainHandler(tracer),
+            TracingHttpClientBuilder.LOCAL_SPAN);
+        execChainDefinition.addBefore(ChainElement.PROTOCOL.name(),
+            new TracingAsyncExecChainHandler(tracer, spanDecorators, injectDisabled),
+            TracingHttpClientBuilder.CLIENT_SPAN);
+    }
+}
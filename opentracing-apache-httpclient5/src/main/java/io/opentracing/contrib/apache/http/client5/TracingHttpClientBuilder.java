@@ -0,0 +1,75 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.core5.http.config.NamedElementChain;
+
+/**
+ * Builder of traced classic clients. Every logical request is represented by a local span, every
+ * request sent to the network (redirects and retries included) by a client child span.
+ */
+public class TracingHttpClientBuilder extends HttpClientBuilder {
+
+    /**
+     * Names of the tracing elements in the exec chain.
+     */
+    static final String LOCAL_SPAN = "OPENTRACING_LOCAL_SPAN";
+    static final String CLIENT_SPAN = "OPENTRACING_CLIENT_SPAN";
+
+    private Tracer tracer;
+    private List<ApacheClientSpanDecorator> spanDecorators;
+    private boolean injectDisabled;
+
+    /**
+     * When using this constructor tracer should be registered via
+     * {@link GlobalTracer#register(Tracer)}.
+     */
+    public TracingHttpClientBuilder() {
+        this(GlobalTracer.get(),
+            Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()));
+    }
+
+    /**
+     * @param tracer tracer instance
+     * @param spanDecorators decorators
+     */
+    public TracingHttpClientBuilder(
+        Tracer tracer,
+        List<ApacheClientSpanDecorator> spanDecorators) {
+        this.tracer = tracer;
+        this.spanDecorators = new ArrayList<>(spanDecorators);
+    }
+
+    public static TracingHttpClientBuilder create() {
+        return new TracingHttpClientBuilder();
+    }
+
+    public TracingHttpClientBuilder withTracer(Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    public TracingHttpClientBuilder withSpanDecorators(List<ApacheClientSpanDecorator> decorators) {
+        this.spanDecorators = new ArrayList<>(decorators);
+        return this;
+    }
+
+    public TracingHttpClientBuilder disableInjection() {
+        this.injectDisabled = true;
+        return this;
+    }
+
+    @Override
+    protected void customizeExecChain(NamedElementChain<ExecChainHandler> execChainDefinition) {
+        super.customizeExecChain(execChainDefinition);
+        execChainDefinition.addFirst(new LocalSpanExecChainHandler(tracer), LOCAL_SPAN);
+        execChainDefinition.addBefore(ChainElement.PROTOCOL.name(),
+            new TracingExecChainHandler(tracer, spanDecorators, injectDisabled), CLIENT_SPAN);
+    }
+}
@@ -0,0 +1,205 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.opentracing.Scope;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.tag.Tags;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+public class TracingHttpAsyncClientBuilderTest {
+
+    private static MockTracer mockTracer = new MockTracer(new ThreadLocalScopeManager(), MockTracer.Propagator.TEXT_MAP);
+
+    private static HttpAsyncServer server;
+    private static int serverPort;
+
+    private CloseableHttpAsyncClient asyncClient;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = TracingHttpClientBuilderTest.startTestServer();
+        serverPort = TracingHttpClientBuilderTest.port(server);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @After
+    public void tearDown() {
+        if (asyncClient != null) {
+            asyncClient.close(CloseMode.GRACEFUL);
+        }
+        mockTracer.reset();
+    }
+
+    @Test
+    public void testStandardTags() throws Exception {
+        asyncClient = start(new TracingHttpAsyncClientBuilder(mockTracer, standardTags()));
+        SimpleHttpResponse response = asyncClient.execute(SimpleRequestBuilder.get(serverUrl("/echo/a")).build(),
+                null).get();
+        Assert.assertEquals(200, response.getCode());
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals("GET", mockSpan.operationName());
+        Assert.assertEquals(7, mockSpan.tags().size());
+        Assert.assertEquals(Tags.SPAN_KIND_CLIENT, mockSpan.tags().get(Tags.SPAN_KIND.getKey()));
+        Assert.assertEquals("GET", mockSpan.tags().get(Tags.HTTP_METHOD.getKey()));
+        Assert.assertEquals(serverUrl("/echo/a"), mockSpan.tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(200, mockSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(serverPort, mockSpan.tags().get(Tags.PEER_PORT.getKey()));
+        Assert.assertEquals("localhost", mockSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+        Assert.assertEquals("HTTP/1.1",
+                mockSpan.tags().get(ApacheClientSpanDecorator.StandardTags.HTTP_PROTOCOL.getKey()));
+
+        MockSpan localSpan = mockSpans.get(1);
+        Assert.assertEquals(localSpan.context().spanId(), mockSpan.parentId());
+        Assert.assertEquals(Constants.COMPONENT_NAME, localSpan.tags().get(Tags.COMPONENT.getKey()));
+        TracingHttpClientBuilderTest.assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testRedirect() throws Exception {
+        asyncClient = start(new TracingHttpAsyncClientBuilder(mockTracer, standardTags()));
+        asyncClient.execute(SimpleRequestBuilder.get(
+                serverUrl(TracingHttpClientBuilderTest.RedirectHandler.MAPPING)).build(), null).get();
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+
+        MockSpan localSpan = mockSpans.get(2);
+        Assert.assertEquals(301, mockSpans.get(0).tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(200, mockSpans.get(1).tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(localSpan.context().spanId(), mockSpans.get(0).parentId());
+        Assert.assertEquals(localSpan.context().spanId(), mockSpans.get(1).parentId());
+
+        Assert.assertEquals(
+                TracingHttpClientBuilderTest.EchoHandler.lastRequest.getFirstHeader("spanId").getValue(),
+                String.valueOf(mockSpans.get(1).context().spanId()));
+        TracingHttpClientBuilderTest.assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testActiveParentSpan() throws Exception {
+        asyncClient = start(new TracingHttpAsyncClientBuilder(mockTracer, standardTags()));
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        try (Scope ignored = mockTracer.activateSpan(parent)) {
+            asyncClient.execute(SimpleRequestBuilder.get(serverUrl("/echo/a")).build(), null).get();
+        } finally {
+            parent.finish();
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+        Assert.assertEquals(parent.context().spanId(), mockSpans.get(1).parentId());
+        Assert.assertEquals(parent.context().traceId(), mockSpans.get(0).context().traceId());
+    }
+
+    @Test
+    public void testManualParentSpan() throws Exception {
+        asyncClient = start(new TracingHttpAsyncClientBuilder(mockTracer, standardTags()));
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(Constants.PARENT_CONTEXT, parent.context());
+
+        asyncClient.execute(SimpleRequestBuilder.get(serverUrl("/echo/a")).build(), context, null).get();
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertEquals(parent.context().spanId(), mockSpans.get(1).parentId());
+    }
+
+    @Test
+    public void testUnknownHostException() throws Exception {
+        asyncClient = start(new TracingHttpAsyncClientBuilder(mockTracer, standardTags()));
+        try {
+            asyncClient.execute(SimpleRequestBuilder.get("http://notexisting.example.com").build(), null).get();
+            Assert.fail();
+        } catch (ExecutionException ex) {
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals(Boolean.TRUE, mockSpan.tags().get(Tags.ERROR.getKey()));
+        Assert.assertEquals(1, mockSpan.logEntries().size());
+        Assert.assertEquals(Tags.ERROR.getKey(), mockSpan.logEntries().get(0).fields().get("event"));
+    }
+
+    @Test
+    public void testHttp2Streams() throws Exception {
+        asyncClient = start(new TracingH2AsyncClientBuilder(mockTracer, standardTags()));
+
+        int requests = 4;
+        @SuppressWarnings("unchecked")
+        Future<SimpleHttpResponse>[] futures = new Future[requests];
+        for (int i = 0; i < requests; i++) {
+            futures[i] = asyncClient.execute(SimpleRequestBuilder.get(serverUrl("/echo/" + i)).build(), null);
+        }
+        for (Future<SimpleHttpResponse> future: futures) {
+            Assert.assertEquals(200, future.get().getCode());
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2 * requests, mockSpans.size());
+
+        Set<Long> localSpanIds = new HashSet<>();
+        Set<Long> clientParentIds = new HashSet<>();
+        for (MockSpan mockSpan: mockSpans) {
+            if (Tags.SPAN_KIND_CLIENT.equals(mockSpan.tags().get(Tags.SPAN_KIND.getKey()))) {
+                Assert.assertEquals("HTTP/2.0",
+                        mockSpan.tags().get(ApacheClientSpanDecorator.StandardTags.HTTP_PROTOCOL.getKey()));
+                clientParentIds.add(mockSpan.parentId());
+            } else {
+                localSpanIds.add(mockSpan.context().spanId());
+            }
+        }
+        Assert.assertEquals(requests, localSpanIds.size());
+        Assert.assertEquals(localSpanIds, clientParentIds);
+        TracingHttpClientBuilderTest.assertOnErrors(mockSpans);
+    }
+
+    private static CloseableHttpAsyncClient start(TracingHttpAsyncClientBuilder builder) {
+        CloseableHttpAsyncClient client = builder.build();
+        client.start();
+        return client;
+    }
+
+    private static CloseableHttpAsyncClient start(TracingH2AsyncClientBuilder builder) {
+        CloseableHttpAsyncClient client = builder.build();
+        client.start();
+        return client;
+    }
+
+    private static List<ApacheClientSpanDecorator> standardTags() {
+        return Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags());
+    }
+
+    private static String serverUrl(String path) {
+        return "http://localhost:" + serverPort + path;
+    }
+}
@@ -0,0 +1,262 @@
+package io.opentracing.contrib.apache.http.client5;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.message.BasicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.NoopEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.opentracing.Scope;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.tag.Tags;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+public class TracingHttpClientBuilderTest {
+
+    private static MockTracer mockTracer = new MockTracer(new ThreadLocalScopeManager(), MockTracer.Propagator.TEXT_MAP);
+
+    private static HttpAsyncServer server;
+    private static int serverPort;
+
+    private CloseableHttpClient httpclient;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = startTestServer();
+        serverPort = port(server);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Before
+    public void setUp() {
+        httpclient = new TracingHttpClientBuilder(mockTracer,
+                Collections.<ApacheClientSpanDecorator>singletonList(new ApacheClientSpanDecorator.StandardTags()))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        httpclient.close();
+        mockTracer.reset();
+    }
+
+    @Test
+    public void testStandardTags() throws Exception {
+        execute(new HttpGet(serverUrl("/echo/a")), null);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals("GET", mockSpan.operationName());
+        Assert.assertEquals(7, mockSpan.tags().size());
+        Assert.assertEquals(Tags.SPAN_KIND_CLIENT, mockSpan.tags().get(Tags.SPAN_KIND.getKey()));
+        Assert.assertEquals("GET", mockSpan.tags().get(Tags.HTTP_METHOD.getKey()));
+        Assert.assertEquals(serverUrl("/echo/a"), mockSpan.tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(200, mockSpan.tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(serverPort, mockSpan.tags().get(Tags.PEER_PORT.getKey()));
+        Assert.assertEquals("localhost", mockSpan.tags().get(Tags.PEER_HOSTNAME.getKey()));
+        Assert.assertEquals("HTTP/1.1",
+                mockSpan.tags().get(ApacheClientSpanDecorator.StandardTags.HTTP_PROTOCOL.getKey()));
+
+        MockSpan localSpan = mockSpans.get(1);
+        Assert.assertEquals(localSpan.context().spanId(), mockSpan.parentId());
+        Assert.assertEquals(Constants.COMPONENT_NAME, localSpan.tags().get(Tags.COMPONENT.getKey()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testRedirect() throws Exception {
+        execute(new HttpGet(serverUrl(RedirectHandler.MAPPING)), null);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+
+        MockSpan localSpan = mockSpans.get(2);
+        Assert.assertEquals(301, mockSpans.get(0).tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(200, mockSpans.get(1).tags().get(Tags.HTTP_STATUS.getKey()));
+        Assert.assertEquals(serverUrl(EchoHandler.MAPPING), mockSpans.get(1).tags().get(Tags.HTTP_URL.getKey()));
+        Assert.assertEquals(localSpan.context().spanId(), mockSpans.get(0).parentId());
+        Assert.assertEquals(localSpan.context().spanId(), mockSpans.get(1).parentId());
+
+        Assert.assertEquals(EchoHandler.lastRequest.getFirstHeader("spanId").getValue(),
+                String.valueOf(mockSpans.get(1).context().spanId()));
+        assertOnErrors(mockSpans);
+    }
+
+    @Test
+    public void testActiveParentSpan() throws Exception {
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        try (Scope ignored = mockTracer.activateSpan(parent)) {
+            execute(new HttpGet(serverUrl("/echo/a")), null);
+        } finally {
+            parent.finish();
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(3, mockSpans.size());
+        Assert.assertEquals(parent.context().spanId(), mockSpans.get(1).parentId());
+        Assert.assertEquals(parent.context().traceId(), mockSpans.get(0).context().traceId());
+    }
+
+    @Test
+    public void testManualParentSpan() throws Exception {
+        MockSpan parent = mockTracer.buildSpan("parent").start();
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(Constants.PARENT_CONTEXT, parent.context());
+
+        execute(new HttpGet(serverUrl("/echo/a")), context);
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+        Assert.assertEquals(parent.context().spanId(), mockSpans.get(1).parentId());
+    }
+
+    @Test
+    public void testDisableInjection() throws Exception {
+        httpclient.close();
+        httpclient = new TracingHttpClientBuilder(mockTracer,
+                Collections.<ApacheClientSpanDecorator>emptyList())
+                .disableInjection()
+                .build();
+
+        execute(new HttpGet(serverUrl("/echo/a")), null);
+
+        Assert.assertEquals(2, mockTracer.finishedSpans().size());
+        Assert.assertNull(EchoHandler.lastRequest.getFirstHeader("spanId"));
+    }
+
+    @Test
+    public void testUnknownHostException() throws Exception {
+        try {
+            execute(new HttpGet("http://notexisting.example.com"), null);
+            Assert.fail();
+        } catch (UnknownHostException ex) {
+        }
+
+        List<MockSpan> mockSpans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, mockSpans.size());
+
+        MockSpan mockSpan = mockSpans.get(0);
+        Assert.assertEquals(Boolean.TRUE, mockSpan.tags().get(Tags.ERROR.getKey()));
+        Assert.assertEquals(1, mockSpan.logEntries().size());
+        Map<String, ?> fields = mockSpan.logEntries().get(0).fields();
+        Assert.assertEquals(Tags.ERROR.getKey(), fields.get("event"));
+        Assert.assertNotNull(fields.get("error.object"));
+    }
+
+    private void execute(HttpGet request, HttpContext context) throws IOException {
+        try (CloseableHttpResponse response = httpclient.execute(request, context)) {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+
+    private static String serverUrl(String path) {
+        return "http://localhost:" + serverPort + path;
+    }
+
+    public static void assertOnErrors(List<MockSpan> spans) {
+        for (MockSpan mockSpan: spans) {
+            Assert.assertEquals(mockSpan.generatedErrors().toString(), 0, mockSpan.generatedErrors().size());
+        }
+    }
+
+    /**
+     * Server accepting both HTTP/1.1 and HTTP/2 on the loopback interface.
+     */
+    static HttpAsyncServer startTestServer() throws Exception {
+        HttpAsyncServer server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                .register(EchoHandler.MAPPING + "*", new EchoHandler())
+                .register(RedirectHandler.MAPPING, new RedirectHandler())
+                .create();
+        server.start();
+        server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).get();
+        return server;
+    }
+
+    static int port(HttpAsyncServer server) {
+        ListenerEndpoint endpoint = server.getEndpoints().iterator().next();
+        return ((InetSocketAddress) endpoint.getAddress()).getPort();
+    }
+
+    private static AsyncRequestConsumer<Message<HttpRequest, Void>> discardingConsumer() {
+        AsyncEntityConsumer<Void> entityConsumer = new NoopEntityConsumer();
+        return new BasicRequestConsumer<>(entityConsumer);
+    }
+
+    public static class EchoHandler implements AsyncServerRequestHandler<Message<HttpRequest, Void>> {
+        public static final String MAPPING = "/echo";
+
+        public static volatile HttpRequest lastRequest;
+
+        @Override
+        public AsyncRequestConsumer<Message<HttpRequest, Void>> prepare(HttpRequest request,
+                EntityDetails entityDetails, HttpContext context) {
+            return discardingConsumer();
+        }
+
+        @Override
+        public void handle(Message<HttpRequest, Void> message, ResponseTrigger responseTrigger, HttpContext context)
+                throws HttpException, IOException {
+            lastRequest = message.getHead();
+            responseTrigger.submitResponse(new BasicResponseProducer(HttpStatus.SC_OK, "ok"), context);
+        }
+    }
+
+    public static class RedirectHandler implements AsyncServerRequestHandler<Message<HttpRequest, Void>> {
+        public static final String MAPPING = "/redirect";
+
+        @Override
+        public AsyncRequestConsumer<Message<HttpRequest, Void>> prepare(HttpRequest request,
+                EntityDetails entityDetails, HttpContext context) {
+            return discardingConsumer();
+        }
+
+        @Override
+        public void handle(Message<HttpRequest, Void> message, ResponseTrigger responseTrigger, HttpContext context)
+                throws HttpException, IOException {
+            BasicHttpResponse response = new BasicHttpResponse(HttpStatus.SC_MOVED_PERMANENTLY);
+            response.addHeader(HttpHeaders.LOCATION, EchoHandler.MAPPING);
+            responseTrigger.submitResponse(new BasicResponseProducer(response), context);
+        }
+    }
+}